@@ -0,0 +1,64 @@
+package ibis.learningmaster;
+
+import ibis.steel.Estimator;
+
+/**
+ * One arm of a multi-armed bandit; in our case a worker that we can send jobs
+ * to. Every sample is registered with an <code>ibis.steel</code> estimator,
+ * but since a bandit policy needs the exact sample mean and variance of the
+ * arm, we also keep these ourselves.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class BanditArm {
+    final Estimator estimator;
+    private int pulls = 0;
+    private double mean = 0;
+    private double S = 0;
+
+    BanditArm(final Estimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * Registers a new observed cost of this arm.
+     * 
+     * @param v
+     *            The observed cost.
+     */
+    void addSample(final double v) {
+        estimator.addSample(v);
+        pulls++;
+        final double oldMean = mean;
+        mean += (v - mean) / pulls;
+        S += (v - oldMean) * (v - mean);
+    }
+
+    int getPulls() {
+        return pulls;
+    }
+
+    double getMean() {
+        return mean;
+    }
+
+    /**
+     * Returns the sample variance of the costs of this arm, or positive
+     * infinity if there are fewer than two samples.
+     * 
+     * @return The sample variance.
+     */
+    double getVariance() {
+        if (pulls < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return S / (pulls - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "pulls=" + pulls + " mean=" + mean + " "
+                + estimator.getStatisticsString();
+    }
+}
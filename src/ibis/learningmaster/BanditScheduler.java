@@ -0,0 +1,266 @@
+package ibis.learningmaster;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * A job scheduler that treats the workers as the arms of a multi-armed
+ * bandit, and uses a worker selection policy such as UCB1 or Thompson
+ * sampling to balance exploration of the workers against exploitation of the
+ * fastest ones.
+ * 
+ * The score of the policy is the cost of a new job on an idle worker. To
+ * make the policy matter when there is a backlog, a worker is ranked on the
+ * estimated time until a new job would be completed, which adds the wait for
+ * the jobs it already has to its score, using the same
+ * {@link CompletionTimeModel} as the queue-aware learning scheduler. A job
+ * is only submitted if the best ranked worker has room for it; otherwise it
+ * waits until that worker has room, or until another worker becomes the
+ * best.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class BanditScheduler implements Scheduler {
+    private final ArrayList<WorkerInfo> workers = new ArrayList<WorkerInfo>();
+    private final JobQueue jobQueue = new JobQueue();
+    private final WorkerSelectionPolicy policy;
+    private int totalPulls = 0;
+    private static final int MAXIMAL_OUTSTANDING_JOBS = 4;
+
+    /**
+     * The smallest time in seconds we register with an estimator. The
+     * log-gaussian estimators do not accept zero samples.
+     */
+    private static final double MINIMAL_SAMPLE_TIME = 1e-11;
+
+    /**
+     * The information for each worker.
+     * 
+     * @author Kees van Reeuwijk
+     * 
+     */
+    private static class WorkerInfo {
+        final IbisIdentifier node;
+        final BanditArm arm = new BanditArm(
+                LearningScheduler.buildWorkTimeEstimator());
+
+        /**
+         * The number of jobs that timed out on this worker since it last
+         * completed a job. The elapsed time of such a job is only a lower
+         * bound on its cost, so it is not registered with the arm; instead
+         * the worker is charged a penalty.
+         */
+        int timeouts = 0;
+
+        WorkerInfo(final IbisIdentifier node) {
+            this.node = node;
+        }
+
+        @Override
+        public String toString() {
+            return node.toString();
+        }
+    }
+
+    BanditScheduler(final WorkerSelectionPolicy policy) {
+        this.policy = policy;
+    }
+
+    private WorkerInfo searchWorkerInfo(final IbisIdentifier node) {
+        for (final WorkerInfo w : workers) {
+            if (node.equals(w.node)) {
+                return w;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void shutdown() {
+        // Ignore.
+    }
+
+    @Override
+    public void removeNode(final IbisIdentifier worker) {
+        final WorkerInfo info = searchWorkerInfo(worker);
+        if (info != null) {
+            workers.remove(info);
+        }
+    }
+
+    @Override
+    public void dumpState() {
+        Globals.log.reportProgress("BanditScheduler[" + policy.getName()
+                + "]: workers=" + workers.toString());
+    }
+
+    @Override
+    public void workerHasJoined(final IbisIdentifier worker,
+            final String hostname) {
+        workers.add(new WorkerInfo(worker));
+    }
+
+    @Override
+    public void printStatistics(final PrintStream printStream) {
+        printStream.println("Bandit scheduler with policy "
+                + policy.getName() + ", " + totalPulls + " jobs");
+        for (final WorkerInfo w : workers) {
+            printStream.println(w.node + ": " + w.arm);
+        }
+    }
+
+    @Override
+    public boolean shouldStop() {
+        return jobQueue.isEmpty();
+    }
+
+    @Override
+    public void returnJob(final JobInstance job) {
+        jobQueue.add(job);
+    }
+
+    @Override
+    public void registerCompletedJob(final IbisIdentifier worker,
+            final JobInstance job, final double completionTime,
+            final double roundTripTime, final long resultSize) {
+        final WorkerInfo info = searchWorkerInfo(worker);
+        if (info == null) {
+            // The worker has left in the mean time.
+            return;
+        }
+        info.arm.addSample(Math.max(MINIMAL_SAMPLE_TIME, completionTime));
+        info.timeouts = 0;
+        totalPulls++;
+    }
+
+    @Override
+    public void jobTimedOut(final IbisIdentifier worker,
+            final JobInstance job, final double elapsedTime) {
+        final WorkerInfo info = searchWorkerInfo(worker);
+        if (info != null) {
+            // Steer the policy away from this worker.
+            info.timeouts++;
+        }
+        jobQueue.add(job);
+    }
+
+    /**
+     * Returns the estimated time until a new job would be completed on the
+     * given worker: the score of the policy for the worker, plus the wait for
+     * the jobs that are already outstanding on it.
+     */
+    private double estimateCompletionTime(final WorkerInfo worker,
+            final double score,
+            final WorkerAdministration workerAdministration, final long now) {
+        final int queueLength = workerAdministration
+                .getOutstandingRequestCount(worker.node);
+        if (queueLength == 0) {
+            return score;
+        }
+        final double runningTime = 1e-9 * (now - workerAdministration
+                .getOldestSubmissionTime(worker.node));
+        return CompletionTimeModel.estimateCompletionTime(queueLength,
+                worker.arm.estimator.getHighEstimate(), runningTime, score);
+    }
+
+    /**
+     * Returns the penalty in seconds of the given worker for the jobs that
+     * timed out on it since it last completed a job: for each such job the
+     * timeout of a job with the pessimistic cost of the worker.
+     */
+    private static double getTimeoutPenalty(final WorkerInfo worker) {
+        if (worker.timeouts == 0) {
+            return 0;
+        }
+        return worker.timeouts * LearningScheduler.TIMEOUT_SAFETY_FACTOR
+                * worker.arm.estimator.getHighEstimate();
+    }
+
+    /**
+     * Returns the time in seconds after which a job sent to the given worker
+     * is considered lost. Like the learning scheduler, we allow a safety
+     * factor times the pessimistic execution time of the job and the jobs the
+     * worker must execute first.
+     */
+    private static double computeTimeout(final WorkerInfo worker,
+            final WorkerAdministration workerAdministration) {
+        final int ahead = workerAdministration
+                .getOutstandingRequestCount(worker.node);
+        final double t = (ahead + 1) * worker.arm.estimator.getHighEstimate();
+        return Math.max(Settings.MINIMAL_JOB_TIMEOUT,
+                LearningScheduler.TIMEOUT_SAFETY_FACTOR * t);
+    }
+
+    /**
+     * Returns the worker that should get the next job, or <code>null</code>
+     * if the job should wait because the best worker has no room.
+     */
+    private WorkerInfo selectBestWorker(
+            final WorkerAdministration workerAdministration) {
+        final long now = workerAdministration.getCurrentTime();
+        WorkerInfo bestWorker = null;
+        double bestResult = Double.POSITIVE_INFINITY;
+        boolean bestHasRoom = false;
+        for (final WorkerInfo w : workers) {
+            final boolean hasRoom = workerAdministration.hasRoomForJob(
+                    w.node, MAXIMAL_OUTSTANDING_JOBS);
+            final double score = policy.getScore(w.arm, totalPulls);
+            if (score == Double.NEGATIVE_INFINITY && !hasRoom) {
+                // The policy wants to try this worker, but it is busy with
+                // its first jobs; don't let the others wait for it.
+                continue;
+            }
+            final double result = getTimeoutPenalty(w)
+                    + estimateCompletionTime(w, score, workerAdministration,
+                            now);
+            if (bestWorker == null || result < bestResult) {
+                bestResult = result;
+                bestWorker = w;
+                bestHasRoom = hasRoom;
+            }
+        }
+        return bestHasRoom ? bestWorker : null;
+    }
+
+    @Override
+    public boolean maintainOutstandingRequests(
+            final TransmitterInterface transmitter,
+            final WorkerAdministration workerAdministration) {
+        if (jobQueue.isEmpty()) {
+            // There are no jobs to submit.
+            return false;
+        }
+        final WorkerInfo worker = selectBestWorker(workerAdministration);
+        if (worker == null) {
+            return false;
+        }
+        final JobInstance job = jobQueue.poll();
+        final int id = workerAdministration.addRequest(worker.node, job,
+                computeTimeout(worker, workerAdministration));
+        if (id < 0) {
+            // The worker has gone in the mean time.
+            jobQueue.add(job);
+            return false;
+        }
+        job.send(transmitter, worker.node, id);
+        return true;
+    }
+
+    @Override
+    public double estimateExecutionTime(final Job job) {
+        return 1;
+    }
+
+    @Override
+    public boolean thereAreRequestsToSubmit() {
+        return !jobQueue.isEmpty();
+    }
+
+    @Override
+    public void submitRequest(final JobInstance job) {
+        jobQueue.add(job);
+    }
+}
@@ -0,0 +1,25 @@
+package ibis.learningmaster;
+
+/**
+ * A message from a master to a worker, telling it that it should not execute
+ * the job with the given identifier, or stop executing it if it has already
+ * started.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class CancelJobMessage extends SmallMessage {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the job to cancel. */
+    final int id;
+
+    CancelJobMessage(final int id) {
+        this.id = id;
+    }
+
+    @Override
+    public String toString() {
+        return "CancelJobMessage[" + id + "]";
+    }
+}
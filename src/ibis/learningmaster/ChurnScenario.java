@@ -0,0 +1,184 @@
+package ibis.learningmaster;
+
+import java.util.ArrayList;
+
+/**
+ * A scenario of workers that fail, leave and join during a simulation by a
+ * {@link SimulatedEngine}. A scenario consists of any combination of:
+ * <ul>
+ * <li>Independent failures: every worker fails after an exponentially
+ * distributed time with the given mean, and a new incarnation of it joins
+ * after an exponentially distributed repair time.</li>
+ * <li>Outages: at the given moment all workers of a site fail at once, and
+ * new incarnations of them join when the outage is over.</li>
+ * <li>Slowdowns: at the given moment a fraction of the workers becomes
+ * slower by the given factor, for the rest of the run.</li>
+ * </ul>
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class ChurnScenario {
+    /**
+     * The mean time in seconds between failures of a worker, or 0 if
+     * workers don't fail independently.
+     */
+    final double meanTimeBetweenFailures;
+
+    /** The mean time in seconds before a failed worker joins again. */
+    final double meanTimeToRepair;
+    final ArrayList<Outage> outages = new ArrayList<Outage>();
+    final ArrayList<Slowdown> slowdowns = new ArrayList<Slowdown>();
+
+    /** An outage of all workers of a site. */
+    static class Outage {
+        final String site;
+        final double startTime;
+        final double duration;
+
+        Outage(final String site, final double startTime,
+                final double duration) {
+            this.site = site;
+            this.startTime = startTime;
+            this.duration = duration;
+        }
+
+        @Override
+        public String toString() {
+            return "outage of " + site + " at "
+                    + Utils.formatSeconds(startTime) + " for "
+                    + Utils.formatSeconds(duration);
+        }
+    }
+
+    /** A permanent slowdown of a fraction of the workers. */
+    static class Slowdown {
+        final double fraction;
+        final double startTime;
+        final double factor;
+
+        Slowdown(final double fraction, final double startTime,
+                final double factor) {
+            this.fraction = fraction;
+            this.startTime = startTime;
+            this.factor = factor;
+        }
+
+        @Override
+        public String toString() {
+            return "slowdown by " + factor + " of " + Math.round(100 * fraction)
+                    + "% of the workers at " + Utils.formatSeconds(startTime);
+        }
+    }
+
+    private ChurnScenario(final double meanTimeBetweenFailures,
+            final double meanTimeToRepair) {
+        this.meanTimeBetweenFailures = meanTimeBetweenFailures;
+        this.meanTimeToRepair = meanTimeToRepair;
+    }
+
+    private static double[] parseNumbers(final String spec, final int n,
+            final String usage) {
+        final String parts[] = spec.split(":");
+        if (parts.length != n) {
+            throw new IllegalArgumentException("Bad specification '" + spec
+                    + "'; expected " + usage);
+        }
+        final double res[] = new double[n];
+        for (int i = 0; i < n; i++) {
+            res[i] = Double.parseDouble(parts[i]);
+        }
+        return res;
+    }
+
+    /**
+     * Parses a scenario from the given command-line arguments. The
+     * recognized options are:
+     * <ul>
+     * <li><code>--failures mtbf:mttr</code></li>
+     * <li><code>--outage site:start:duration</code></li>
+     * <li><code>--slowdown fraction:start:factor</code></li>
+     * </ul>
+     * Times are in seconds. The options may be repeated, except for
+     * <code>--failures</code>. Parsing stops at the first argument that is
+     * not one of these options.
+     * 
+     * @param args
+     *            The command-line arguments.
+     * @param start
+     *            The index of the first argument to parse.
+     * @param res
+     *            Set to the index of the first argument that was not parsed.
+     * @return The scenario, or <code>null</code> if there were no churn
+     *         options.
+     */
+    static ChurnScenario parse(final String args[], final int start,
+            final int res[]) {
+        int ix = start;
+        double mtbf = 0;
+        double mttr = 0;
+        final ArrayList<Outage> outages = new ArrayList<Outage>();
+        final ArrayList<Slowdown> slowdowns = new ArrayList<Slowdown>();
+        while (ix + 1 < args.length) {
+            final String opt = args[ix];
+            final String spec = args[ix + 1];
+            if (opt.equals("--failures")) {
+                final double l[] = parseNumbers(spec, 2, "mtbf:mttr");
+                mtbf = l[0];
+                mttr = l[1];
+            } else if (opt.equals("--outage")) {
+                final String parts[] = spec.split(":", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Bad specification '"
+                            + spec + "'; expected site:start:duration");
+                }
+                final double l[] = parseNumbers(parts[1], 2,
+                        "site:start:duration");
+                outages.add(new Outage(parts[0], l[0], l[1]));
+            } else if (opt.equals("--slowdown")) {
+                final double l[] = parseNumbers(spec, 3,
+                        "fraction:start:factor");
+                slowdowns.add(new Slowdown(l[0], l[1], l[2]));
+            } else {
+                break;
+            }
+            ix += 2;
+        }
+        res[0] = ix;
+        if (ix == start) {
+            return null;
+        }
+        final ChurnScenario s = new ChurnScenario(mtbf, mttr);
+        s.outages.addAll(outages);
+        s.slowdowns.addAll(slowdowns);
+        return s;
+    }
+
+    boolean hasFailures() {
+        return meanTimeBetweenFailures > 0;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        if (hasFailures()) {
+            b.append("failures with mtbf ");
+            b.append(Utils.formatSeconds(meanTimeBetweenFailures));
+            b.append(" and mttr ");
+            b.append(Utils.formatSeconds(meanTimeToRepair));
+        }
+        for (final Outage o : outages) {
+            if (b.length() > 0) {
+                b.append("; ");
+            }
+            b.append(o);
+        }
+        for (final Slowdown s : slowdowns) {
+            if (b.length() > 0) {
+                b.append("; ");
+            }
+            b.append(s);
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package ibis.learningmaster;
+
+/**
+ * The source of the current time of the master. Normally this is the system
+ * clock, but in a simulation it is the simulated time.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+interface Clock {
+    /** The system clock. */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Returns the current time in nanoseconds. As with
+     * <code>System.nanoTime()</code>, only differences between times are
+     * meaningful.
+     * 
+     * @return The current time.
+     */
+    long nanoTime();
+}
@@ -0,0 +1,78 @@
+package ibis.learningmaster;
+
+/**
+ * The model we use to predict when a new job will be completed by a worker
+ * that may already have a queue of jobs. It is shared by the simulated master
+ * and the production scheduler, so that what we learn in simulation carries
+ * over to production.
+ * 
+ * For the jobs in the queue we use a pessimistic estimate of their execution
+ * time, and penalize long queues even further, since every queued job adds to
+ * the uncertainty. From this we subtract the time the first job in the queue
+ * has already been running, and finally add the likely execution time of the
+ * new job.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class CompletionTimeModel {
+    /** The factor by which each job in the queue increases the penalty. */
+    static final double QUEUE_PENALTY_FACTOR = 1.05;
+
+    /**
+     * The penalty factors of the most common queue lengths, since computing
+     * them for every worker for every job is expensive.
+     */
+    private static final double queuePenalties[] = new double[1024];
+
+    static {
+        for (int i = 0; i < queuePenalties.length; i++) {
+            queuePenalties[i] = Math.pow(QUEUE_PENALTY_FACTOR, i);
+        }
+    }
+
+    /**
+     * Returns the penalty factor for a queue of the given length.
+     * 
+     * @param queueLength
+     *            The number of jobs in the queue.
+     * @return The penalty factor.
+     */
+    static double getQueuePenalty(final int queueLength) {
+        if (queueLength < queuePenalties.length) {
+            return queuePenalties[queueLength];
+        }
+        return Math.pow(QUEUE_PENALTY_FACTOR, queueLength);
+    }
+
+    /**
+     * Returns the estimated time until a new job is completed on a worker.
+     * 
+     * @param queueLength
+     *            The number of jobs queued or running on the worker.
+     * @param pessimisticJobTime
+     *            A pessimistic estimate of the execution time of a job in the
+     *            queue.
+     * @param runningTime
+     *            The time the first job in the queue has already been
+     *            running.
+     * @param likelyJobTime
+     *            The likely execution time of the new job.
+     * @return The estimated time until the new job is completed.
+     */
+    static double estimateCompletionTime(final int queueLength,
+            final double pessimisticJobTime, final double runningTime,
+            final double likelyJobTime) {
+        double t = 0;
+        if (queueLength > 0) {
+            t = queueLength * pessimisticJobTime * getQueuePenalty(queueLength);
+            // Take into account the time that
+            // The job is already running.
+            t -= runningTime;
+        }
+        // Also add the estimated time for the new job.
+        // Don't let a negative value from the estimator
+        // make a mess of things.
+        return Math.max(0, t + likelyJobTime);
+    }
+}
@@ -0,0 +1,240 @@
+package ibis.learningmaster;
+
+import java.util.Arrays;
+
+/**
+ * Factories for sources of durations drawn from the distributions that the
+ * simulators use. All sources draw their values from a {@link FastRandom}, so
+ * a source must not be shared between threads.
+ * 
+ * Since execution times in a grid are often heavy-tailed, there are sources
+ * for the log-normal and the Pareto distribution as well as for the Gaussian
+ * distribution. So that they can be swapped for each other, all three are
+ * specified by their mean and standard deviation.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class Distributions {
+    /** The system property that selects the distribution of durations. */
+    static final String DISTRIBUTION_PROPERTY = "learningmaster.distribution";
+
+    /** A Gaussian distribution where negative values are replaced by zero. */
+    static final int GAUSSIAN = 0;
+
+    /** A log-normal distribution. */
+    static final int LOG_NORMAL = 1;
+
+    /** A Pareto distribution. */
+    static final int PARETO = 2;
+
+    /**
+     * The empirical distribution of observed durations. This kind is only
+     * meaningful where there are observations, such as in a {@link JobTrace}.
+     */
+    static final int EMPIRICAL = 3;
+
+    private static final String kindNames[] = { "gaussian", "lognormal",
+            "pareto", "empirical" };
+
+    /**
+     * Returns the kind of distribution with the given name.
+     * 
+     * @param name
+     *            The name of the distribution.
+     * @return The kind of distribution, for example {@link #PARETO}.
+     */
+    static int getKind(final String name) {
+        for (int i = 0; i < kindNames.length; i++) {
+            if (kindNames[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown distribution '" + name
+                + "'; expected one of " + Arrays.toString(kindNames));
+    }
+
+    /**
+     * Returns the kind of distribution selected by the system properties; by
+     * default {@link #GAUSSIAN}.
+     * 
+     * @return The kind of distribution.
+     */
+    static int getKind() {
+        return getKind(System.getProperty(DISTRIBUTION_PROPERTY,
+                kindNames[GAUSSIAN]));
+    }
+
+    /**
+     * Returns a source of durations with the given kind of distribution,
+     * mean and standard deviation.
+     * 
+     * @param kind
+     *            The kind of distribution, for example {@link #LOG_NORMAL}.
+     * @param mean
+     *            The mean of the durations.
+     * @param stdDev
+     *            The standard deviation of the durations.
+     * @param rng
+     *            The random generator to draw the durations from.
+     * @return The source of durations.
+     */
+    static DurationSource build(final int kind, final double mean,
+            final double stdDev, final FastRandom rng) {
+        switch (kind) {
+        case GAUSSIAN:
+            return new ZeroClampedGaussianSource(mean, stdDev, rng);
+
+        case LOG_NORMAL:
+            return buildLogNormal(mean, stdDev, rng);
+
+        case PARETO:
+            return buildPareto(mean, stdDev, rng);
+
+        case EMPIRICAL:
+            throw new IllegalArgumentException("An empirical distribution"
+                    + " needs samples, not a mean and standard deviation");
+        }
+        throw new IllegalArgumentException("Unknown distribution kind " + kind);
+    }
+
+    /**
+     * Returns a source of exponentially distributed durations.
+     * 
+     * @param mean
+     *            The mean of the durations.
+     * @param rng
+     *            The random generator to draw the durations from.
+     * @return The source of durations.
+     */
+    static DurationSource buildExponential(final double mean,
+            final FastRandom rng) {
+        return new DurationSource() {
+            @Override
+            public double next() {
+                return mean * rng.nextExponential();
+            }
+
+            @Override
+            public String toString() {
+                return String.format("exponential mean=%.3g", mean);
+            }
+        };
+    }
+
+    /**
+     * Returns a source of log-normally distributed durations.
+     * 
+     * @param mean
+     *            The mean of the durations.
+     * @param stdDev
+     *            The standard deviation of the durations.
+     * @param rng
+     *            The random generator to draw the durations from.
+     * @return The source of durations.
+     */
+    static DurationSource buildLogNormal(final double mean,
+            final double stdDev, final FastRandom rng) {
+        if (mean <= 0) {
+            throw new IllegalArgumentException("Log-normal distribution"
+                    + " needs a positive mean, not " + mean);
+        }
+        final double cv = stdDev / mean;
+        final double logVariance = Math.log(1 + cv * cv);
+        final double logStdDev = Math.sqrt(logVariance);
+        final double logMean = Math.log(mean) - 0.5 * logVariance;
+        return new DurationSource() {
+            @Override
+            public double next() {
+                return Math.exp(logMean + logStdDev * rng.nextGaussian());
+            }
+
+            @Override
+            public String toString() {
+                return String.format("lognormal mean=%.3g stdDev=%.3g", mean,
+                        stdDev);
+            }
+        };
+    }
+
+    /**
+     * Returns a source of Pareto distributed durations. The shape of the
+     * distribution is determined by the ratio of the standard deviation and
+     * the mean; the smaller the shape, the heavier the tail. To have a finite
+     * standard deviation the shape is always larger than 2.
+     * 
+     * @param mean
+     *            The mean of the durations.
+     * @param stdDev
+     *            The standard deviation of the durations.
+     * @param rng
+     *            The random generator to draw the durations from.
+     * @return The source of durations.
+     */
+    static DurationSource buildPareto(final double mean, final double stdDev,
+            final FastRandom rng) {
+        if (mean <= 0 || stdDev <= 0) {
+            throw new IllegalArgumentException("Pareto distribution needs a"
+                    + " positive mean and standard deviation, not " + mean
+                    + " and " + stdDev);
+        }
+        final double cv = stdDev / mean;
+        final double shape = 1 + Math.sqrt(1 + 1 / (cv * cv));
+        final double scale = mean * (shape - 1) / shape;
+        return new DurationSource() {
+            @Override
+            public double next() {
+                // If E is exponential with mean 1, scale*exp(E/shape) is
+                // Pareto distributed.
+                return scale * Math.exp(rng.nextExponential() / shape);
+            }
+
+            @Override
+            public String toString() {
+                return String.format("pareto mean=%.3g shape=%.3g", mean,
+                        shape);
+            }
+        };
+    }
+
+    /**
+     * Returns a source of durations drawn from the empirical distribution of
+     * the given samples. Values between the samples are interpolated
+     * linearly, so that the source does not only return the samples
+     * themselves.
+     * 
+     * @param samples
+     *            The samples. They are copied, so the array may be changed
+     *            afterwards.
+     * @param rng
+     *            The random generator to draw the durations from.
+     * @return The source of durations.
+     */
+    static DurationSource buildEmpirical(final double samples[],
+            final FastRandom rng) {
+        if (samples.length == 0) {
+            throw new IllegalArgumentException("No samples for an empirical"
+                    + " distribution");
+        }
+        final double sorted[] = samples.clone();
+        Arrays.sort(sorted);
+        final int last = sorted.length - 1;
+        return new DurationSource() {
+            @Override
+            public double next() {
+                final double pos = rng.nextDouble() * last;
+                final int i = (int) pos;
+                if (i >= last) {
+                    return sorted[last];
+                }
+                return sorted[i] + (pos - i) * (sorted[i + 1] - sorted[i]);
+            }
+
+            @Override
+            public String toString() {
+                return "empirical distribution of " + sorted.length
+                        + " samples";
+            }
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package ibis.learningmaster;
+
+/**
+ * A source of durations for a simulation, such as the execution times of the
+ * jobs of a worker, or the intervals between job arrivals.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+interface DurationSource {
+    /**
+     * Returns the next duration.
+     * 
+     * @return The duration in seconds.
+     */
+    double next();
+}
@@ -0,0 +1,429 @@
+package ibis.learningmaster;
+
+import java.util.Random;
+
+/**
+ * The estimator state of a pool of workers, stored as parallel arrays instead
+ * of one estimator object per worker. This allows the statistics of all
+ * workers to be updated and scanned in simple loops over arrays, which the
+ * JIT can unroll and vectorize, instead of a virtual call on a separate heap
+ * object for every worker.
+ * 
+ * All slots of a bank use the same kind of estimator. The numbers are the
+ * same as those of the corresponding <code>ibis.steel</code> estimator, except
+ * that, as with {@link SeededEstimator}, the random part of a likely value is
+ * drawn from the given random generator.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class EstimatorBank {
+    /** The average and variance of all samples; a GaussianEstimator. */
+    static final int GAUSSIAN = 0;
+
+    /**
+     * The average and variance of the logarithm of all samples; a
+     * LogGaussianEstimator.
+     */
+    static final int LOG_GAUSSIAN = 1;
+
+    /**
+     * An exponentially decaying average and variance; an
+     * ExponentialDecayEstimator.
+     */
+    static final int DECAYING = 2;
+
+    /**
+     * An exponentially decaying average and variance of the logarithm of the
+     * samples; an ExponentialDecayLogEstimator.
+     */
+    static final int LOG_DECAYING = 3;
+
+    private static final String kindNames[] = { "gaussian", "log-gaussian",
+            "exponential-decay", "log-exponential-decay" };
+
+    private final int kind;
+    private final Random rng;
+
+    /** The weight of a new sample, for the decaying kinds. */
+    private final double alpha;
+
+    /** The (logarithmic) mean of every slot. */
+    private final double mean[];
+
+    /**
+     * For the decaying kinds the (logarithmic) variance of every slot, for
+     * the other kinds the sum of the squared differences from the mean.
+     */
+    private final double spread[];
+
+    private final int sampleCount[];
+
+    /**
+     * Scratch space for the bulk operations, so that they do not allocate.
+     */
+    private final double scratch[];
+
+    /**
+     * Constructs a new bank where every slot starts with the same estimate,
+     * with a sample count of 1.
+     * 
+     * @param kind
+     *            The kind of estimator, for example {@link #DECAYING}.
+     * @param size
+     *            The number of slots.
+     * @param mean
+     *            The initial mean; for the logarithmic kinds the mean of the
+     *            logarithm.
+     * @param variance
+     *            The initial variance; for the logarithmic kinds the variance
+     *            of the logarithm.
+     * @param alpha
+     *            The weight of a new sample; only used by the decaying kinds.
+     * @param rng
+     *            The random generator for likely values.
+     */
+    EstimatorBank(final int kind, final int size, final double mean,
+            final double variance, final double alpha, final Random rng) {
+        if (kind < GAUSSIAN || kind > LOG_DECAYING) {
+            throw new IllegalArgumentException("Unknown estimator kind "
+                    + kind);
+        }
+        this.kind = kind;
+        this.alpha = alpha;
+        this.rng = rng;
+        this.mean = new double[size];
+        spread = new double[size];
+        sampleCount = new int[size];
+        scratch = new double[size];
+        for (int i = 0; i < size; i++) {
+            reset(i, mean, variance);
+        }
+    }
+
+    /**
+     * Restarts the estimate of the given slot.
+     * 
+     * @param i
+     *            The slot.
+     * @param m
+     *            The new mean; for the logarithmic kinds the mean of the
+     *            logarithm.
+     * @param variance
+     *            The new variance; for the logarithmic kinds the variance of
+     *            the logarithm.
+     */
+    void reset(final int i, final double m, final double variance) {
+        if (Double.isNaN(m) || Double.isInfinite(m) || Double.isNaN(variance)
+                || Double.isInfinite(variance) || variance < 0) {
+            throw new IllegalArgumentException("Bad initial estimate: mean="
+                    + m + " variance=" + variance);
+        }
+        mean[i] = m;
+        spread[i] = variance;
+        sampleCount[i] = 1;
+    }
+
+    int size() {
+        return mean.length;
+    }
+
+    int getKind() {
+        return kind;
+    }
+
+    String getName() {
+        return kindNames[kind];
+    }
+
+    /**
+     * Returns the name of the given kind of estimator. This is the same name
+     * as that of the corresponding <code>ibis.steel</code> estimator.
+     * 
+     * @param kind
+     *            The kind of estimator.
+     * @return The name.
+     */
+    static String getName(final int kind) {
+        return kindNames[kind];
+    }
+
+    int getSampleCount(final int i) {
+        return sampleCount[i];
+    }
+
+    private static void checkLogSample(final double x) {
+        if (x <= 0 || Double.isInfinite(x)) {
+            throw new IllegalArgumentException("Bad sample " + x);
+        }
+    }
+
+    /**
+     * Adds a sample to the given slot.
+     * 
+     * @param i
+     *            The slot.
+     * @param x
+     *            The sample.
+     */
+    void addSample(final int i, final double x) {
+        switch (kind) {
+        case GAUSSIAN:
+            addGaussianSample(i, x);
+            break;
+
+        case LOG_GAUSSIAN:
+            checkLogSample(x);
+            addGaussianSample(i, Math.log(x));
+            break;
+
+        case DECAYING:
+            addDecayingSample(i, x);
+            break;
+
+        case LOG_DECAYING:
+            checkLogSample(x);
+            addDecayingSample(i, Math.log(x));
+            break;
+        }
+    }
+
+    private void addGaussianSample(final int i, final double x) {
+        final int n = ++sampleCount[i];
+        final double oldMean = mean[i];
+        final double m = oldMean + (x - oldMean) / n;
+        mean[i] = m;
+        spread[i] += (x - oldMean) * (x - m);
+    }
+
+    private void addDecayingSample(final int i, final double x) {
+        final double diff = x - mean[i];
+        final double incr = alpha * diff;
+        mean[i] += incr;
+        spread[i] = (1 - alpha) * (spread[i] + diff * incr);
+        sampleCount[i]++;
+    }
+
+    /**
+     * Adds one sample to every slot.
+     * 
+     * @param x
+     *            The samples, indexed by slot.
+     */
+    void addSamples(final double x[]) {
+        final int n = mean.length;
+        switch (kind) {
+        case GAUSSIAN:
+            for (int i = 0; i < n; i++) {
+                addGaussianSample(i, x[i]);
+            }
+            break;
+
+        case LOG_GAUSSIAN:
+            for (int i = 0; i < n; i++) {
+                checkLogSample(x[i]);
+                addGaussianSample(i, Math.log(x[i]));
+            }
+            break;
+
+        case DECAYING:
+            final double beta = 1 - alpha;
+            for (int i = 0; i < n; i++) {
+                final double diff = x[i] - mean[i];
+                final double incr = alpha * diff;
+                mean[i] += incr;
+                spread[i] = beta * (spread[i] + diff * incr);
+                sampleCount[i]++;
+            }
+            break;
+
+        case LOG_DECAYING:
+            for (int i = 0; i < n; i++) {
+                checkLogSample(x[i]);
+                addDecayingSample(i, Math.log(x[i]));
+            }
+            break;
+        }
+    }
+
+    /**
+     * Adds a sample to each of the given slots.
+     * 
+     * @param slots
+     *            The slots.
+     * @param x
+     *            The samples, in the same order as the slots.
+     * @param n
+     *            The number of samples.
+     */
+    void addSamples(final int slots[], final double x[], final int n) {
+        for (int k = 0; k < n; k++) {
+            addSample(slots[k], x[k]);
+        }
+    }
+
+    /**
+     * Returns the standard deviation of the (logarithmic) estimate of the
+     * given slot.
+     */
+    private double getStdDev(final int i) {
+        if (kind == GAUSSIAN || kind == LOG_GAUSSIAN) {
+            return Math.sqrt(spread[i] / sampleCount[i]);
+        }
+        return Math.sqrt(spread[i]);
+    }
+
+    private double getLikelyError(final int i) {
+        switch (kind) {
+        case GAUSSIAN:
+            return getStdDev(i) + 0.1 * mean[i] / Math.sqrt(sampleCount[i]);
+
+        case LOG_GAUSSIAN:
+            return getStdDev(i);
+
+        case DECAYING:
+        case LOG_DECAYING:
+            return Math.sqrt(spread[i]) / (1 - alpha);
+        }
+        throw new IllegalStateException("Unknown estimator kind " + kind);
+    }
+
+    /**
+     * Returns a pessimistic estimate of the given slot.
+     * 
+     * @param i
+     *            The slot.
+     * @return The estimate.
+     */
+    double getHighEstimate(final int i) {
+        switch (kind) {
+        case GAUSSIAN:
+        case DECAYING:
+            return mean[i] + getStdDev(i);
+
+        case LOG_GAUSSIAN:
+            return Math.exp(mean[i] + getStdDev(i));
+
+        case LOG_DECAYING:
+            return Math.exp(mean[i]) + Math.exp(0.5 * spread[i]);
+        }
+        throw new IllegalStateException("Unknown estimator kind " + kind);
+    }
+
+    /**
+     * Returns a likely value of the given slot, drawn at random from the
+     * estimated distribution.
+     * 
+     * @param i
+     *            The slot.
+     * @return The likely value.
+     */
+    double getLikelyValue(final int i) {
+        return likelyValue(i, rng.nextGaussian());
+    }
+
+    private double likelyValue(final int i, final double gaussian) {
+        final double v = mean[i] + getLikelyError(i) * gaussian;
+        if (kind == LOG_GAUSSIAN || kind == LOG_DECAYING) {
+            return Math.exp(v);
+        }
+        return v;
+    }
+
+    /**
+     * Computes a pessimistic estimate for every slot.
+     * 
+     * @param res
+     *            The array to store the estimates in, indexed by slot.
+     */
+    void getHighEstimates(final double res[]) {
+        final int n = mean.length;
+        switch (kind) {
+        case GAUSSIAN:
+            for (int i = 0; i < n; i++) {
+                res[i] = mean[i] + Math.sqrt(spread[i] / sampleCount[i]);
+            }
+            break;
+
+        case DECAYING:
+            for (int i = 0; i < n; i++) {
+                res[i] = mean[i] + Math.sqrt(spread[i]);
+            }
+            break;
+
+        default:
+            for (int i = 0; i < n; i++) {
+                res[i] = getHighEstimate(i);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Draws a likely value for every slot. The random numbers are drawn in
+     * slot order, so the result is the same as calling
+     * {@link #getLikelyValue(int)} for every slot in turn.
+     * 
+     * @param res
+     *            The array to store the likely values in, indexed by slot.
+     */
+    void getLikelyValues(final double res[]) {
+        final int n = mean.length;
+        // Drawing the random numbers is inherently sequential; keep it out
+        // of the loops that do the arithmetic.
+        for (int i = 0; i < n; i++) {
+            scratch[i] = rng.nextGaussian();
+        }
+        switch (kind) {
+        case DECAYING:
+            final double beta = 1 - alpha;
+            for (int i = 0; i < n; i++) {
+                res[i] = mean[i] + Math.sqrt(spread[i]) / beta * scratch[i];
+            }
+            break;
+
+        default:
+            for (int i = 0; i < n; i++) {
+                res[i] = likelyValue(i, scratch[i]);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Returns the index of the smallest of the first <code>n</code> values.
+     * 
+     * @param values
+     *            The values.
+     * @param n
+     *            The number of values to consider.
+     * @return The lowest index of the smallest value, or <code>-1</code> if
+     *         no value is smaller than positive infinity.
+     */
+    static int argMin(final double values[], final int n) {
+        int best = -1;
+        double bestValue = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            final double v = values[i];
+            if (v < bestValue) {
+                best = i;
+                bestValue = v;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns a description of the estimate of the given slot, in the same
+     * format as {@link SeededEstimator#getStatisticsString()}.
+     * 
+     * @param i
+     *            The slot.
+     * @return The description.
+     */
+    String getStatisticsString(final int i) {
+        return String.format("mean=%.4g stdDev=%.4g likely error=%.4g"
+                + " samples=%d", mean[i], getStdDev(i), getLikelyError(i),
+                sampleCount[i]);
+    }
+}
@@ -0,0 +1,84 @@
+package ibis.learningmaster;
+
+import java.util.Random;
+
+/**
+ * Compares the speed of {@link EventQueue} and {@link PrimitiveEventQueue}
+ * with the classic hold model: the queue is filled with a given number of
+ * events, and then repeatedly the earliest event is removed and a new event
+ * is added a random interval later. Each measurement is repeated a few times
+ * after a warm-up round, so that the JIT compiler has done its work.
+ * 
+ * Usage: <code>EventQueueBenchmark [operations]</code>
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class EventQueueBenchmark {
+    private static final int QUEUE_SIZES[] = { 20, 1000, 100000 };
+    private static final int ROUNDS = 5;
+
+    private static double runObjectQueue(final int queueSize,
+            final long operations, final long seed) {
+        final Random rng = new Random(seed);
+        final EventQueue q = new EventQueue(false);
+        for (int i = 0; i < queueSize; i++) {
+            q.addEvent(new EventQueue.Event(rng.nextDouble()));
+        }
+        double sum = 0;
+        for (long i = 0; i < operations; i++) {
+            final double t = q.getNextEvent().getTime();
+            sum += t;
+            q.addEvent(new EventQueue.Event(t + rng.nextDouble()));
+        }
+        return sum;
+    }
+
+    private static double runPrimitiveQueue(final int queueSize,
+            final long operations, final long seed) {
+        final Random rng = new Random(seed);
+        final PrimitiveEventQueue q = new PrimitiveEventQueue(queueSize);
+        for (int i = 0; i < queueSize; i++) {
+            q.add(rng.nextDouble(), 0, i, 0);
+        }
+        double sum = 0;
+        for (long i = 0; i < operations; i++) {
+            q.poll();
+            final double t = q.getTime();
+            sum += t;
+            q.add(t + rng.nextDouble(), q.getKind(), q.getIndex(), 0);
+        }
+        return sum;
+    }
+
+    public static void main(final String args[]) {
+        final long operations = args.length > 0 ? Long.parseLong(args[0])
+                : 2000000L;
+        for (final int queueSize : QUEUE_SIZES) {
+            double objectTime = Double.POSITIVE_INFINITY;
+            double primitiveTime = Double.POSITIVE_INFINITY;
+            for (int round = 0; round <= ROUNDS; round++) {
+                final long t0 = System.nanoTime();
+                final double a = runObjectQueue(queueSize, operations, round);
+                final long t1 = System.nanoTime();
+                final double b = runPrimitiveQueue(queueSize, operations,
+                        round);
+                final long t2 = System.nanoTime();
+                if (a != b) {
+                    System.err.println("Queues disagree: " + a + " != " + b);
+                }
+                if (round > 0) {
+                    // Round 0 is the warm-up.
+                    objectTime = Math.min(objectTime, 1e-9 * (t1 - t0));
+                    primitiveTime = Math.min(primitiveTime, 1e-9 * (t2 - t1));
+                }
+            }
+            System.out.format(
+                    "queue size %7d: EventQueue %6.1f ns/op"
+                            + " PrimitiveEventQueue %6.1f ns/op (%.2fx)\n",
+                    queueSize, 1e9 * objectTime / operations, 1e9
+                            * primitiveTime / operations, objectTime
+                            / primitiveTime);
+        }
+    }
+}
@@ -19,10 +19,30 @@ class ExecuteJobMessage extends SmallMessage {
 
     final Serializable input;
 
-    ExecuteJobMessage(final Job job, final int id, final Serializable input) {
+    /**
+     * If non-zero, the worker should not return the result to the master, but
+     * keep it to forward it to the jobs on other workers that need it, until
+     * the master releases it. The value is the number of such jobs.
+     */
+    final int retainCount;
+
+    /**
+     * If non-zero, the input is not in this message, but this many results
+     * will be forwarded to the worker by other workers.
+     */
+    final int forwardedInputs;
+
+    ExecuteJobMessage(final Job job, final int id, final Serializable input,
+            final int retainCount, final int forwardedInputs) {
         this.job = job;
         this.id = id;
         this.input = input;
+        this.retainCount = retainCount;
+        this.forwardedInputs = forwardedInputs;
+    }
+
+    ExecuteJobMessage(final Job job, final int id, final Serializable input) {
+        this(job, id, input, 0, 0);
     }
 
     @Override
@@ -0,0 +1,290 @@
+package ibis.learningmaster;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fast, splittable random generator for the simulators. It uses the
+ * SplitMix64 algorithm, the algorithm of
+ * <code>java.util.SplittableRandom</code>, and draws Gaussian and exponential
+ * values with the ziggurat method of Marsaglia and Tsang.
+ * 
+ * Unlike <code>java.util.Random</code> this generator is not thread-safe: it
+ * does no synchronization and no atomic updates at all, and Gaussian values
+ * are not drawn in pairs. Every thread, or better, every replication and
+ * every simulated entity, should have its own generator. These are created
+ * with {@link #split()}, which returns a generator whose stream is
+ * statistically independent of that of its parent. A generator is a
+ * <code>java.util.Random</code>, so it can be passed to all code that expects
+ * one.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class FastRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** The seed of the next generator built without a seed. */
+    private static final AtomicLong defaultSeed = new AtomicLong(
+            mix64(System.currentTimeMillis()) ^ mix64(System.nanoTime()));
+
+    /** The number of layers of the ziggurat for Gaussian values. */
+    private static final int NORMAL_LAYERS = 128;
+
+    /** The start of the tail of the Gaussian ziggurat. */
+    private static final double NORMAL_R = 3.442619855899;
+
+    /** The area of a layer of the Gaussian ziggurat. */
+    private static final double NORMAL_V = 9.91256303526217e-3;
+
+    /** The number of layers of the ziggurat for exponential values. */
+    private static final int EXPONENTIAL_LAYERS = 256;
+
+    /** The start of the tail of the exponential ziggurat. */
+    private static final double EXPONENTIAL_R = 7.697117470131487;
+
+    /** The area of a layer of the exponential ziggurat. */
+    private static final double EXPONENTIAL_V = 3.949659822581572e-3;
+
+    /*
+     * The ziggurat tables. For every layer, k is the bound below which a
+     * 32-bit value is accepted at once, w is the scale from a 32-bit value
+     * to a variate, and f is the density at the bottom edge of the layer.
+     */
+    private static final long normalK[] = new long[NORMAL_LAYERS];
+    private static final double normalW[] = new double[NORMAL_LAYERS];
+    private static final double normalF[] = new double[NORMAL_LAYERS];
+    private static final long exponentialK[] = new long[EXPONENTIAL_LAYERS];
+    private static final double exponentialW[] = new double[EXPONENTIAL_LAYERS];
+    private static final double exponentialF[] = new double[EXPONENTIAL_LAYERS];
+
+    static {
+        final double m1 = 2147483648.0;
+        double dn = NORMAL_R;
+        double tn = dn;
+        double q = NORMAL_V / Math.exp(-0.5 * dn * dn);
+        normalK[0] = (long) ((dn / q) * m1);
+        normalK[1] = 0;
+        normalW[0] = q / m1;
+        normalW[NORMAL_LAYERS - 1] = dn / m1;
+        normalF[0] = 1.0;
+        normalF[NORMAL_LAYERS - 1] = Math.exp(-0.5 * dn * dn);
+        for (int i = NORMAL_LAYERS - 2; i >= 1; i--) {
+            dn = Math.sqrt(-2 * Math.log(NORMAL_V / dn
+                    + Math.exp(-0.5 * dn * dn)));
+            normalK[i + 1] = (long) ((dn / tn) * m1);
+            tn = dn;
+            normalF[i] = Math.exp(-0.5 * dn * dn);
+            normalW[i] = dn / m1;
+        }
+
+        final double m2 = 4294967296.0;
+        double de = EXPONENTIAL_R;
+        double te = de;
+        q = EXPONENTIAL_V / Math.exp(-de);
+        exponentialK[0] = (long) ((de / q) * m2);
+        exponentialK[1] = 0;
+        exponentialW[0] = q / m2;
+        exponentialW[EXPONENTIAL_LAYERS - 1] = de / m2;
+        exponentialF[0] = 1.0;
+        exponentialF[EXPONENTIAL_LAYERS - 1] = Math.exp(-de);
+        for (int i = EXPONENTIAL_LAYERS - 2; i >= 1; i--) {
+            de = -Math.log(EXPONENTIAL_V / de + Math.exp(-de));
+            exponentialK[i + 1] = (long) ((de / te) * m2);
+            te = de;
+            exponentialF[i] = Math.exp(-de);
+            exponentialW[i] = de / m2;
+        }
+    }
+
+    private long seed;
+
+    /** The increment of the seed; always odd. */
+    private long gamma;
+
+    private FastRandom(final long seed, final long gamma) {
+        super(0L);
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Constructs a new generator with the given seed. Generators with the
+     * same seed produce the same stream of values.
+     * 
+     * @param seed
+     *            The seed.
+     */
+    FastRandom(final long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    /**
+     * Constructs a new generator with a seed that is different from that of
+     * any other generator constructed this way in this JVM.
+     */
+    FastRandom() {
+        this(defaultSeed.getAndAdd(2 * GOLDEN_GAMMA), GOLDEN_GAMMA);
+    }
+
+    /**
+     * Returns a new generator for the given generator to hand out, for
+     * example to a simulated worker. If the given generator is a
+     * {@link FastRandom}, this is its {@link #split()}, otherwise it is a
+     * generator seeded from it.
+     * 
+     * @param rng
+     *            The parent generator.
+     * @return The new generator.
+     */
+    static FastRandom split(final Random rng) {
+        if (rng instanceof FastRandom) {
+            return ((FastRandom) rng).split();
+        }
+        return new FastRandom(rng.nextLong());
+    }
+
+    /**
+     * Returns the SplitMix64 mixing function of the given value.
+     * 
+     * @param v
+     *            The value to mix.
+     * @return The mixed value.
+     */
+    static long mix64(final long v) {
+        long z = v;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns an odd increment for a new generator, with enough bit
+     * transitions to give a good stream.
+     */
+    private static long mixGamma(final long v) {
+        long z = v;
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        final int n = Long.bitCount(z ^ (z >>> 1));
+        return n < 24 ? z ^ 0xAAAAAAAAAAAAAAAAL : z;
+    }
+
+    private long nextSeed() {
+        seed += gamma;
+        return seed;
+    }
+
+    /**
+     * Returns a new generator that shares no state with this one, and whose
+     * stream of values is statistically independent of that of this one.
+     * Splitting advances this generator.
+     * 
+     * @return The new generator.
+     */
+    FastRandom split() {
+        return new FastRandom(nextLong(), mixGamma(nextSeed()));
+    }
+
+    @Override
+    public void setSeed(final long seed) {
+        // Called by the constructor of Random, so don't touch anything
+        // else than the seed.
+        this.seed = seed;
+    }
+
+    @Override
+    protected int next(final int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a value in the range <code>(0,1]</code>, so that its logarithm
+     * is finite.
+     */
+    private double nextPositiveDouble() {
+        return ((nextLong() >>> 11) + 1) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a value from the standard Gaussian distribution, with the
+     * ziggurat method. The layer and the position in the layer are taken
+     * from different bits of a single 64-bit value, so that they are
+     * independent.
+     * 
+     * @return The value.
+     */
+    @Override
+    public double nextGaussian() {
+        while (true) {
+            final long r = nextLong();
+            final int i = (int) r & (NORMAL_LAYERS - 1);
+            final long h = r >> 32;
+            final double x = h * normalW[i];
+            if (Math.abs(h) < normalK[i]) {
+                // By far the most common case: inside the layer.
+                return x;
+            }
+            if (i == 0) {
+                // The tail beyond the base layer.
+                double tx;
+                double ty;
+                do {
+                    tx = -Math.log(nextPositiveDouble()) / NORMAL_R;
+                    ty = -Math.log(nextPositiveDouble());
+                } while (ty + ty < tx * tx);
+                return h > 0 ? NORMAL_R + tx : -NORMAL_R - tx;
+            }
+            if (normalF[i] + nextDouble() * (normalF[i - 1] - normalF[i]) < Math
+                    .exp(-0.5 * x * x)) {
+                return x;
+            }
+        }
+    }
+
+    /**
+     * Returns a value from the exponential distribution with mean 1, with
+     * the ziggurat method. This method is public because on newer JDKs it
+     * overrides the one of <code>java.util.random.RandomGenerator</code>.
+     * 
+     * @return The value.
+     */
+    public double nextExponential() {
+        while (true) {
+            final long r = nextLong();
+            final int i = (int) r & (EXPONENTIAL_LAYERS - 1);
+            final long j = r >>> 32;
+            final double x = j * exponentialW[i];
+            if (j < exponentialK[i]) {
+                return x;
+            }
+            if (i == 0) {
+                // The exponential distribution is memoryless, so the tail is
+                // just another exponential distribution.
+                return EXPONENTIAL_R - Math.log(nextPositiveDouble());
+            }
+            if (exponentialF[i] + nextDouble()
+                    * (exponentialF[i - 1] - exponentialF[i]) < Math.exp(-x)) {
+                return x;
+            }
+        }
+    }
+}
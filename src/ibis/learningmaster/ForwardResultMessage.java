@@ -0,0 +1,41 @@
+package ibis.learningmaster;
+
+import ibis.ipl.IbisIdentifier;
+
+/**
+ * A message from a master to a worker, telling it to send the result it
+ * retained for one of its jobs directly to the worker that executes a job
+ * that needs it as input.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class ForwardResultMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the job that produced the result. */
+    final int resultId;
+
+    /** The worker to send the result to. */
+    final IbisIdentifier destination;
+
+    /** The identifier of the job that needs the result. */
+    final int consumerId;
+
+    /** The input slot of the consuming job the result goes into. */
+    final int slot;
+
+    ForwardResultMessage(final int resultId, final IbisIdentifier destination,
+            final int consumerId, final int slot) {
+        this.resultId = resultId;
+        this.destination = destination;
+        this.consumerId = consumerId;
+        this.slot = slot;
+    }
+
+    @Override
+    public String toString() {
+        return "ForwardResultMessage[" + resultId + "->" + consumerId + ":"
+                + slot + "]";
+    }
+}
@@ -0,0 +1,34 @@
+package ibis.learningmaster;
+
+import java.io.Serializable;
+
+/**
+ * A message from one worker to another, carrying the result of a job that is
+ * (part of) the input of a job on the receiving worker.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class ForwardedResultMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the job that needs the result. */
+    final int consumerId;
+
+    /** The input slot of the consuming job the result goes into. */
+    final int slot;
+
+    final Serializable result;
+
+    ForwardedResultMessage(final int consumerId, final int slot,
+            final Serializable result) {
+        this.consumerId = consumerId;
+        this.slot = slot;
+        this.result = result;
+    }
+
+    @Override
+    public String toString() {
+        return "ForwardedResultMessage[" + consumerId + ":" + slot + "]";
+    }
+}
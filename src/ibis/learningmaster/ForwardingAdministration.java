@@ -0,0 +1,219 @@
+package ibis.learningmaster;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * The administration of a worker of job results that are forwarded directly
+ * between workers. It keeps the results this worker must forward to other
+ * workers, and the jobs that are waiting for results from other workers.
+ * 
+ * A result is kept until the master releases it, not until it has been
+ * forwarded a given number of times, since a job that needs it may be sent
+ * again if its worker leaves or it takes too long.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class ForwardingAdministration {
+    private final HashMap<Integer, Serializable> retainedResults = new HashMap<Integer, Serializable>();
+    private final HashMap<Integer, PendingJob> pendingJobs = new HashMap<Integer, PendingJob>();
+
+    /**
+     * For each job that was dropped while it waited for its inputs, the slots
+     * of the inputs that haven't arrived yet. Such inputs are discarded when
+     * they arrive, and the job is forgotten once all of them have arrived.
+     */
+    private final HashMap<Integer, HashSet<Integer>> droppedJobs = new HashMap<Integer, HashSet<Integer>>();
+    private int forwardedResults = 0;
+    private int receivedResults = 0;
+
+    /**
+     * A job that is waiting for one or more of its inputs. Since a forwarded
+     * result may arrive before the job itself, the job may also be
+     * <code>null</code>.
+     */
+    private static class PendingJob {
+        ExecuteJobMessage request = null;
+
+        /**
+         * The inputs that have arrived, indexed by slot. If an input is
+         * forwarded again, for example because its producer was executed
+         * again, it simply replaces the earlier copy.
+         */
+        final HashMap<Integer, Serializable> inputs = new HashMap<Integer, Serializable>();
+
+        void setRequest(final ExecuteJobMessage rq) {
+            request = rq;
+        }
+
+        void addInput(final int slot, final Serializable result) {
+            inputs.put(slot, result);
+        }
+
+        boolean isComplete() {
+            return request != null
+                    && inputs.size() >= request.forwardedInputs;
+        }
+
+        ExecuteJobMessage buildRequest() {
+            final Serializable input;
+            if (request.forwardedInputs == 1) {
+                input = inputs.get(0);
+            } else {
+                final Serializable l[] = new Serializable[request.forwardedInputs];
+                for (int slot = 0; slot < l.length; slot++) {
+                    l[slot] = inputs.get(slot);
+                }
+                input = l;
+            }
+            final ExecuteJobMessage res = new ExecuteJobMessage(request.job,
+                    request.id, input, request.retainCount, 0);
+            res.source = request.source;
+            res.arrivalTime = request.arrivalTime;
+            return res;
+        }
+    }
+
+    /**
+     * Registers the given result of the job with the given id, to be forwarded
+     * until the master releases it.
+     * 
+     * @param id
+     *            The identifier of the job.
+     * @param result
+     *            The result of the job.
+     */
+    synchronized void retainResult(final int id, final Serializable result) {
+        retainedResults.put(id, result);
+    }
+
+    /**
+     * Returns <code>true</code> iff we retain the result of the job with the
+     * given id.
+     * 
+     * @param id
+     *            The identifier of the job.
+     * @return <code>true</code> iff there is a retained result for this job.
+     */
+    synchronized boolean hasResultToForward(final int id) {
+        return retainedResults.containsKey(id);
+    }
+
+    /**
+     * Returns the retained result of the job with the given id. The result is
+     * kept, since the job that needs it may be sent again.
+     * 
+     * @param id
+     *            The identifier of the job.
+     * @return The retained result.
+     */
+    synchronized Serializable getResultToForward(final int id) {
+        forwardedResults++;
+        return retainedResults.get(id);
+    }
+
+    /**
+     * Forgets the retained result of the job with the given id.
+     * 
+     * @param id
+     *            The identifier of the job.
+     */
+    synchronized void releaseResult(final int id) {
+        retainedResults.remove(id);
+    }
+
+    /**
+     * Drops the job with the given id if it is still waiting for its inputs.
+     * 
+     * @param id
+     *            The identifier of the job.
+     * @return <code>true</code> iff the job was waiting and has been dropped.
+     */
+    synchronized boolean dropPendingJob(final int id) {
+        final PendingJob p = pendingJobs.get(id);
+        if (p == null || p.request == null) {
+            return false;
+        }
+        pendingJobs.remove(id);
+        final HashSet<Integer> missing = new HashSet<Integer>();
+        for (int slot = 0; slot < p.request.forwardedInputs; slot++) {
+            if (!p.inputs.containsKey(slot)) {
+                missing.add(slot);
+            }
+        }
+        if (!missing.isEmpty()) {
+            droppedJobs.put(id, missing);
+        }
+        return true;
+    }
+
+    private PendingJob getPendingJob(final int id) {
+        PendingJob p = pendingJobs.get(id);
+        if (p == null) {
+            p = new PendingJob();
+            pendingJobs.put(id, p);
+        }
+        return p;
+    }
+
+    /**
+     * Registers a job that waits for forwarded inputs.
+     * 
+     * @param rq
+     *            The request to execute the job.
+     * @return The request with its inputs filled in if all its inputs have
+     *         already arrived, or <code>null</code> if it must wait.
+     */
+    synchronized ExecuteJobMessage addPendingJob(final ExecuteJobMessage rq) {
+        final PendingJob p = getPendingJob(rq.id);
+        p.setRequest(rq);
+        return releaseIfComplete(rq.id, p);
+    }
+
+    /**
+     * Registers a forwarded input of a job.
+     * 
+     * @param msg
+     *            The message with the input.
+     * @return The request with its inputs filled in if this was the last
+     *         input it was waiting for, or <code>null</code> otherwise.
+     */
+    synchronized ExecuteJobMessage addForwardedResult(
+            final ForwardedResultMessage msg) {
+        final HashSet<Integer> missing = droppedJobs.get(msg.consumerId);
+        if (missing != null) {
+            // The job has been dropped; discard its late input.
+            missing.remove(msg.slot);
+            if (missing.isEmpty()) {
+                droppedJobs.remove(msg.consumerId);
+            }
+            return null;
+        }
+        final PendingJob p = getPendingJob(msg.consumerId);
+        p.addInput(msg.slot, msg.result);
+        receivedResults++;
+        return releaseIfComplete(msg.consumerId, p);
+    }
+
+    private ExecuteJobMessage releaseIfComplete(final int id,
+            final PendingJob p) {
+        if (!p.isComplete()) {
+            return null;
+        }
+        pendingJobs.remove(id);
+        return p.buildRequest();
+    }
+
+    synchronized void printStatistics(final PrintStream s) {
+        if (forwardedResults + receivedResults > 0) {
+            s.println("forwarding: sent " + forwardedResults
+                    + " results, received " + receivedResults + "; "
+                    + retainedResults.size()
+                    + " results still retained, " + pendingJobs.size()
+                    + " jobs still waiting for input");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package ibis.learningmaster;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of the integers <code>0..n-1</code>, each with a key, that
+ * supports changing the key of an element and removing it in logarithmic
+ * time. Elements with equal keys are ordered by their value, so that the
+ * order of the heap does not depend on the order of updates.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class IndexedMinHeap {
+    /** The elements, in heap order. */
+    private final int heap[];
+
+    /** For every element its position in the heap, or -1. */
+    private final int positions[];
+
+    /** For every element its key. */
+    private final double keys[];
+    private int size = 0;
+
+    /**
+     * Constructs an empty heap for the elements <code>0..n-1</code>.
+     * 
+     * @param n
+     *            The number of possible elements.
+     */
+    IndexedMinHeap(final int n) {
+        heap = new int[n];
+        positions = new int[n];
+        keys = new double[n];
+        Arrays.fill(positions, -1);
+    }
+
+    private boolean isLess(final int a, final int b) {
+        final double ka = keys[a];
+        final double kb = keys[b];
+        return ka < kb || (ka == kb && a < b);
+    }
+
+    private void place(final int e, final int pos) {
+        heap[pos] = e;
+        positions[e] = pos;
+    }
+
+    private void siftUp(final int e, int pos) {
+        while (pos > 0) {
+            final int parent = (pos - 1) >> 1;
+            final int p = heap[parent];
+            if (!isLess(e, p)) {
+                break;
+            }
+            place(p, pos);
+            pos = parent;
+        }
+        place(e, pos);
+    }
+
+    private void siftDown(final int e, int pos) {
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isLess(heap[child + 1], heap[child])) {
+                child++;
+            }
+            final int c = heap[child];
+            if (!isLess(c, e)) {
+                break;
+            }
+            place(c, pos);
+            pos = child;
+        }
+        place(e, pos);
+    }
+
+    /**
+     * Sets the key of the given element, adding it to the heap if necessary.
+     * 
+     * @param e
+     *            The element.
+     * @param key
+     *            The new key of the element.
+     */
+    void set(final int e, final double key) {
+        final int pos = positions[e];
+        keys[e] = key;
+        if (pos < 0) {
+            siftUp(e, size++);
+        } else {
+            siftUp(e, pos);
+            siftDown(e, positions[e]);
+        }
+    }
+
+    /**
+     * Removes the given element from the heap, if it is there.
+     * 
+     * @param e
+     *            The element to remove.
+     */
+    void remove(final int e) {
+        final int pos = positions[e];
+        if (pos < 0) {
+            return;
+        }
+        positions[e] = -1;
+        size--;
+        if (pos < size) {
+            final int last = heap[size];
+            siftUp(last, pos);
+            siftDown(last, positions[last]);
+        }
+    }
+
+    /**
+     * Returns the element with the smallest key.
+     * 
+     * @return The element, or <code>-1</code> if the heap is empty.
+     */
+    int peek() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    /**
+     * Returns the key of the given element.
+     * 
+     * @param e
+     *            The element.
+     * @return The key.
+     */
+    double getKey(final int e) {
+        return keys[e];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+}
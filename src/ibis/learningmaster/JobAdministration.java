@@ -0,0 +1,361 @@
+package ibis.learningmaster;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The administration of the master for the completion, cancellation and
+ * reissuing of jobs. It is shared between the engine and the simulator, so
+ * that both run exactly the same bookkeeping on top of the same scheduler.
+ * 
+ * @author Kees van Reeuwijk
+ */
+class JobAdministration {
+    private final WorkerAdministration workerAdministration;
+    private final Scheduler scheduler;
+    private final TransmitterInterface transmitter;
+
+    /** The trace of the completed jobs, or <code>null</code>. */
+    private final JobTraceWriter trace;
+    private int metDeadlines = 0;
+    private int missedDeadlines = 0;
+    private int reissuedJobs = 0;
+    private int lateCompletions = 0;
+    private int duplicateCompletions = 0;
+    private int backedUpJobs = 0;
+    private int backupWins = 0;
+    private double wastedWorkTime = 0;
+    private double makespanSaved = 0;
+    private int cancelledJobCount = 0;
+
+    /** The number of jobs that have been completed successfully. */
+    private int completedJobCount = 0;
+
+    /**
+     * The unfinished job graphs whose workers keep results to forward them,
+     * so that we can execute jobs again when a worker loses such a result.
+     */
+    private final HashSet<JobGraph> forwardingGraphs = new HashSet<JobGraph>();
+
+    /**
+     * Constructs a new job administration.
+     * 
+     * @param workerAdministration
+     *            The administration of the outstanding requests.
+     * @param scheduler
+     *            The scheduler of the master.
+     * @param transmitter
+     *            The transmitter to send cancellations with.
+     * @param trace
+     *            The trace to record completed jobs in, or <code>null</code>.
+     */
+    JobAdministration(final WorkerAdministration workerAdministration,
+            final Scheduler scheduler, final TransmitterInterface transmitter,
+            final JobTraceWriter trace) {
+        this.workerAdministration = workerAdministration;
+        this.scheduler = scheduler;
+        this.transmitter = transmitter;
+        this.trace = trace;
+    }
+
+    /**
+     * Submits the given job to the scheduler.
+     * 
+     * @param job
+     *            The job to submit.
+     */
+    void submit(final JobInstance job) {
+        job.submitTime = workerAdministration.getCurrentTime();
+        if (job.node != null && job.node.graph.forwardsResults()) {
+            forwardingGraphs.add(job.node.graph);
+        }
+        scheduler.submitRequest(job);
+    }
+
+    private void submitAll(final List<JobInstance> l) {
+        for (final JobInstance j : l) {
+            submit(j);
+        }
+    }
+
+    /**
+     * Handles the completion of a job. A job that was reissued after a timeout
+     * or that has a speculative backup copy may be completed more than once;
+     * only the first completion counts, and the other copy is abandoned. A
+     * late completion of an expired request is accepted if the job hasn't
+     * been completed otherwise, but we don't learn from its timing.
+     * 
+     * @param msg
+     *            The completion message.
+     */
+    void handleJobCompleted(final JobCompletedMessage msg) {
+        boolean late = false;
+        WorkerAdministration.OutstandingRequest rq = workerAdministration
+                .removeJob(msg.source, msg.jobNo);
+        if (rq == null) {
+            rq = workerAdministration.removeExpiredRequest(msg.jobNo);
+            late = true;
+        }
+        if (rq == null) {
+            Globals.log.reportProgress("Ignoring completion of unknown job "
+                    + msg.jobNo);
+            return;
+        }
+        final JobInstance job = rq.job;
+        if (job.cancelled) {
+            Globals.log.reportProgress("Ignoring completion of cancelled job "
+                    + msg.jobNo);
+            releaseUnusedResult(msg, job);
+            return;
+        }
+        if (job.completed) {
+            releaseUnusedResult(msg, job);
+            if (job.hasBackup()) {
+                // The losing copy of a speculatively executed job. If it was
+                // cancelled, the completion time is the time it ran.
+                wastedWorkTime += msg.completionTime;
+                if (job.completedByBackup && !msg.failed) {
+                    makespanSaved += 1e-9 * (msg.arrivalTime
+                            - job.completionArrivalTime);
+                }
+            }
+            duplicateCompletions++;
+            Globals.log.reportProgress("Ignoring duplicate completion of job "
+                    + msg.jobNo);
+            return;
+        }
+        if (msg.failed) {
+            // Only now we know it is a real failure, and not that of a job
+            // we had already given up on.
+            Globals.log.reportError("Job " + msg.jobNo + " failed on worker "
+                    + msg.source);
+        }
+        if (late) {
+            if (msg.failed) {
+                // The reissued job may still succeed.
+                return;
+            }
+            lateCompletions++;
+        }
+        if (msg.failed && workerAdministration.hasOtherCopy(rq)) {
+            // The other copy may still succeed.
+            return;
+        }
+        if (job.hasBackup()) {
+            final boolean isBackup = msg.jobNo == job.backupRequestId;
+            backedUpJobs++;
+            job.completedByBackup = isBackup;
+            if (isBackup) {
+                backupWins++;
+            }
+            job.completionArrivalTime = msg.arrivalTime;
+        }
+        // Abandon all other copies of the job that are still outstanding.
+        sendCancel(workerAdministration.abandonRequest(job.requestId));
+        sendCancel(workerAdministration.abandonRequest(job.primaryRequestId));
+        sendCancel(workerAdministration.abandonRequest(job.backupRequestId));
+        job.setCompleted();
+        if (!msg.failed) {
+            completedJobCount++;
+        }
+        if (trace != null) {
+            trace.recordJob(job, rq.submissionTime, msg.source,
+                    msg.receivedBytes, msg.completionTime, msg.failed);
+        }
+        if (!msg.failed && !late) {
+            final double roundTripTime = 1e-9 * (msg.arrivalTime
+                    - rq.submissionTime);
+            scheduler.registerCompletedJob(msg.source, job,
+                    msg.completionTime, roundTripTime, msg.receivedBytes);
+        }
+        if (job.node != null) {
+            final JobGraph.Node node = job.node;
+            if (msg.failed) {
+                node.graph.registerFailedJob(node, transmitter);
+            } else {
+                submitAll(node.graph.registerCompletedJob(node, msg.result,
+                        msg.source, msg.jobNo, transmitter));
+            }
+            if (node.graph.isFinished()) {
+                forwardingGraphs.remove(node.graph);
+            }
+        }
+        if (job.hasDeadline()) {
+            if (msg.failed || msg.arrivalTime > job.deadline) {
+                missedDeadlines++;
+            } else {
+                metDeadlines++;
+            }
+        }
+    }
+
+    /**
+     * Tells the worker that sent the given completion message that it can
+     * forget the result it kept for forwarding, since we don't use this copy
+     * of the job.
+     */
+    private void releaseUnusedResult(final JobCompletedMessage msg,
+            final JobInstance job) {
+        if (!msg.failed && job.node != null
+                && job.node.graph.forwardsResults()) {
+            transmitter.addToBookkeepingQueue(msg.source,
+                    new ReleaseResultMessage(msg.jobNo));
+        }
+    }
+
+    /**
+     * Registers that the given worker has left. The jobs whose results it
+     * kept for forwarding are executed again if their results are still
+     * needed.
+     * 
+     * @param worker
+     *            The worker that has left.
+     */
+    void removeWorker(final IbisIdentifier worker) {
+        for (final JobGraph g : new ArrayList<JobGraph>(forwardingGraphs)) {
+            submitAll(g.registerLostWorker(worker));
+        }
+    }
+
+    /**
+     * Handles the report of a worker that it was asked to forward the result
+     * of the given job, but doesn't have it. The job is executed again.
+     * 
+     * @param worker
+     *            The worker that should have held the result.
+     * @param id
+     *            The identifier of the job on that worker.
+     */
+    void handleMissingResult(final IbisIdentifier worker, final int id) {
+        for (final JobGraph g : new ArrayList<JobGraph>(forwardingGraphs)) {
+            submitAll(g.registerMissingResult(worker, id));
+        }
+    }
+
+    /**
+     * Tells the worker of the given abandoned request that it should not
+     * execute it.
+     * 
+     * @param rq
+     *            The request, or <code>null</code> if there is nothing to
+     *            cancel.
+     */
+    private void sendCancel(final WorkerAdministration.OutstandingRequest rq) {
+        if (rq != null) {
+            transmitter.addToRequestQueue(rq.worker, new CancelJobMessage(
+                    rq.id));
+        }
+    }
+
+    /**
+     * Cancels the given job. The job is marked as completed, so that it is
+     * dropped from the queue of the scheduler when it reaches the head of the
+     * queue, and any outstanding requests for it are cancelled on their
+     * workers. A cancelled job of a job graph counts as failed.
+     * 
+     * @param job
+     *            The job to cancel.
+     */
+    void cancel(final JobInstance job) {
+        if (job.completed) {
+            // Too late.
+            return;
+        }
+        job.setCompleted();
+        cancelledJobCount++;
+        sendCancel(workerAdministration.abandonRequest(job.requestId));
+        if (job.hasBackup()) {
+            sendCancel(workerAdministration
+                    .abandonRequest(job.primaryRequestId));
+            sendCancel(workerAdministration
+                    .abandonRequest(job.backupRequestId));
+        }
+        if (job.node != null) {
+            job.node.graph.registerFailedJob(job.node, transmitter);
+            if (job.node.graph.isFinished()) {
+                forwardingGraphs.remove(job.node.graph);
+            }
+        }
+    }
+
+    /**
+     * Reissue the jobs that have not been completed within their timeout. A
+     * job that has another copy outstanding is not reissued; it is only
+     * reissued if that copy is lost as well.
+     * 
+     * @return <code>true</code> iff we reissued any jobs.
+     */
+    boolean reissueExpiredRequests() {
+        final long now = workerAdministration.getCurrentTime();
+        final ArrayList<WorkerAdministration.OutstandingRequest> l = workerAdministration
+                .removeExpiredRequests(now);
+        if (l == null) {
+            return false;
+        }
+        for (final WorkerAdministration.OutstandingRequest rq : l) {
+            final double elapsedTime = 1e-9 * (now - rq.submissionTime);
+            if (workerAdministration.hasOtherCopy(rq)) {
+                Globals.log.reportError("Job " + rq.id + " on worker "
+                        + rq.worker + " has not completed after "
+                        + Utils.formatSeconds(elapsedTime)
+                        + "; waiting for its other copy");
+                continue;
+            }
+            Globals.log.reportError("Job " + rq.id + " on worker " + rq.worker
+                    + " has not completed after "
+                    + Utils.formatSeconds(elapsedTime) + "; reissuing it");
+            reissuedJobs++;
+            rq.job.forgetCopies();
+            scheduler.jobTimedOut(rq.worker, rq.job, elapsedTime);
+        }
+        return true;
+    }
+
+    int getCompletedJobCount() {
+        return completedJobCount;
+    }
+
+    /**
+     * Closes the trace of completed jobs, if there is one.
+     */
+    void close() {
+        if (trace != null) {
+            trace.close();
+        }
+    }
+
+    /**
+     * Prints the statistics of this administration, if there is anything
+     * interesting to tell.
+     * 
+     * @param s
+     *            The stream to print to.
+     */
+    void printStatistics(final PrintStream s) {
+        if (reissuedJobs > 0) {
+            s.println("lost jobs: reissued " + reissuedJobs
+                    + ", late completions " + lateCompletions
+                    + ", ignored duplicate completions "
+                    + duplicateCompletions);
+        }
+        if (backedUpJobs > 0) {
+            s.println("speculative execution: " + backedUpJobs
+                    + " jobs with a backup copy, " + backupWins
+                    + " won by the backup; wasted work "
+                    + Utils.formatSeconds(wastedWorkTime)
+                    + ", observed time saved "
+                    + Utils.formatSeconds(makespanSaved));
+        }
+        if (cancelledJobCount > 0) {
+            s.println("cancelled jobs: " + cancelledJobCount);
+        }
+        if (metDeadlines + missedDeadlines > 0) {
+            s.println("deadlines: met " + metDeadlines + " missed "
+                    + missedDeadlines);
+        }
+    }
+}
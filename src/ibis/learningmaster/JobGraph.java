@@ -0,0 +1,514 @@
+package ibis.learningmaster;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A dataflow graph of atomic jobs. The output of a job becomes the input of
+ * the jobs that depend on it, and a job is released for execution as soon as
+ * all jobs it depends on have completed.
+ * 
+ * A job without predecessors gets the input that was given when it was added
+ * to the graph. A job with a single predecessor gets the result of that
+ * predecessor as input, and a job with multiple predecessors gets an array
+ * with their results, in the order the predecessors were given.
+ * 
+ * Since the predecessors of a job must already be in the graph when it is
+ * added, the order in which jobs are added is a topological order of the
+ * graph.
+ * 
+ * If result forwarding is enabled, a worker that executes a job with
+ * dependents keeps the result, and only reports completion to the master.
+ * Once the master has decided where a dependent job runs, it tells the
+ * producing worker to send the result directly to that worker. This way
+ * intermediate results don't pass through the master. The producing worker
+ * keeps the result until all jobs that need it have completed, since such a
+ * job may be sent again. If the result is lost anyway, for example because
+ * its worker has left, the job that produced it is executed again.
+ * 
+ * Jobs that are ready are preferred if they are on a long critical path. The
+ * lengths of the critical paths are computed once, when the graph is
+ * submitted, from the execution times the scheduler has learned by then.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+public class JobGraph {
+    private final ArrayList<Node> nodes = new ArrayList<Node>();
+    private final int priority;
+    private final boolean forwardResults;
+    private int completedJobs = 0;
+    private int failedJobs = 0;
+
+    /**
+     * A job in the graph.
+     * 
+     * @author Kees van Reeuwijk
+     * 
+     */
+    public static class Node {
+        final JobGraph graph;
+        final AtomicJob job;
+        private final Serializable input;
+        private final Node predecessors[];
+        private final ArrayList<Node> successors = new ArrayList<Node>();
+        private int unfinishedPredecessors;
+        private Serializable result = null;
+        private boolean failed = false;
+
+        /**
+         * The worker that holds the result of this job if it is forwarded, or
+         * <code>null</code> if the master has the result.
+         */
+        private IbisIdentifier resultHolder = null;
+
+        /** The identifier of this job on the worker that holds its result. */
+        private int resultId = -1;
+
+        /** Set once this job has completed for the first time. */
+        private boolean completed = false;
+
+        /**
+         * Set if this job has completed, but is executed again because its
+         * result was lost.
+         */
+        private boolean rerunning = false;
+
+        /**
+         * The worker this job was last sent to, and its identifier there, so
+         * that a result that is produced again can be forwarded to it.
+         */
+        private IbisIdentifier sentTo = null;
+        private int sentId = -1;
+
+        /**
+         * The estimated time from the start of this job until the completion
+         * of the last job that depends on it.
+         */
+        private double criticalPathLength = 0;
+
+        Node(final JobGraph graph, final AtomicJob job,
+                final Serializable input, final Node predecessors[]) {
+            this.graph = graph;
+            this.job = job;
+            this.input = input;
+            this.predecessors = predecessors;
+            this.unfinishedPredecessors = predecessors.length;
+        }
+
+        private Serializable buildInput() {
+            if (predecessors.length == 0) {
+                return input;
+            }
+            if (predecessors.length == 1) {
+                return predecessors[0].result;
+            }
+            final Serializable res[] = new Serializable[predecessors.length];
+            for (int i = 0; i < predecessors.length; i++) {
+                res[i] = predecessors[i].result;
+            }
+            return res;
+        }
+
+        boolean hasForwardedInput() {
+            return graph.forwardResults && predecessors.length > 0;
+        }
+
+        /**
+         * Returns <code>true</code> iff this job still needs the results of
+         * its predecessors.
+         */
+        private boolean needsInput() {
+            return !failed && (!completed || rerunning);
+        }
+
+        /**
+         * Tells the worker that holds the result of the given predecessor to
+         * forward it to the worker this job was last sent to.
+         */
+        private void forwardInput(final TransmitterInterface transmitter,
+                final Node p) {
+            for (int slot = 0; slot < predecessors.length; slot++) {
+                if (predecessors[slot] == p) {
+                    transmitter.addToBookkeepingQueue(p.resultHolder,
+                            new ForwardResultMessage(p.resultId, sentTo,
+                                    sentId, slot));
+                }
+            }
+        }
+
+        /**
+         * Sends this job to the given worker. If its inputs are held by other
+         * workers, they are told to forward them to the worker.
+         * 
+         * @param transmitter
+         *            The transmitter to send the messages with.
+         * @param worker
+         *            The worker that should execute the job.
+         * @param id
+         *            The identifier of the job in the worker administration.
+         * @param input
+         *            The input of the job if it is not forwarded.
+         */
+        void send(final TransmitterInterface transmitter,
+                final IbisIdentifier worker, final int id,
+                final Serializable input) {
+            final int retainCount = graph.forwardResults ? successors.size()
+                    : 0;
+            sentTo = worker;
+            sentId = id;
+            if (!hasForwardedInput()) {
+                transmitter.addToRequestQueue(worker, new ExecuteJobMessage(
+                        job, id, input, retainCount, 0));
+                return;
+            }
+            transmitter.addToRequestQueue(worker, new ExecuteJobMessage(job,
+                    id, null, retainCount, predecessors.length));
+            for (int slot = 0; slot < predecessors.length; slot++) {
+                final Node p = predecessors[slot];
+                // If there is no holder, the predecessor is executed again,
+                // and its result is forwarded once it has completed.
+                if (p.resultHolder != null) {
+                    transmitter.addToBookkeepingQueue(p.resultHolder,
+                            new ForwardResultMessage(p.resultId, worker, id,
+                                    slot));
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "JobGraph.Node[" + job + "]";
+        }
+    }
+
+    /**
+     * Constructs a new job graph with the given priority for all its jobs.
+     * 
+     * @param priority
+     *            The priority of the jobs in this graph.
+     * @param forwardResults
+     *            If set, intermediate results are sent directly from the
+     *            worker that produced them to the worker that needs them.
+     */
+    public JobGraph(final int priority, final boolean forwardResults) {
+        this.priority = priority;
+        this.forwardResults = forwardResults;
+    }
+
+    public JobGraph(final int priority) {
+        this(priority, false);
+    }
+
+    public JobGraph() {
+        this(JobInstance.DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Adds a job without predecessors to this graph.
+     * 
+     * @param job
+     *            The job to add.
+     * @param input
+     *            The input of the job.
+     * @return The node of the job in the graph.
+     */
+    public Node addJob(final AtomicJob job, final Serializable input) {
+        final Node n = new Node(this, job, input, new Node[0]);
+        nodes.add(n);
+        return n;
+    }
+
+    /**
+     * Adds a job to this graph that depends on the given jobs.
+     * 
+     * @param job
+     *            The job to add.
+     * @param predecessors
+     *            The jobs whose results form the input of this job.
+     * @return The node of the job in the graph.
+     */
+    public Node addJob(final AtomicJob job, final Node... predecessors) {
+        for (final Node p : predecessors) {
+            if (p.graph != this) {
+                throw new IllegalArgumentException("Predecessor " + p
+                        + " is not part of this graph");
+            }
+        }
+        final Node n = new Node(this, job, null, predecessors.clone());
+        for (final Node p : predecessors) {
+            p.successors.add(n);
+        }
+        nodes.add(n);
+        return n;
+    }
+
+    /**
+     * Computes the critical-path length of all jobs in the graph, using the
+     * execution times the scheduler has learned so far. The scheduler is
+     * only asked once for every job type.
+     * 
+     * @param scheduler
+     *            The scheduler to get the estimates from.
+     */
+    private void computeCriticalPathLengths(final Scheduler scheduler) {
+        final HashMap<JobType, Double> estimates = new HashMap<JobType, Double>();
+        // Visit the nodes in reverse topological order, so that all
+        // successors have been handled before a node is handled.
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            final Node n = nodes.get(i);
+            double l = 0;
+            for (final Node s : n.successors) {
+                if (s.criticalPathLength > l) {
+                    l = s.criticalPathLength;
+                }
+            }
+            final JobType jobType = n.job.getJobType();
+            Double t = estimates.get(jobType);
+            if (t == null) {
+                t = scheduler.estimateExecutionTime(n.job);
+                estimates.put(jobType, t);
+            }
+            n.criticalPathLength = l + t;
+        }
+    }
+
+    private JobInstance buildJobInstance(final Node n) {
+        final Serializable input = n.hasForwardedInput() ? null : n
+                .buildInput();
+        return new JobInstance(n.job, input, priority,
+                JobInstance.NO_DEADLINE, n, n.criticalPathLength);
+    }
+
+    /**
+     * Returns the jobs in this graph that can be executed right away.
+     * 
+     * @param scheduler
+     *            The scheduler that will execute the jobs.
+     * @return The list of jobs to submit.
+     */
+    List<JobInstance> getInitialJobs(final Scheduler scheduler) {
+        computeCriticalPathLengths(scheduler);
+        final ArrayList<JobInstance> res = new ArrayList<JobInstance>();
+        for (final Node n : nodes) {
+            if (n.unfinishedPredecessors == 0) {
+                res.add(buildJobInstance(n));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Registers the completion of the given job, and returns the jobs that
+     * can now be executed.
+     * 
+     * @param n
+     *            The job that was completed.
+     * @param result
+     *            The result of the job.
+     * @param worker
+     *            The worker that executed the job.
+     * @param id
+     *            The identifier of the job on that worker.
+     * @param transmitter
+     *            The transmitter to send forwarding requests with.
+     * @return The list of jobs to submit.
+     */
+    List<JobInstance> registerCompletedJob(final Node n,
+            final Serializable result, final IbisIdentifier worker,
+            final int id, final TransmitterInterface transmitter) {
+        n.result = result;
+        if (forwardResults && !n.successors.isEmpty()) {
+            // The worker kept the result to forward it.
+            n.resultHolder = worker;
+            n.resultId = id;
+        }
+        final ArrayList<JobInstance> res = new ArrayList<JobInstance>();
+        if (n.rerunning) {
+            // The job was executed again because its result was lost; send
+            // the new result to the jobs that are waiting for it.
+            n.rerunning = false;
+            for (final Node s : n.successors) {
+                if (s.needsInput() && s.sentTo != null) {
+                    s.forwardInput(transmitter, n);
+                }
+            }
+        } else if (!n.completed && !n.failed) {
+            n.completed = true;
+            completedJobs++;
+            for (final Node s : n.successors) {
+                s.unfinishedPredecessors--;
+                if (s.unfinishedPredecessors == 0 && !s.failed) {
+                    res.add(buildJobInstance(s));
+                }
+            }
+        }
+        for (final Node p : n.predecessors) {
+            releaseResultIfUnused(p, transmitter);
+        }
+        releaseResultIfUnused(n, transmitter);
+        return res;
+    }
+
+    /**
+     * Tells the worker that holds the result of the given job to forget it if
+     * none of the jobs that depend on it need it any more.
+     */
+    private static void releaseResultIfUnused(final Node p,
+            final TransmitterInterface transmitter) {
+        if (p.resultHolder == null) {
+            return;
+        }
+        for (final Node s : p.successors) {
+            if (s.needsInput()) {
+                return;
+            }
+        }
+        transmitter.addToBookkeepingQueue(p.resultHolder,
+                new ReleaseResultMessage(p.resultId));
+        p.resultHolder = null;
+    }
+
+    /**
+     * Registers that the result of the given job is lost. If any job still
+     * needs it, the job is executed again, and so are the jobs whose results
+     * it needs that are no longer available.
+     * 
+     * @param p
+     *            The job whose result is lost.
+     * @param res
+     *            The list to add the jobs to submit to.
+     */
+    private static void registerLostResult(final Node p,
+            final List<JobInstance> res) {
+        p.resultHolder = null;
+        for (final Node s : p.successors) {
+            if (s.needsInput()) {
+                requireResult(p, res);
+                return;
+            }
+        }
+    }
+
+    private static void requireResult(final Node p,
+            final List<JobInstance> res) {
+        if (p.resultHolder != null || p.rerunning || p.failed) {
+            return;
+        }
+        p.rerunning = true;
+        res.add(p.graph.buildJobInstance(p));
+        for (final Node q : p.predecessors) {
+            requireResult(q, res);
+        }
+    }
+
+    /**
+     * Registers that the given worker has left, so that the results it kept
+     * for forwarding are lost.
+     * 
+     * @param worker
+     *            The worker that has left.
+     * @return The list of jobs to execute again.
+     */
+    List<JobInstance> registerLostWorker(final IbisIdentifier worker) {
+        final ArrayList<JobInstance> res = new ArrayList<JobInstance>();
+        for (final Node n : nodes) {
+            if (worker.equals(n.resultHolder)) {
+                registerLostResult(n, res);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Registers that the given worker was asked to forward the result of the
+     * job with the given identifier, but no longer had it.
+     * 
+     * @param worker
+     *            The worker that should have held the result.
+     * @param id
+     *            The identifier of the job on that worker.
+     * @return The list of jobs to execute again.
+     */
+    List<JobInstance> registerMissingResult(final IbisIdentifier worker,
+            final int id) {
+        final ArrayList<JobInstance> res = new ArrayList<JobInstance>();
+        for (final Node n : nodes) {
+            if (n.resultId == id && worker.equals(n.resultHolder)) {
+                registerLostResult(n, res);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Registers the failure of the given job. None of the jobs that depend on
+     * it will be executed.
+     * 
+     * @param n
+     *            The job that failed.
+     * @param transmitter
+     *            The transmitter to release retained results with.
+     */
+    void registerFailedJob(final Node n, final TransmitterInterface transmitter) {
+        final ArrayList<Node> failed = new ArrayList<Node>();
+        final ArrayList<Node> todo = new ArrayList<Node>();
+        int dependents = 0;
+        todo.add(n);
+        while (!todo.isEmpty()) {
+            final Node f = todo.remove(todo.size() - 1);
+            if (!f.failed) {
+                f.failed = true;
+                f.rerunning = false;
+                failed.add(f);
+                if (!f.completed) {
+                    // A job that failed when it was executed again has
+                    // already been counted as completed.
+                    failedJobs++;
+                    if (f != n) {
+                        dependents++;
+                    }
+                }
+                for (final Node s : f.successors) {
+                    if (s.needsInput()) {
+                        todo.add(s);
+                    }
+                }
+            }
+        }
+        for (final Node f : failed) {
+            for (final Node p : f.predecessors) {
+                releaseResultIfUnused(p, transmitter);
+            }
+        }
+        Globals.log.reportError("Job " + n + " failed; " + dependents
+                + " dependent jobs in its graph will not be executed");
+    }
+
+    /**
+     * Returns true iff the workers keep the results of this graph to forward
+     * them.
+     * 
+     * @return <code>true</code> iff results are forwarded.
+     */
+    boolean forwardsResults() {
+        return forwardResults;
+    }
+
+    /**
+     * Returns true iff all jobs in this graph have either completed or failed.
+     * 
+     * @return <code>true</code> iff this graph is finished.
+     */
+    boolean isFinished() {
+        return completedJobs + failedJobs >= nodes.size();
+    }
+
+    int size() {
+        return nodes.size();
+    }
+}
@@ -1,15 +1,179 @@
 package ibis.learningmaster;
 
+import ibis.ipl.IbisIdentifier;
+
 import java.io.Serializable;
 
 public class JobInstance {
+    /** The priority of jobs that were submitted without a priority. */
+    static final int DEFAULT_PRIORITY = 0;
+
+    /** The deadline of jobs that were submitted without a deadline. */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
     final Job job;
     final Serializable input;
 
-    public JobInstance(final Job job, final Serializable input) {
+    /** The priority of this job; jobs with a higher priority go first. */
+    final int priority;
+
+    /**
+     * The time before which this job should be completed, in the time base of
+     * the clock of the worker administration, or <code>NO_DEADLINE</code>.
+     */
+    final long deadline;
+
+    /**
+     * The node of this job in its job graph, or <code>null</code> if it is an
+     * independent job.
+     */
+    final JobGraph.Node node;
+
+    /**
+     * The estimated time from the start of this job until the completion of
+     * the last job in its graph that depends on it. Zero for independent
+     * jobs.
+     */
+    final double criticalPathLength;
+
+    JobInstance(final Job job, final Serializable input, final int priority,
+            final long deadline, final JobGraph.Node node,
+            final double criticalPathLength) {
         super();
         this.job = job;
         this.input = input;
+        this.priority = priority;
+        this.deadline = deadline;
+        this.node = node;
+        this.criticalPathLength = criticalPathLength;
+    }
+
+    public JobInstance(final Job job, final Serializable input,
+            final int priority, final long deadline) {
+        this(job, input, priority, deadline, null, 0);
+    }
+
+    public JobInstance(final Job job, final Serializable input) {
+        this(job, input, DEFAULT_PRIORITY, NO_DEADLINE);
+    }
+
+    /**
+     * Set once a completion or cancellation of this job has been handled.
+     * Since a job may be reissued, later completions of the same job must be
+     * ignored.
+     */
+    boolean completed = false;
+
+    /** Set once the job has been cancelled. */
+    volatile boolean cancelled = false;
+
+    /** The queue this job is waiting in, or <code>null</code>. */
+    JobQueue queue = null;
+
+    /**
+     * The identifier of the most recent request for this job in the worker
+     * administration, or <code>-1</code> if it hasn't been sent to a worker.
+     */
+    int requestId = -1;
+
+    /**
+     * If a speculative backup copy of this job has been sent, the request id
+     * of the original, otherwise <code>-1</code>.
+     */
+    int primaryRequestId = -1;
+
+    /**
+     * If a speculative backup copy of this job has been sent, the request id
+     * of the copy, otherwise <code>-1</code>.
+     */
+    int backupRequestId = -1;
+
+    /** If set, the first completion of this job was by its backup copy. */
+    boolean completedByBackup = false;
+
+    /**
+     * The time this job was given to the scheduler, in the time base of the
+     * clock of the worker administration.
+     */
+    long submitTime = 0;
+
+    /** The arrival time of the first completion of this job. */
+    long completionArrivalTime = 0;
+
+    /** The serialized size of the input, or -1 if not yet known. */
+    private long inputSize = -1;
+
+    /**
+     * Returns the size of the input of this job when it is serialized.
+     * 
+     * @return The size in bytes.
+     */
+    long getInputSize() {
+        if (inputSize < 0) {
+            inputSize = Utils.getSerializedSize(input);
+        }
+        return inputSize;
+    }
+
+    boolean hasBackup() {
+        return backupRequestId >= 0;
+    }
+
+    /**
+     * Forgets the requests for the copies of this job, since none of them is
+     * still outstanding and the job is queued again. The new request may get
+     * a backup copy of its own.
+     */
+    void forgetCopies() {
+        primaryRequestId = -1;
+        backupRequestId = -1;
+    }
+
+    /**
+     * Returns true iff this job can be sent to a worker more than once. Jobs
+     * whose input is forwarded by other workers can not, since the input is
+     * only forwarded once.
+     * 
+     * @return <code>true</code> iff this job can be duplicated.
+     */
+    boolean canBeDuplicated() {
+        return node == null || !node.hasForwardedInput();
+    }
+
+    boolean hasDeadline() {
+        return deadline != NO_DEADLINE;
+    }
+
+    /**
+     * Marks this job as completed. If it is still waiting in a queue, the
+     * queue no longer counts it.
+     */
+    void setCompleted() {
+        completed = true;
+        if (queue != null) {
+            queue.removeCompletedJob();
+            queue = null;
+        }
+    }
+
+    /**
+     * Sends this job to the given worker.
+     * 
+     * @param transmitter
+     *            The transmitter to send the messages with.
+     * @param worker
+     *            The worker that should execute the job.
+     * @param id
+     *            The identifier of the job in the worker administration.
+     */
+    void send(final TransmitterInterface transmitter,
+            final IbisIdentifier worker, final int id) {
+        if (node != null) {
+            node.send(transmitter, worker, id, input);
+        } else {
+            transmitter.addToRequestQueue(worker, new ExecuteJobMessage(job,
+                    id, input));
+        }
     }
 
 }
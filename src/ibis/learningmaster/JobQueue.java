@@ -0,0 +1,178 @@
+package ibis.learningmaster;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * The queue of jobs that are waiting to be sent to a worker. There is a
+ * separate queue for each priority level, and a job is only returned if all
+ * levels with a higher priority are empty. Within a level jobs are returned
+ * earliest deadline first; jobs without a deadline come last. Jobs with the
+ * same deadline are returned longest critical path first, so that the jobs
+ * of a job graph that hold up the most other work go first, and otherwise in
+ * the order they were added.
+ * 
+ * A job that was reissued after a timeout may be completed by a late
+ * completion of its earlier attempt while it is still in the queue, and a
+ * queued job may be cancelled. Such jobs are marked as completed, and are
+ * silently dropped when they reach the head of their level. This makes
+ * removal of a job from the queue a constant-time operation. The size of the
+ * queue only counts the jobs that are still waiting, since the schedulers use
+ * it to decide whether the queue is about to run dry.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class JobQueue {
+    /** The queue of each priority level, highest priority first. */
+    private final TreeMap<Integer, PriorityQueue<Entry>> levels = new TreeMap<Integer, PriorityQueue<Entry>>(
+            Collections.reverseOrder());
+    private long nextSequenceNumber = 0;
+
+    /** The number of jobs in the queue that haven't been completed. */
+    private int size = 0;
+
+    private static class Entry {
+        final JobInstance job;
+        final long sequenceNumber;
+
+        Entry(final JobInstance job, final long sequenceNumber) {
+            this.job = job;
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+
+    private static final class EntryComparator implements Comparator<Entry> {
+        EntryComparator() {
+            // Nothing
+        }
+
+        @Override
+        public int compare(final Entry a, final Entry b) {
+            if (a.job.deadline < b.job.deadline) {
+                return -1;
+            }
+            if (a.job.deadline > b.job.deadline) {
+                return 1;
+            }
+            if (a.job.criticalPathLength > b.job.criticalPathLength) {
+                return -1;
+            }
+            if (a.job.criticalPathLength < b.job.criticalPathLength) {
+                return 1;
+            }
+            if (a.sequenceNumber < b.sequenceNumber) {
+                return -1;
+            }
+            if (a.sequenceNumber > b.sequenceNumber) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    private static final Comparator<Entry> comparator = new EntryComparator();
+
+    /**
+     * Adds the given job to this queue. A job that is already waiting in a
+     * queue, or that has been completed, is ignored, since a job may be
+     * returned more than once, for example if both its primary and its
+     * backup copy are lost.
+     * 
+     * @param job
+     *            The job to add.
+     */
+    void add(final JobInstance job) {
+        if (job.queue != null || job.completed) {
+            return;
+        }
+        PriorityQueue<Entry> q = levels.get(job.priority);
+        if (q == null) {
+            q = new PriorityQueue<Entry>(11, comparator);
+            levels.put(job.priority, q);
+        }
+        q.add(new Entry(job, nextSequenceNumber++));
+        job.queue = this;
+        size++;
+    }
+
+    /**
+     * Registers that one of the jobs in this queue has been completed. It
+     * stays in the queue until it reaches the head of its level, but it no
+     * longer counts.
+     */
+    void removeCompletedJob() {
+        size--;
+    }
+
+    /**
+     * Returns the queue of the highest non-empty priority level, or
+     * <code>null</code> if all levels are empty. Empty levels and completed
+     * jobs at the head of a level are removed.
+     * 
+     * @return The queue.
+     */
+    private PriorityQueue<Entry> getFirstLevel() {
+        while (!levels.isEmpty()) {
+            final Map.Entry<Integer, PriorityQueue<Entry>> e = levels
+                    .firstEntry();
+            final PriorityQueue<Entry> q = e.getValue();
+            while (!q.isEmpty() && q.peek().job.completed) {
+                // Already no longer counted.
+                q.poll();
+            }
+            if (!q.isEmpty()) {
+                return q;
+            }
+            levels.remove(e.getKey());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first job in this queue without removing it, or
+     * <code>null</code> if the queue is empty.
+     * 
+     * @return The first job.
+     */
+    JobInstance peek() {
+        final PriorityQueue<Entry> q = getFirstLevel();
+        if (q == null) {
+            return null;
+        }
+        return q.peek().job;
+    }
+
+    /**
+     * Removes and returns the first job in this queue, or returns
+     * <code>null</code> if the queue is empty.
+     * 
+     * @return The first job.
+     */
+    JobInstance poll() {
+        final PriorityQueue<Entry> q = getFirstLevel();
+        if (q == null) {
+            return null;
+        }
+        size--;
+        final JobInstance job = q.poll().job;
+        job.queue = null;
+        return job;
+    }
+
+    boolean isEmpty() {
+        return getFirstLevel() == null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "JobQueue[size=" + size + ",levels=" + levels.size() + "]";
+    }
+}
@@ -0,0 +1,312 @@
+package ibis.learningmaster;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A job trace as written by a {@link JobTraceWriter}, loaded into memory so
+ * that the simulators can replay it. A trace is never changed after it has
+ * been loaded, so it can be shared between replications; all replay state is
+ * in a {@link Replay}.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class JobTrace {
+    final String masterSite;
+    final String workerNames[];
+    final String workerSites[];
+    final String jobTypeNames[];
+
+    /** The jobs of the trace, in order of submission. */
+    final TracedJob jobs[];
+
+    /**
+     * A traced job. Times are in seconds since the start of the trace.
+     */
+    static class TracedJob {
+        final double submitTime;
+        final double dispatchTime;
+        final int worker;
+        final int jobType;
+        final long inputSize;
+        final long resultSize;
+        final double completionTime;
+        final boolean failed;
+
+        TracedJob(final double submitTime, final double dispatchTime,
+                final int worker, final int jobType, final long inputSize,
+                final long resultSize, final double completionTime,
+                final boolean failed) {
+            this.submitTime = submitTime;
+            this.dispatchTime = dispatchTime;
+            this.worker = worker;
+            this.jobType = jobType;
+            this.inputSize = inputSize;
+            this.resultSize = resultSize;
+            this.completionTime = completionTime;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * For every worker, the execution times of the jobs it completed, in
+     * trace order.
+     */
+    private final double workerSamples[][];
+
+    /**
+     * For every worker and job type, the execution times of the jobs of that
+     * type the worker completed, indexed by
+     * <code>worker*jobTypeCount+jobType</code>.
+     */
+    private final double typeSamples[][];
+
+    /** For every worker, its average execution time. */
+    private final double workerMeans[];
+
+    private JobTrace(final String masterSite, final String workerNames[],
+            final String workerSites[], final String jobTypeNames[],
+            final TracedJob jobs[]) {
+        this.masterSite = masterSite;
+        this.workerNames = workerNames;
+        this.workerSites = workerSites;
+        this.jobTypeNames = jobTypeNames;
+        this.jobs = jobs;
+        final int workerCount = workerNames.length;
+        final int typeCount = jobTypeNames.length;
+        final int counts[] = new int[workerCount];
+        final int typeCounts[] = new int[workerCount * typeCount];
+        for (final TracedJob j : jobs) {
+            if (!j.failed) {
+                counts[j.worker]++;
+                typeCounts[j.worker * typeCount + j.jobType]++;
+            }
+        }
+        workerSamples = new double[workerCount][];
+        workerMeans = new double[workerCount];
+        for (int w = 0; w < workerCount; w++) {
+            workerSamples[w] = new double[counts[w]];
+        }
+        typeSamples = new double[workerCount * typeCount][];
+        for (int i = 0; i < typeSamples.length; i++) {
+            typeSamples[i] = new double[typeCounts[i]];
+        }
+        Arrays.fill(counts, 0);
+        Arrays.fill(typeCounts, 0);
+        for (final TracedJob j : jobs) {
+            if (!j.failed) {
+                final int k = j.worker * typeCount + j.jobType;
+                final double t[] = workerSamples[j.worker];
+                t[counts[j.worker]++] = j.completionTime;
+                typeSamples[k][typeCounts[k]++] = j.completionTime;
+                workerMeans[j.worker] += j.completionTime;
+            }
+        }
+        for (int w = 0; w < workerCount; w++) {
+            if (counts[w] > 0) {
+                workerMeans[w] /= counts[w];
+            }
+        }
+    }
+
+    /**
+     * Loads the trace in the given file.
+     * 
+     * @param fnm
+     *            The name of the file.
+     * @return The trace.
+     * @throws IOException
+     *             Thrown if the file cannot be read, or is not a job trace.
+     */
+    static JobTrace load(final String fnm) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(fnm)));
+        try {
+            if (in.readInt() != JobTraceWriter.MAGIC
+                    || in.readInt() != JobTraceWriter.VERSION) {
+                throw new IOException("File '" + fnm
+                        + "' is not a job trace, or has an unknown version");
+            }
+            final String masterSite = in.readUTF();
+            final ArrayList<String> workerNames = new ArrayList<String>();
+            final ArrayList<String> workerSites = new ArrayList<String>();
+            final ArrayList<String> jobTypeNames = new ArrayList<String>();
+            final ArrayList<TracedJob> jobs = new ArrayList<TracedJob>();
+            while (true) {
+                final int tag;
+                try {
+                    tag = in.readByte();
+                } catch (final EOFException x) {
+                    break;
+                }
+                if (tag == JobTraceWriter.WORKER_RECORD) {
+                    workerNames.add(in.readUTF());
+                    workerSites.add(in.readUTF());
+                } else if (tag == JobTraceWriter.JOB_TYPE_RECORD) {
+                    jobTypeNames.add(in.readUTF());
+                } else if (tag == JobTraceWriter.JOB_RECORD) {
+                    final double submitTime = 1e-9 * in.readLong();
+                    final double dispatchTime = 1e-9 * in.readLong();
+                    final int worker = in.readInt();
+                    final int jobType = in.readInt();
+                    final long inputSize = in.readLong();
+                    final long resultSize = in.readLong();
+                    final double completionTime = in.readDouble();
+                    final boolean failed = in.readBoolean();
+                    if (worker < 0 || worker >= workerNames.size()
+                            || jobType < 0 || jobType >= jobTypeNames.size()) {
+                        throw new IOException("Bad job record in trace '"
+                                + fnm + "'");
+                    }
+                    jobs.add(new TracedJob(submitTime, dispatchTime, worker,
+                            jobType, inputSize, resultSize, completionTime,
+                            failed));
+                } else {
+                    throw new IOException("Unknown record " + tag
+                            + " in trace '" + fnm + "'");
+                }
+            }
+            // Jobs are written when they complete; replay them in the order
+            // they were submitted.
+            final TracedJob l[] = jobs.toArray(new TracedJob[jobs.size()]);
+            Arrays.sort(l, new Comparator<TracedJob>() {
+                @Override
+                public int compare(final TracedJob a, final TracedJob b) {
+                    return Double.compare(a.submitTime, b.submitTime);
+                }
+            });
+            return new JobTrace(masterSite,
+                    workerNames.toArray(new String[workerNames.size()]),
+                    workerSites.toArray(new String[workerSites.size()]),
+                    jobTypeNames.toArray(new String[jobTypeNames.size()]), l);
+        } finally {
+            in.close();
+        }
+    }
+
+    int getWorkerCount() {
+        return workerNames.length;
+    }
+
+    /**
+     * Returns a source of the intervals between the submissions of the
+     * jobs of this trace. After the last job it starts again from the first.
+     * 
+     * @return The source of arrival intervals.
+     */
+    DurationSource getArrivalIntervalSource() {
+        return new DurationSource() {
+            private int next = 0;
+
+            @Override
+            public double next() {
+                final int i = next;
+                next = (next + 1) % jobs.length;
+                return i == 0 ? 0 : jobs[i].submitTime
+                        - jobs[i - 1].submitTime;
+            }
+        };
+    }
+
+    /**
+     * Returns a source of execution times that replays the execution times
+     * of the given worker, for jobs of any type, in trace order. After the
+     * last one it starts again from the first.
+     * 
+     * @param worker
+     *            The index of the worker in the trace.
+     * @return The source of execution times.
+     */
+    DurationSource getWorkerSource(final int worker) {
+        final double samples[] = workerSamples[worker];
+        if (samples.length == 0) {
+            throw new IllegalArgumentException("Worker "
+                    + workerNames[worker] + " completed no jobs in the trace");
+        }
+        return new DurationSource() {
+            private int next = 0;
+
+            @Override
+            public double next() {
+                final double res = samples[next];
+                next = (next + 1) % samples.length;
+                return res;
+            }
+
+            @Override
+            public String toString() {
+                return "trace of worker " + workerNames[worker];
+            }
+        };
+    }
+
+    /**
+     * Returns a source of execution times that draws them at random from the
+     * empirical distribution of the execution times of the given worker,
+     * for jobs of any type. Unlike {@link #getWorkerSource(int)} this source
+     * does not repeat the trace, so replications that use it differ.
+     * 
+     * @param worker
+     *            The index of the worker in the trace.
+     * @param rng
+     *            The random generator to draw the execution times from.
+     * @return The source of execution times.
+     */
+    DurationSource getWorkerDistribution(final int worker,
+            final FastRandom rng) {
+        final double samples[] = workerSamples[worker];
+        if (samples.length == 0) {
+            throw new IllegalArgumentException("Worker "
+                    + workerNames[worker] + " completed no jobs in the trace");
+        }
+        return Distributions.buildEmpirical(samples, rng);
+    }
+
+    /**
+     * The replay of the execution times of a trace in a simulation where the
+     * jobs may be sent to other workers than in the trace. Each job type on
+     * each worker replays the execution times that were observed for that
+     * combination, in trace order and starting again after the last one. If
+     * the worker never executed a job of that type, the observed time of the
+     * job is scaled by the ratio of the average execution times of the new
+     * and the original worker.
+     */
+    class Replay {
+        private final int cursors[] = new int[typeSamples.length];
+
+        /**
+         * Returns the execution time of the given job of the trace on the
+         * given worker.
+         * 
+         * @param job
+         *            The index of the job in the trace.
+         * @param worker
+         *            The index of the worker in the trace.
+         * @return The execution time in seconds.
+         */
+        @SuppressWarnings("synthetic-access")
+        double getExecutionTime(final int job, final int worker) {
+            final TracedJob j = jobs[job];
+            final int k = worker * jobTypeNames.length + j.jobType;
+            final double samples[] = typeSamples[k];
+            if (samples.length > 0) {
+                final double res = samples[cursors[k]];
+                cursors[k] = (cursors[k] + 1) % samples.length;
+                return res;
+            }
+            final double from = workerMeans[j.worker];
+            final double to = workerMeans[worker];
+            if (from > 0 && to > 0) {
+                return j.completionTime * to / from;
+            }
+            return j.completionTime;
+        }
+    }
+}
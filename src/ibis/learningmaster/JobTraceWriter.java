@@ -0,0 +1,201 @@
+package ibis.learningmaster;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Writes a binary trace of the jobs the master has completed, so that the
+ * timings of a production run can be replayed in the simulators; see
+ * {@link JobTrace}.
+ * 
+ * The trace starts with a header with the site of the master. Workers and job
+ * types are written once, when they first occur, and are then referred to by
+ * their index. Jobs without a job type get a job type of their own, named
+ * {@link #NO_JOB_TYPE_NAME}. Times are in nanoseconds since the trace was
+ * opened.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class JobTraceWriter {
+    /**
+     * The system property with the name of the trace file. If it is not set,
+     * no trace is written.
+     */
+    static final String FILE_PROPERTY = "learningmaster.tracefile";
+
+    static final int MAGIC = 0x4c4d4a54; // "LMJT"
+    static final int VERSION = 1;
+
+    static final byte WORKER_RECORD = 0;
+    static final byte JOB_TYPE_RECORD = 1;
+    static final byte JOB_RECORD = 2;
+
+    /** The name of the job type of the jobs without a job type. */
+    static final String NO_JOB_TYPE_NAME = "(none)";
+
+    private final File file;
+    private final long startTime;
+    private DataOutputStream out;
+    private final HashMap<IbisIdentifier, Integer> workers = new HashMap<IbisIdentifier, Integer>();
+    private final HashMap<JobType, Integer> jobTypes = new HashMap<JobType, Integer>();
+    private int jobCount = 0;
+
+    private JobTraceWriter(final File file, final Clock clock,
+            final DataOutputStream out) {
+        this.file = file;
+        this.out = out;
+        startTime = clock.nanoTime();
+    }
+
+    /**
+     * Returns a trace writer for the file selected by the system properties.
+     * 
+     * @param clock
+     *            The clock of the master.
+     * @param localSite
+     *            The site of the master.
+     * @return The trace writer, or <code>null</code> if no trace should be
+     *         written, or the file could not be opened.
+     */
+    static JobTraceWriter open(final Clock clock, final String localSite) {
+        final String fnm = System.getProperty(FILE_PROPERTY);
+        if (fnm == null || fnm.length() == 0) {
+            return null;
+        }
+        return open(new File(fnm), clock, localSite);
+    }
+
+    /**
+     * Returns a trace writer for the given file.
+     * 
+     * @param file
+     *            The file to write the trace to, or <code>null</code>.
+     * @param clock
+     *            The clock of the master.
+     * @param localSite
+     *            The site of the master.
+     * @return The trace writer, or <code>null</code> if no file was given,
+     *         or it could not be opened.
+     */
+    static JobTraceWriter open(final File file, final Clock clock,
+            final String localSite) {
+        if (file == null) {
+            return null;
+        }
+        try {
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(localSite);
+            return new JobTraceWriter(file, clock, out);
+        } catch (final IOException x) {
+            Globals.log.reportError("Cannot write trace file " + file + ": "
+                    + x.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private int registerWorker(final IbisIdentifier worker)
+            throws IOException {
+        Integer ix = workers.get(worker);
+        if (ix == null) {
+            ix = workers.size();
+            workers.put(worker, ix);
+            out.writeByte(WORKER_RECORD);
+            out.writeUTF(worker.name());
+            out.writeUTF(Utils.getSite(worker));
+        }
+        return ix;
+    }
+
+    /**
+     * Returns the index of the given job type in the trace, and writes a
+     * record for it if it is new.
+     * 
+     * @param type
+     *            The job type, or <code>null</code> if the job has no type.
+     * @return The index of the job type.
+     * @throws IOException
+     *             Thrown if the record cannot be written.
+     */
+    private int registerJobType(final JobType type) throws IOException {
+        Integer ix = jobTypes.get(type);
+        if (ix == null) {
+            ix = jobTypes.size();
+            jobTypes.put(type, ix);
+            out.writeByte(JOB_TYPE_RECORD);
+            out.writeUTF(type == null ? NO_JOB_TYPE_NAME : type.toString());
+        }
+        return ix;
+    }
+
+    /**
+     * Records the completion of a job.
+     * 
+     * @param job
+     *            The job.
+     * @param dispatchTime
+     *            The time the job was sent to the worker, in the time base of
+     *            the clock.
+     * @param worker
+     *            The worker that completed the job.
+     * @param resultSize
+     *            The size in bytes of the completion message.
+     * @param completionTime
+     *            The execution time in seconds, as reported by the worker.
+     * @param failed
+     *            <code>true</code> iff the worker reported that the job
+     *            failed.
+     */
+    void recordJob(final JobInstance job, final long dispatchTime,
+            final IbisIdentifier worker, final long resultSize,
+            final double completionTime, final boolean failed) {
+        if (out == null) {
+            return;
+        }
+        try {
+            final int w = registerWorker(worker);
+            final int t = registerJobType(job.job.getJobType());
+            out.writeByte(JOB_RECORD);
+            out.writeLong(job.submitTime - startTime);
+            out.writeLong(dispatchTime - startTime);
+            out.writeInt(w);
+            out.writeInt(t);
+            out.writeLong(job.getInputSize());
+            out.writeLong(resultSize);
+            out.writeDouble(completionTime);
+            out.writeBoolean(failed);
+            jobCount++;
+        } catch (final IOException x) {
+            Globals.log.reportError("Cannot write trace file " + file + ": "
+                    + x.getLocalizedMessage() + "; tracing stopped");
+            close();
+        }
+    }
+
+    /**
+     * Writes out any buffered records and closes the trace.
+     */
+    void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+            Globals.log.reportProgress("Wrote " + jobCount + " jobs to trace "
+                    + file);
+        } catch (final IOException x) {
+            Globals.log.reportError("Cannot write trace file " + file + ": "
+                    + x.getLocalizedMessage());
+        }
+        out = null;
+    }
+}
@@ -3,7 +3,12 @@ package ibis.learningmaster;
 import java.io.Serializable;
 
 /**
- * A job type.
+ * A job type. Schedulers use job types as keys in their performance tables,
+ * so subclasses should implement <code>equals()</code> and
+ * <code>hashCode()</code>. The learned performance of a job type is stored
+ * between runs under its <code>toString()</code> representation, so if a
+ * subclass implements <code>toString()</code>, it should be stable between
+ * runs. If it doesn't, the name of the class is used.
  * 
  * @author Kees van Reeuwijk
  */
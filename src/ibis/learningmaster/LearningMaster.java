@@ -14,12 +14,25 @@ import java.util.Properties;
  * 
  */
 class LearningMaster {
+    /**
+     * The system property with the factor by which a worker stretches the
+     * sleep time of its jobs. By giving workers different factors a
+     * heterogeneous pool can be emulated on identical nodes.
+     */
+    static final String SLOWDOWN_PROPERTY = "learningmaster.slowdown";
 
     private static void usage(final String msg, final String args[]) {
         System.err.println("Error: " + msg);
         System.err.println("Usage: LearningMaster <option>] ... <option>");
         System.err.println("Where <option> is:");
-        System.err.println(" --worker\tNode is a worker");
+        System.err.println(" -D<property>=<value>\tSet a system property");
+        System.err.println("Useful properties are:");
+        System.err.println(" " + MawEngine.SCHEDULER_PROPERTY
+                + "\tThe scheduler of the master: learning, queueaware, roundrobin, ucb1 or thompson");
+        System.err.println(" " + SLOWDOWN_PROPERTY
+                + "\tThe factor by which this worker slows down its jobs");
+        System.err.println(" " + PerformanceStore.FILE_PROPERTY
+                + "\tThe file with learned performance; empty to disable");
         System.err.println("Actual arguments: " + Arrays.deepToString(args));
         throw new Error("Bad command-line arguments");
     }
@@ -43,6 +56,16 @@ class LearningMaster {
                 final SleepJobType other = (SleepJobType) oth;
                 return this.sleepTime == other.sleepTime;
             }
+
+            @Override
+            public int hashCode() {
+                return (int) (sleepTime ^ (sleepTime >>> 32));
+            }
+
+            @Override
+            public String toString() {
+                return "SleepJobType[" + sleepTime + "ms]";
+            }
         }
 
         SleepJob(final long sleepTime) {
@@ -57,8 +80,10 @@ class LearningMaster {
         @Override
         public Serializable run(final Serializable input)
                 throws JobFailedException {
+            final double slowdown = Utils.getDoubleProperty(
+                    SLOWDOWN_PROPERTY, 1.0);
             try {
-                Thread.sleep(sleepTime);
+                Thread.sleep(Math.round(slowdown * sleepTime));
             } catch (final InterruptedException e) {
                 // We've been interrupted.
             }
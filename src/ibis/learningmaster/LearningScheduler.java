@@ -7,27 +7,201 @@ import ibis.steel.LogGaussianDecayingEstimator;
 import ibis.steel.LogGaussianEstimate;
 
 import java.io.PrintStream;
-import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A job scheduler that tries to learn the performance of the available workers,
  * and by priority keeps the most efficient workers fully occupied.
  * 
- * Schedule jobs one by one on the available workers. Note that there is always
- * at most one outstanding job. This is not realistic, but for the purposes of
- * learning behavior it is simpler.
+ * The execution time of a job is learned separately for each combination of
+ * worker and job type, so that each job can be sent to the worker that is
+ * fastest for that type of job. Until such a combination has enough samples,
+ * the estimate for the job type over all workers is used, scaled by how much
+ * faster or slower the worker is than the average worker, and if that is
+ * not available either, the estimate for the worker over all job types.
+ * 
+ * The scheduler has two strategies to rank the workers. By default it uses
+ * the likely round-trip time of a job on a worker. In queue-aware mode it
+ * uses the {@link CompletionTimeModel} that is also used by the simulated
+ * master, with the outstanding requests of each worker as its queue. Since
+ * that model accounts for queued jobs, workers are allowed a longer queue in
+ * that mode.
+ * 
+ * Moving a job and its result is not free. If the scheduler has a
+ * {@link TransferTimeModel}, it adds the estimated time to send the
+ * serialized input to a worker, and to return the result, to the estimated
+ * execution time. The result size is learned per job type. The remaining
+ * overhead of a job, such as queueing on the worker, is learned per worker.
+ * 
+ * Workers are grouped into sites, usually clusters, by their location. A new
+ * worker on a known site starts from what was learned about the execution
+ * times on that site. Jobs with a lot of data are kept on the site of the
+ * master, and only spill to a remote site when the wait for a local worker
+ * is longer than the extra time to move the data over the wide-area link.
+ * 
+ * What the scheduler learns about hosts and job types is kept in a
+ * {@link PerformanceStore}, and used as the initial estimate when the same
+ * host or job type is seen in a later run.
+ * 
+ * Jobs are taken from the queue by priority, and earliest deadline first
+ * within a priority. For jobs with a deadline the workers are ranked on a
+ * pessimistic estimate, so that they go to the worker that is most likely to
+ * complete them in time.
+ * 
+ * When fewer jobs are left than there are workers, a job is only sent to a
+ * worker if it is not estimated to complete sooner on a busy worker, so that
+ * slow workers don't stretch the end of the run.
+ * 
+ * Once the queue is empty, idle workers are used for speculative execution: a
+ * job that runs longer than its pessimistic estimate gets a backup copy on an
+ * idle worker that is likely to be faster, and the first result is used.
  * 
  * @author Kees van Reeuwijk
  * 
  */
 class LearningScheduler implements Scheduler {
     private final ArrayList<WorkerInfo> workers = new ArrayList<WorkerInfo>();
-    private final LinkedList<JobInstance> jobQueue = new LinkedList<JobInstance>();
+    private final JobQueue jobQueue = new JobQueue();
     private static final double DECAY_FACTOR = 0.1;
     private static final int MAXIMAL_OUTSTANDING_JOBS = 2;
+    private static final int MAXIMAL_QUEUE_AWARE_OUTSTANDING_JOBS = 4;
+
+    /** If set, rank workers on their queue-aware completion time. */
+    private final boolean queueAware;
+
+    /** The maximal number of outstanding jobs per worker. */
+    private final int maximalOutstandingJobs;
+
+    /** The number of submitted jobs with a deadline. */
+    private int deadlineJobs = 0;
+
+    /**
+     * The number of jobs with a deadline that were submitted to a worker even
+     * though we predicted the deadline would not be met.
+     */
+    private int predictedDeadlineMisses = 0;
+
+    /**
+     * The smallest time in seconds we register with an estimator. The
+     * log-gaussian estimators do not accept zero samples.
+     */
+    private static final double MINIMAL_SAMPLE_TIME = 1e-11;
+
+    /**
+     * The number of samples an estimator needs, including its initial
+     * estimate, before we prefer it over a more general estimator.
+     */
+    private static final int MINIMAL_TRUSTED_SAMPLES = 4;
+
+    /** For each known job type, its index in the estimator tables. */
+    private final HashMap<JobType, Integer> jobTypeIndices = new HashMap<JobType, Integer>();
+
+    /** For each job type index, the estimated work time over all workers. */
+    private final ArrayList<Estimator> jobTypeEstimators = new ArrayList<Estimator>();
+
+    /** For each job type index, the record to store between runs. */
+    private final ArrayList<PerformanceRecord> jobTypeRecords = new ArrayList<PerformanceRecord>();
+
+    /** For each job type index, the key of its record in the store. */
+    private final ArrayList<String> jobTypeKeys = new ArrayList<String>();
+
+    /**
+     * The source of transfer time estimates, or <code>null</code> if
+     * transfers are assumed to be free.
+     */
+    private final TransferTimeModel network;
+
+    /**
+     * For each job type index, the decaying average size in bytes of a result,
+     * or a negative value if no result has been seen yet.
+     */
+    private final ArrayList<Double> jobTypeResultSizes = new ArrayList<Double>();
+
+    /** The decaying average size in bytes of a result over all jobs. */
+    private double resultSize = 0;
+
+    /**
+     * The size in bytes of input plus result above which we consider a job
+     * data-heavy, and try to keep it on the site of the master.
+     */
+    private static final long DATA_HEAVY_SIZE = 1L << 20;
+
+    /** The site of the master, or <code>null</code> if it is not known. */
+    private final String localSite;
+
+    /** The known sites. */
+    private final HashMap<String, SiteInfo> sites = new HashMap<String, SiteInfo>();
+
+    /**
+     * The average over the workers with a trusted estimate of the log of
+     * their execution time, or <code>NaN</code> if it must be recomputed.
+     */
+    private double averageWorkerLogMean = Double.NaN;
+
+    /**
+     * A job is considered lost if it isn't completed within this factor times
+     * the pessimistic estimate of its completion time.
+     */
+    static final double TIMEOUT_SAFETY_FACTOR = 3;
+
+    /**
+     * The minimal interval in nanoseconds between two searches for straggling
+     * jobs.
+     */
+    private static final long SPECULATION_CHECK_INTERVAL = 100000000L;
+
+    /** The earliest time at which we search again for straggling jobs. */
+    private long nextSpeculationCheck = 0;
+
+    /** The number of speculative backup copies that were sent. */
+    private int backupCopies = 0;
+
+    /**
+     * The number of jobs that were held back in the end game to wait for a
+     * faster worker.
+     */
+    private int endGameWaits = 0;
+
+    /** The last job that was held back in the end game. */
+    private JobInstance heldJob = null;
+
+    /** The number of data-heavy jobs that were submitted. */
+    private int dataHeavyJobs = 0;
+
+    /** The number of data-heavy jobs that were sent to a remote site. */
+    private int spilledJobs = 0;
+
+    /**
+     * The information for each site.
+     * 
+     * @author Kees van Reeuwijk
+     * 
+     */
+    private static class SiteInfo {
+        final String name;
+
+        /** The estimated execution time of any job on this site. */
+        final Estimator workTimeEstimator = buildWorkTimeEstimator();
+
+        SiteInfo(final String name) {
+            this.name = name;
+        }
+    }
+
+    /** The log of the initial work time estimate without prior knowledge. */
+    private static final double INITIAL_LOG_MEAN = Math.log(1e-4);
+
+    /** The initial log variance of the work time without prior knowledge. */
+    private static final double INITIAL_LOG_VARIANCE = Math.log(1000);
+
+    /**
+     * The store with the learned performance of previous runs, or
+     * <code>null</code> if it is disabled.
+     */
+    private final PerformanceStore performanceStore;
 
     /**
      * The information for each worker.
@@ -40,26 +214,544 @@ class LearningScheduler implements Scheduler {
          * The identifier Ibis and we use to uniquely identify this worker.
          */
         final IbisIdentifier node;
+
+        /** The estimated execution time of any job on this worker. */
         final Estimator workTimeEstimator;
+
+        /** The site of this worker. */
+        final SiteInfo site;
+
+        /** The key of the host of this worker in the performance store. */
+        final String hostKey;
+
+        /** The execution time of any job on this worker, to store. */
+        final PerformanceRecord workTimeRecord;
+
+        /**
+         * For each job type index, the estimated execution time of a job of
+         * that type on this worker, or <code>null</code> if no such job has
+         * been executed on this worker yet.
+         */
+        private final ArrayList<Estimator> jobTypeWorkTimeEstimators = new ArrayList<Estimator>();
+
+        /**
+         * The estimated time a job spends outside execution and the modeled
+         * transfer of the job and its result; mostly waiting in the queue of
+         * the worker.
+         */
+        final Estimator overheadEstimator;
         boolean deleted = false;
 
-        WorkerInfo(final IbisIdentifier node) {
+        /**
+         * The number of jobs that timed out on this worker since it last
+         * completed a job. The elapsed time of such a job is only a lower
+         * bound on its execution time, so it is not registered with the
+         * estimators; instead the worker is charged a penalty.
+         */
+        int timeouts = 0;
+
+        WorkerInfo(final IbisIdentifier node, final SiteInfo site,
+                final String hostKey, final PerformanceRecord workTimeRecord) {
             super();
             this.node = node;
-            /**
-             * Construct an estimator for the performance of a worker.
-             * 
-             * TODO: better initial estimate for worker performance.
-             */
-            final Estimate est = new LogGaussianEstimate(Math.log(1e-4),
-                    Math.log(1000), 1);
-            workTimeEstimator = new LogGaussianDecayingEstimator(est,
+            this.site = site;
+            this.hostKey = hostKey;
+            this.workTimeRecord = workTimeRecord;
+            workTimeEstimator = buildWorkTimeEstimator(workTimeRecord);
+            final Estimate overheadEst = new LogGaussianEstimate(
+                    Math.log(1e-3), Math.log(1000), 1);
+            overheadEstimator = new LogGaussianDecayingEstimator(overheadEst,
                     DECAY_FACTOR);
         }
 
         void setDeleted() {
             deleted = true;
         }
+
+        /**
+         * Returns the estimator for jobs of the given type on this worker.
+         * 
+         * @param jobTypeIndex
+         *            The index of the job type.
+         * @return The estimator, or <code>null</code> if no job of this type
+         *         has been executed on this worker.
+         */
+        Estimator getJobTypeWorkTimeEstimator(final int jobTypeIndex) {
+            if (jobTypeIndex < 0
+                    || jobTypeIndex >= jobTypeWorkTimeEstimators.size()) {
+                return null;
+            }
+            return jobTypeWorkTimeEstimators.get(jobTypeIndex);
+        }
+
+        /**
+         * Registers the completion of a job on this worker.
+         * 
+         * @param jobTypeIndex
+         *            The index of the type of the job, or <code>-1</code> if
+         *            the job has no type.
+         * @param completionTime
+         *            The execution time of the job as reported by the worker.
+         * @param roundTripTime
+         *            The time between submission and completion of the job, as
+         *            measured by the master.
+         * @param transferTime
+         *            The estimated time to transfer the job and its result.
+         */
+        void registerCompletedJob(final int jobTypeIndex,
+                final double completionTime, final double roundTripTime,
+                final double transferTime) {
+            final double t = Math.max(MINIMAL_SAMPLE_TIME, completionTime);
+            timeouts = 0;
+            workTimeEstimator.addSample(t);
+            workTimeRecord.addSample(t);
+            site.workTimeEstimator.addSample(t);
+            if (jobTypeIndex >= 0) {
+                while (jobTypeWorkTimeEstimators.size() <= jobTypeIndex) {
+                    jobTypeWorkTimeEstimators.add(null);
+                }
+                Estimator est = jobTypeWorkTimeEstimators.get(jobTypeIndex);
+                if (est == null) {
+                    est = buildWorkTimeEstimator();
+                    jobTypeWorkTimeEstimators.set(jobTypeIndex, est);
+                }
+                est.addSample(t);
+            }
+            overheadEstimator.addSample(Math.max(MINIMAL_SAMPLE_TIME,
+                    roundTripTime - completionTime - transferTime));
+        }
+
+        void printStatistics(final PrintStream s,
+                final List<JobType> jobTypes) {
+            s.println(node + ": work time: "
+                    + workTimeEstimator.getStatisticsString());
+            for (int i = 0; i < jobTypeWorkTimeEstimators.size(); i++) {
+                final Estimator est = jobTypeWorkTimeEstimators.get(i);
+                if (est != null) {
+                    s.println(node + ": work time of " + jobTypes.get(i)
+                            + ": " + est.getStatisticsString());
+                }
+            }
+            s.println(node + ": overhead: "
+                    + overheadEstimator.getStatisticsString());
+        }
+    }
+
+    /**
+     * Constructs a new learning scheduler.
+     * 
+     * @param queueAware
+     *            If set, rank workers on their queue-aware completion time.
+     * @param network
+     *            The source of transfer time estimates, or <code>null</code>
+     *            if transfers are to be ignored.
+     * @param localSite
+     *            The site of the master, or <code>null</code> if unknown.
+     * @param persistent
+     *            If set, start from and save to the {@link PerformanceStore}.
+     */
+    LearningScheduler(final boolean queueAware,
+            final TransferTimeModel network, final String localSite,
+            final boolean persistent) {
+        this.queueAware = queueAware;
+        this.network = network;
+        this.localSite = localSite;
+        this.maximalOutstandingJobs = queueAware ? MAXIMAL_QUEUE_AWARE_OUTSTANDING_JOBS
+                : MAXIMAL_OUTSTANDING_JOBS;
+        this.performanceStore = persistent ? PerformanceStore
+                .open(INITIAL_LOG_VARIANCE) : null;
+    }
+
+    LearningScheduler(final boolean queueAware,
+            final TransferTimeModel network, final String localSite) {
+        this(queueAware, network, localSite, true);
+    }
+
+    LearningScheduler() {
+        this(false, null, null);
+    }
+
+    /**
+     * Constructs an estimator for the execution time of jobs, without any
+     * prior knowledge.
+     * 
+     * @return The new estimator.
+     */
+    static Estimator buildWorkTimeEstimator() {
+        return buildWorkTimeEstimator(buildInitialRecord());
+    }
+
+    /**
+     * Constructs an estimator for the execution time of jobs, starting from
+     * the state of the given record.
+     * 
+     * @param record
+     *            The record with the initial estimate.
+     * @return The new estimator.
+     */
+    private static Estimator buildWorkTimeEstimator(
+            final PerformanceRecord record) {
+        return new LogGaussianDecayingEstimator(record.getEstimate(),
+                DECAY_FACTOR);
+    }
+
+    private static PerformanceRecord buildInitialRecord() {
+        return new PerformanceRecord(INITIAL_LOG_MEAN, INITIAL_LOG_VARIANCE,
+                1, DECAY_FACTOR);
+    }
+
+    /**
+     * Returns the record with the given key from the performance store, or a
+     * record without prior knowledge if there is no such record.
+     * 
+     * @param key
+     *            The key of the record.
+     * @return The record.
+     */
+    private PerformanceRecord buildRecord(final String key) {
+        if (performanceStore != null) {
+            final PerformanceRecord r = performanceStore.getPrior(key,
+                    DECAY_FACTOR);
+            if (r != null) {
+                return r;
+            }
+        }
+        return buildInitialRecord();
+    }
+
+    private void storeRecords(final WorkerInfo w) {
+        if (performanceStore != null) {
+            performanceStore.put(w.hostKey, w.workTimeRecord);
+        }
+    }
+
+    /**
+     * Writes what we have learned so far to the performance store.
+     */
+    private void savePerformance() {
+        if (performanceStore == null) {
+            return;
+        }
+        for (final WorkerInfo w : workers) {
+            storeRecords(w);
+        }
+        for (int i = 0; i < jobTypeRecords.size(); i++) {
+            performanceStore.put(jobTypeKeys.get(i), jobTypeRecords.get(i));
+        }
+        performanceStore.save();
+    }
+
+    /**
+     * Returns the name under which the performance of the given job type is
+     * stored. This is its <code>toString()</code> representation, unless that
+     * is the one of <code>Object</code>, which contains the hash code and is
+     * therefore different in every run; then it is the name of its class.
+     * 
+     * @param jobType
+     *            The job type.
+     * @return The name of the job type.
+     */
+    private static String getJobTypeName(final JobType jobType) {
+        final Class<?> c = jobType.getClass();
+        try {
+            if (c.getMethod("toString").getDeclaringClass() == Object.class) {
+                return c.getName();
+            }
+        } catch (final NoSuchMethodException e) {
+            // Cannot happen, every class has a public toString().
+        }
+        return jobType.toString();
+    }
+
+    /**
+     * Given a job type, returns its index in the estimator tables. Job types
+     * we haven't seen before are added to the tables.
+     * 
+     * @param jobType
+     *            The job type.
+     * @return The index of the job type, or <code>-1</code> if there is no
+     *         job type.
+     */
+    private int getJobTypeIndex(final JobType jobType) {
+        if (jobType == null) {
+            return -1;
+        }
+        final Integer ix = jobTypeIndices.get(jobType);
+        if (ix != null) {
+            return ix;
+        }
+        final int newIx = jobTypeEstimators.size();
+        final String key = "type:" + getJobTypeName(jobType);
+        final PerformanceRecord r = buildRecord(key);
+        jobTypeIndices.put(jobType, newIx);
+        jobTypeKeys.add(key);
+        jobTypeRecords.add(r);
+        jobTypeEstimators.add(buildWorkTimeEstimator(r));
+        jobTypeResultSizes.add(-1.0);
+        return newIx;
+    }
+
+    /**
+     * Returns the estimator for the execution time of a job of the given type
+     * on the given worker. If the worker hasn't executed enough jobs of this
+     * type, we fall back to the estimator of this job type on all workers, and
+     * then to the estimator of all jobs on this worker. If that doesn't have
+     * enough samples either, the estimator of all jobs on the site of the
+     * worker is used.
+     * 
+     * @param worker
+     *            The worker to execute the job on.
+     * @param jobTypeIndex
+     *            The index of the job type, or <code>-1</code> if the job has
+     *            no type.
+     * @return The estimator to use.
+     */
+    private Estimator getWorkTimeEstimator(final WorkerInfo worker,
+            final int jobTypeIndex) {
+        if (jobTypeIndex >= 0) {
+            final Estimator est = worker
+                    .getJobTypeWorkTimeEstimator(jobTypeIndex);
+            if (est != null && est.getSampleCount() >= MINIMAL_TRUSTED_SAMPLES) {
+                return est;
+            }
+            final Estimator typeEst = jobTypeEstimators.get(jobTypeIndex);
+            if (typeEst.getSampleCount() >= MINIMAL_TRUSTED_SAMPLES) {
+                return typeEst;
+            }
+        }
+        if (worker.workTimeEstimator.getSampleCount() < MINIMAL_TRUSTED_SAMPLES
+                && worker.site.workTimeEstimator.getSampleCount() >= MINIMAL_TRUSTED_SAMPLES) {
+            return worker.site.workTimeEstimator;
+        }
+        return worker.workTimeEstimator;
+    }
+
+    /**
+     * Returns the value of the given estimator; either its likely value or,
+     * if we want to be pessimistic, its high estimate.
+     */
+    private static double getValue(final Estimator est,
+            final boolean pessimistic) {
+        return pessimistic ? est.getHighEstimate() : est.getLikelyValue();
+    }
+
+    /**
+     * Returns the estimated execution time of a job of the given type on the
+     * given worker.
+     * 
+     * @param worker
+     *            The worker to execute the job on.
+     * @param jobTypeIndex
+     *            The index of the job type, or <code>-1</code> if the job has
+     *            no type.
+     * @param pessimistic
+     *            If set, return a pessimistic estimate instead of a likely
+     *            one.
+     * @return The estimated execution time.
+     */
+    private double estimateWorkTime(final WorkerInfo worker,
+            final int jobTypeIndex, final boolean pessimistic) {
+        final Estimator est = getWorkTimeEstimator(worker, jobTypeIndex);
+        final double v = getValue(est, pessimistic);
+        if (jobTypeIndex >= 0 && est == jobTypeEstimators.get(jobTypeIndex)) {
+            // The estimate over all workers says nothing about this worker,
+            // so correct it for the speed of the worker.
+            return v * getRelativeWorkTime(worker);
+        }
+        return v;
+    }
+
+    /**
+     * Returns the factor by which the execution times of the given worker
+     * differ from those of the average worker, or 1 if the worker has no
+     * trusted estimate yet. Both are taken over all job types.
+     * 
+     * @param worker
+     *            The worker.
+     * @return The relative execution time of the worker.
+     */
+    private double getRelativeWorkTime(final WorkerInfo worker) {
+        if (worker.workTimeEstimator.getSampleCount() < MINIMAL_TRUSTED_SAMPLES) {
+            return 1;
+        }
+        final double avg = getAverageWorkerLogMean();
+        if (Double.isNaN(avg)) {
+            return 1;
+        }
+        return Math.exp(worker.workTimeRecord.getLogMean() - avg);
+    }
+
+    /**
+     * Returns the average over the workers with a trusted estimate of the log
+     * of their execution time, or <code>NaN</code> if there are no such
+     * workers.
+     * 
+     * @return The average log execution time.
+     */
+    private double getAverageWorkerLogMean() {
+        if (Double.isNaN(averageWorkerLogMean)) {
+            double sum = 0;
+            int n = 0;
+            for (final WorkerInfo w : workers) {
+                if (w.workTimeEstimator.getSampleCount() >= MINIMAL_TRUSTED_SAMPLES) {
+                    sum += w.workTimeRecord.getLogMean();
+                    n++;
+                }
+            }
+            if (n > 0) {
+                averageWorkerLogMean = sum / n;
+            }
+        }
+        return averageWorkerLogMean;
+    }
+
+    /**
+     * Returns the expected size of the result of a job of the given type.
+     * 
+     * @param jobTypeIndex
+     *            The index of the job type, or <code>-1</code> if the job has
+     *            no type.
+     * @return The expected result size in bytes.
+     */
+    private long getExpectedResultSize(final int jobTypeIndex) {
+        if (jobTypeIndex >= 0) {
+            final double sz = jobTypeResultSizes.get(jobTypeIndex);
+            if (sz >= 0) {
+                return (long) sz;
+            }
+        }
+        return (long) resultSize;
+    }
+
+    private void registerResultSize(final int jobTypeIndex, final long size) {
+        resultSize += DECAY_FACTOR * (size - resultSize);
+        if (jobTypeIndex >= 0) {
+            final double sz = jobTypeResultSizes.get(jobTypeIndex);
+            jobTypeResultSizes.set(jobTypeIndex, sz < 0 ? size : sz
+                    + DECAY_FACTOR * (size - sz));
+        }
+    }
+
+    /**
+     * Returns the estimated time to send a job to the given worker and to
+     * send back its result.
+     * 
+     * @param worker
+     *            The worker to execute the job on.
+     * @param inputSize
+     *            The size of the serialized input of the job in bytes.
+     * @param resultSize
+     *            The size of the result in bytes.
+     * @return The estimated transfer time.
+     */
+    private double estimateTransferTime(final WorkerInfo worker,
+            final long inputSize, final long resultSize) {
+        if (network == null) {
+            return 0;
+        }
+        // We only measure our own sends, so we assume the link is
+        // symmetric for the result.
+        return network.estimateTransferTime(worker.node, inputSize)
+                + network.estimateTransferTime(worker.node, resultSize);
+    }
+
+    /**
+     * Returns the estimated time between submission and completion of a job
+     * of the given type on the given worker.
+     * 
+     * @param worker
+     *            The worker to execute the job on.
+     * @param jobTypeIndex
+     *            The index of the job type, or <code>-1</code> if the job has
+     *            no type.
+     * @param inputSize
+     *            The size of the serialized input of the job in bytes.
+     * @param pessimistic
+     *            If set, return a pessimistic estimate instead of a likely
+     *            one.
+     * @return The estimated round-trip time of the job.
+     */
+    private double estimateRoundTripTime(final WorkerInfo worker,
+            final int jobTypeIndex, final long inputSize,
+            final boolean pessimistic) {
+        return estimateWorkTime(worker, jobTypeIndex, pessimistic)
+                + estimateTransferTime(worker, inputSize,
+                        getExpectedResultSize(jobTypeIndex))
+                + getValue(worker.overheadEstimator, pessimistic);
+    }
+
+    /**
+     * Returns the estimated time until a new job of the given type would be
+     * completed on the given worker, taking into account the jobs that are
+     * already outstanding on that worker.
+     * 
+     * @param worker
+     *            The worker to execute the job on.
+     * @param jobTypeIndex
+     *            The index of the job type, or <code>-1</code> if the job has
+     *            no type.
+     * @param inputSize
+     *            The size of the serialized input of the job in bytes.
+     * @param workerAdministration
+     *            The administration of outstanding requests.
+     * @param now
+     *            The current time in the time base of the worker
+     *            administration.
+     * @param pessimistic
+     *            If set, use a pessimistic estimate for the new job instead of
+     *            a likely one.
+     * @return The estimated completion time of the job.
+     */
+    private double estimateCompletionTime(final WorkerInfo worker,
+            final int jobTypeIndex, final long inputSize,
+            final WorkerAdministration workerAdministration, final long now,
+            final boolean pessimistic) {
+        final int queueLength = workerAdministration
+                .getOutstandingRequestCount(worker.node);
+        double pessimisticJobTime = 0;
+        double runningTime = 0;
+        if (queueLength > 0) {
+            pessimisticJobTime = worker.workTimeEstimator.getHighEstimate();
+            runningTime = 1e-9 * (now - workerAdministration
+                    .getOldestSubmissionTime(worker.node));
+        }
+        return CompletionTimeModel.estimateCompletionTime(queueLength,
+                pessimisticJobTime, runningTime,
+                estimateWorkTime(worker, jobTypeIndex, pessimistic))
+                + estimateTransferTime(worker, inputSize,
+                        getExpectedResultSize(jobTypeIndex));
+    }
+
+    /**
+     * Returns the penalty in seconds of the given worker for the jobs that
+     * timed out on it since it last completed a job: for each such job the
+     * timeout of a job with the pessimistic execution time of the worker.
+     */
+    private static double getTimeoutPenalty(final WorkerInfo worker) {
+        if (worker.timeouts == 0) {
+            return 0;
+        }
+        return worker.timeouts * TIMEOUT_SAFETY_FACTOR
+                * worker.workTimeEstimator.getHighEstimate();
+    }
+
+    /**
+     * Returns the estimated time until the given job is completed on the given
+     * worker, according to the strategy of this scheduler.
+     */
+    private double estimate(final WorkerInfo worker, final int jobTypeIndex,
+            final long inputSize,
+            final WorkerAdministration workerAdministration, final long now,
+            final boolean pessimistic) {
+        final double penalty = getTimeoutPenalty(worker);
+        if (queueAware) {
+            return penalty
+                    + estimateCompletionTime(worker, jobTypeIndex, inputSize,
+                            workerAdministration, now, pessimistic);
+        }
+        return penalty
+                + estimateRoundTripTime(worker, jobTypeIndex, inputSize,
+                        pessimistic);
     }
 
     /**
@@ -85,7 +777,7 @@ class LearningScheduler implements Scheduler {
 
     @Override
     public void shutdown() {
-        // Ignore.
+        savePerformance();
     }
 
     /**
@@ -96,7 +788,11 @@ class LearningScheduler implements Scheduler {
         final int ix = searchWorkerInfoIndex(workers, worker);
         if (ix >= 0) {
             final WorkerInfo info = workers.remove(ix);
+            averageWorkerLogMean = Double.NaN;
             if (info != null) {
+                // Keep what we learned about this worker in the store; it
+                // is written by the next periodic save, or at shutdown.
+                storeRecords(info);
                 info.setDeleted();
             }
         }
@@ -115,12 +811,60 @@ class LearningScheduler implements Scheduler {
      *            The worker to add.
      */
     @Override
-    public void workerHasJoined(final IbisIdentifier worker) {
-        workers.add(new WorkerInfo(worker));
+    public void workerHasJoined(final IbisIdentifier worker,
+            final String hostname) {
+        final String key = hostname == null ? null : "host:" + hostname;
+        final String siteName = Utils.getSite(worker);
+        SiteInfo site = sites.get(siteName);
+        if (site == null) {
+            site = new SiteInfo(siteName);
+            sites.put(siteName, site);
+        }
+        workers.add(new WorkerInfo(worker, site, key, buildRecord(key)));
+        averageWorkerLogMean = Double.NaN;
     }
 
     @Override
     public void printStatistics(final PrintStream printStream) {
+        if (deadlineJobs > 0) {
+            printStream.println("Submitted " + deadlineJobs
+                    + " jobs with a deadline, of which "
+                    + predictedDeadlineMisses + " were predicted to miss it");
+        }
+        final ArrayList<JobType> jobTypes = new ArrayList<JobType>(
+                jobTypeEstimators.size());
+        for (int i = 0; i < jobTypeEstimators.size(); i++) {
+            jobTypes.add(null);
+        }
+        for (final Map.Entry<JobType, Integer> e : jobTypeIndices.entrySet()) {
+            jobTypes.set(e.getValue(), e.getKey());
+        }
+        for (int i = 0; i < jobTypes.size(); i++) {
+            printStream.println(jobTypes.get(i) + ": work time: "
+                    + jobTypeEstimators.get(i).getStatisticsString());
+        }
+        if (endGameWaits > 0) {
+            printStream.println("In the end game, " + endGameWaits
+                    + " jobs waited for a faster worker");
+        }
+        if (backupCopies > 0) {
+            printStream.println("Sent " + backupCopies
+                    + " speculative backup copies of straggling jobs");
+        }
+        if (dataHeavyJobs > 0) {
+            printStream.println("Submitted " + dataHeavyJobs
+                    + " data-heavy jobs, of which " + spilledJobs
+                    + " were sent to a remote site");
+        }
+        for (final SiteInfo site : sites.values()) {
+            printStream.println("site " + site.name
+                    + (site.name.equals(localSite) ? " (local)" : "")
+                    + ": work time: "
+                    + site.workTimeEstimator.getStatisticsString());
+        }
+        for (final WorkerInfo w : workers) {
+            w.printStatistics(printStream, jobTypes);
+        }
     }
 
     @Override
@@ -133,56 +877,416 @@ class LearningScheduler implements Scheduler {
         jobQueue.add(job);
     }
 
+    @Override
+    public void registerCompletedJob(final IbisIdentifier worker,
+            final JobInstance job, final double completionTime,
+            final double roundTripTime, final long resultSize) {
+        final int ix = searchWorkerInfoIndex(workers, worker);
+        if (ix < 0) {
+            // The worker has left in the mean time.
+            return;
+        }
+        final int jobTypeIndex = getJobTypeIndex(job.job.getJobType());
+        if (jobTypeIndex >= 0) {
+            final double t = Math.max(MINIMAL_SAMPLE_TIME, completionTime);
+            jobTypeEstimators.get(jobTypeIndex).addSample(t);
+            jobTypeRecords.get(jobTypeIndex).addSample(t);
+        }
+        registerResultSize(jobTypeIndex, resultSize);
+        final WorkerInfo w = workers.get(ix);
+        final double transferTime = network == null ? 0
+                : estimateTransferTime(w, job.getInputSize(), resultSize);
+        w.registerCompletedJob(jobTypeIndex, completionTime, roundTripTime,
+                transferTime);
+        averageWorkerLogMean = Double.NaN;
+        if (performanceStore != null && performanceStore.isSaveDue()) {
+            savePerformance();
+        }
+    }
+
+    /**
+     * Returns the worker that has room for another job and is likely to
+     * complete a job of the given type the soonest, according to the
+     * strategy of this scheduler. For jobs with a deadline we compare
+     * pessimistic estimates, to maximize the chance that the deadline is met.
+     * 
+     * @param workerAdministration
+     *            The administration of outstanding requests.
+     * @param jobTypeIndex
+     *            The index of the type of the job, or <code>-1</code> if the
+     *            job has no type.
+     * @param inputSize
+     *            The size of the serialized input of the job in bytes.
+     * @param now
+     *            The current time in the time base of the worker
+     *            administration.
+     * @param pessimistic
+     *            If set, compare pessimistic estimates.
+     * @return The selected worker, or <code>null</code> if no worker has
+     *         room.
+     */
     private WorkerInfo selectBestWorker(
-            final WorkerAdministration workerAdministration) {
+            final WorkerAdministration workerAdministration,
+            final int jobTypeIndex, final long inputSize, final long now,
+            final boolean pessimistic) {
+        final boolean dataHeavy = isDataHeavy(jobTypeIndex, inputSize);
         WorkerInfo bestWorker = null;
         double bestResult = Double.POSITIVE_INFINITY;
+        WorkerInfo bestRemoteWorker = null;
+        double bestRemoteResult = Double.POSITIVE_INFINITY;
         for (final WorkerInfo p : workers) {
             if (workerAdministration.hasRoomForJob(p.node,
-                    MAXIMAL_OUTSTANDING_JOBS)) {
-                final Estimate est = p.workTimeEstimator.getEstimate();
-                final double v = est.getLikelyValue();
-                if (v < bestResult) {
+                    maximalOutstandingJobs)) {
+                final double v = estimate(p, jobTypeIndex, inputSize,
+                        workerAdministration, now, pessimistic);
+                if (dataHeavy && !isLocal(p)) {
+                    if (v < bestRemoteResult) {
+                        bestRemoteResult = v;
+                        bestRemoteWorker = p;
+                    }
+                } else if (v < bestResult) {
                     bestResult = v;
                     bestWorker = p;
                 }
             }
         }
-        return bestWorker;
+        if (bestWorker != null || bestRemoteWorker == null) {
+            return bestWorker;
+        }
+        // All local workers are busy. Only go to a remote site if waiting
+        // for a local worker takes longer than moving the data there.
+        final double wait = estimateLocalWait(workerAdministration, now);
+        final double penalty = estimateWanPenalty(bestRemoteWorker,
+                jobTypeIndex, inputSize);
+        if (wait > penalty) {
+            return bestRemoteWorker;
+        }
+        return null;
+    }
+
+    /**
+     * In the end game, when there are fewer jobs left than workers, the
+     * completion of the last jobs determines the total run time. A job should
+     * then not go to a slow worker just because it has room for it; it is
+     * better to wait until a faster worker can take it. Therefore we compare
+     * the estimated completion time of the job on the selected worker with
+     * that on every other worker, including the jobs that are already
+     * outstanding there.
+     * 
+     * @param workerAdministration
+     *            The administration of outstanding requests.
+     * @param selected
+     *            The worker that was selected by the normal rules.
+     * @param jobTypeIndex
+     *            The index of the job type, or <code>-1</code> if the job has
+     *            no type.
+     * @param inputSize
+     *            The size of the serialized input of the job in bytes.
+     * @param now
+     *            The current time in the time base of the worker
+     *            administration.
+     * @param pessimistic
+     *            If set, use a pessimistic estimate of the work time.
+     * @return The worker to send the job to, or <code>null</code> if it is
+     *         better to wait for a worker that is busy.
+     */
+    private WorkerInfo selectEndGameWorker(
+            final WorkerAdministration workerAdministration,
+            final WorkerInfo selected, final int jobTypeIndex,
+            final long inputSize, final long now, final boolean pessimistic) {
+        final boolean keepLocal = isDataHeavy(jobTypeIndex, inputSize)
+                && isLocal(selected);
+        WorkerInfo best = selected;
+        double bestTime = getTimeoutPenalty(selected)
+                + estimateCompletionTime(selected, jobTypeIndex, inputSize,
+                        workerAdministration, now, pessimistic);
+        for (final WorkerInfo w : workers) {
+            if (w == selected || (keepLocal && !isLocal(w))) {
+                continue;
+            }
+            final double t = getTimeoutPenalty(w)
+                    + estimateCompletionTime(w, jobTypeIndex, inputSize,
+                            workerAdministration, now, pessimistic);
+            if (t < bestTime) {
+                best = w;
+                bestTime = t;
+            }
+        }
+        if (best == selected) {
+            return selected;
+        }
+        if (workerAdministration.hasRoomForJob(best.node,
+                maximalOutstandingJobs)) {
+            return best;
+        }
+        return null;
+    }
+
+    private boolean isLocal(final WorkerInfo worker) {
+        return worker.site.name.equals(localSite);
+    }
+
+    /**
+     * Returns true iff a job of the given type and input size moves so much
+     * data that it should be kept on the site of the master.
+     */
+    private boolean isDataHeavy(final int jobTypeIndex, final long inputSize) {
+        return localSite != null && network != null
+                && inputSize + getExpectedResultSize(jobTypeIndex) >= DATA_HEAVY_SIZE;
+    }
+
+    /**
+     * Returns the estimated time until one of the workers on the site of the
+     * master can accept a new job.
+     * 
+     * @param workerAdministration
+     *            The administration of outstanding requests.
+     * @param now
+     *            The current time in the time base of the worker
+     *            administration.
+     * @return The estimated wait in seconds, or infinity if there are no
+     *         local workers.
+     */
+    private double estimateLocalWait(
+            final WorkerAdministration workerAdministration, final long now) {
+        double res = Double.POSITIVE_INFINITY;
+        for (final WorkerInfo w : workers) {
+            if (isLocal(w)) {
+                final double runningTime = 1e-9 * (now - workerAdministration
+                        .getOldestSubmissionTime(w.node));
+                final double remaining = Math.max(0, w.workTimeEstimator
+                        .getLikelyValue()
+                        + w.overheadEstimator.getLikelyValue() - runningTime);
+                res = Math.min(res, remaining);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns the extra time it takes to send a job and its result to the
+     * given remote worker, compared to the best local worker.
+     */
+    private double estimateWanPenalty(final WorkerInfo remote,
+            final int jobTypeIndex, final long inputSize) {
+        final long resultSize = getExpectedResultSize(jobTypeIndex);
+        double localTransfer = Double.POSITIVE_INFINITY;
+        for (final WorkerInfo w : workers) {
+            if (isLocal(w)) {
+                localTransfer = Math.min(localTransfer,
+                        estimateTransferTime(w, inputSize, resultSize));
+            }
+        }
+        final double remoteTransfer = estimateTransferTime(remote, inputSize,
+                resultSize);
+        if (localTransfer == Double.POSITIVE_INFINITY) {
+            return remoteTransfer;
+        }
+        return Math.max(0, remoteTransfer - localTransfer);
     }
 
     @Override
-    public boolean maintainOutstandingRequests(final Transmitter transmitter,
+    public boolean maintainOutstandingRequests(
+            final TransmitterInterface transmitter,
             final WorkerAdministration workerAdministration) {
-        if (jobQueue.isEmpty()) {
-            // There are no jobs to submit.
-            return false;
-        }
         if (workers.isEmpty()) {
             // There are no workers to submit jobs to.
             return false;
         }
-        final WorkerInfo worker = selectBestWorker(workerAdministration);
+        if (jobQueue.isEmpty()) {
+            // There are no jobs to submit, but idle workers can be used to
+            // speed up straggling jobs.
+            return launchBackupCopy(transmitter, workerAdministration);
+        }
+        final JobInstance job = jobQueue.peek();
+        final int jobTypeIndex = getJobTypeIndex(job.job.getJobType());
+        final long now = workerAdministration.getCurrentTime();
+        final boolean hasDeadline = job.hasDeadline();
+        final long inputSize = network == null ? 0 : job.getInputSize();
+        WorkerInfo worker = selectBestWorker(workerAdministration,
+                jobTypeIndex, inputSize, now, hasDeadline);
+        if (worker != null && jobQueue.size() < workers.size()) {
+            worker = selectEndGameWorker(workerAdministration, worker,
+                    jobTypeIndex, inputSize, now, hasDeadline);
+            if (worker == null && job != heldJob) {
+                heldJob = job;
+                endGameWaits++;
+            }
+        }
         if (worker == null) {
             return false;
         }
-        final JobInstance job = jobQueue.removeFirst();
-        final int id = workerAdministration.addRequest(worker.node, job);
-        // FIXME: properly handle job input
-        final ExecuteJobMessage rq = new ExecuteJobMessage(job.job, id,
-                job.input);
-        transmitter.addToRequestQueue(worker.node, rq);
+        jobQueue.poll();
+        if (isDataHeavy(jobTypeIndex, inputSize)) {
+            dataHeavyJobs++;
+            if (!isLocal(worker)) {
+                spilledJobs++;
+            }
+        }
+        if (hasDeadline) {
+            deadlineJobs++;
+            final double t = estimate(worker, jobTypeIndex, inputSize,
+                    workerAdministration, now, true);
+            if (now + 1e9 * t > job.deadline) {
+                // Even the best worker probably can't make it in time.
+                predictedDeadlineMisses++;
+            }
+        }
+        final double timeout = computeTimeout(worker, jobTypeIndex,
+                inputSize, workerAdministration);
+        final int id = workerAdministration.addRequest(worker.node, job,
+                timeout);
+        if (id < 0) {
+            // The worker has gone in the mean time.
+            jobQueue.add(job);
+            return false;
+        }
+        job.send(transmitter, worker.node, id);
         return true;
     }
 
+    /**
+     * Sends a backup copy of a straggling job to an idle worker. A job is
+     * straggling if it has been outstanding for longer than the pessimistic
+     * estimate of its completion time that was used for its timeout; since
+     * timeouts have a minimum, very short jobs are never backed up. A copy is
+     * only sent if the idle worker is likely to complete the job within that
+     * estimate. Every job gets at most one backup copy; the engine takes the
+     * result of the copy that completes first.
+     * 
+     * @param transmitter
+     *            The transmitter to send the copy with.
+     * @param workerAdministration
+     *            The administration of outstanding requests.
+     * @return <code>true</code> iff we sent a backup copy.
+     */
+    private boolean launchBackupCopy(final TransmitterInterface transmitter,
+            final WorkerAdministration workerAdministration) {
+        final long now = workerAdministration.getCurrentTime();
+        if (now < nextSpeculationCheck) {
+            return false;
+        }
+        nextSpeculationCheck = now + SPECULATION_CHECK_INTERVAL;
+        final ArrayList<WorkerInfo> idleWorkers = new ArrayList<WorkerInfo>();
+        for (final WorkerInfo w : workers) {
+            if (workerAdministration.getOutstandingRequestCount(w.node) == 0) {
+                idleWorkers.add(w);
+            }
+        }
+        if (idleWorkers.isEmpty()) {
+            return false;
+        }
+        for (final WorkerInfo w : workers) {
+            final WorkerAdministration.OutstandingRequest rq = workerAdministration
+                    .getOldestRequest(w.node);
+            if (rq == null) {
+                continue;
+            }
+            final JobInstance job = rq.job;
+            if (job.completed || job.hasBackup() || !job.canBeDuplicated()) {
+                continue;
+            }
+            final double expected = rq.timeout / TIMEOUT_SAFETY_FACTOR;
+            if (1e-9 * (now - rq.submissionTime) <= expected) {
+                continue;
+            }
+            final int jobTypeIndex = getJobTypeIndex(job.job.getJobType());
+            final long inputSize = network == null ? 0 : job.getInputSize();
+            WorkerInfo best = null;
+            double bestTime = expected;
+            for (final WorkerInfo i : idleWorkers) {
+                final double t = getTimeoutPenalty(i)
+                        + estimateRoundTripTime(i, jobTypeIndex, inputSize,
+                                false);
+                if (t < bestTime) {
+                    best = i;
+                    bestTime = t;
+                }
+            }
+            if (best != null) {
+                final double timeout = computeTimeout(best, jobTypeIndex,
+                        inputSize, workerAdministration);
+                final int id = workerAdministration.addRequest(best.node, job,
+                        timeout);
+                if (id < 0) {
+                    // The worker has gone in the mean time.
+                    return false;
+                }
+                job.primaryRequestId = rq.id;
+                job.backupRequestId = id;
+                job.send(transmitter, best.node, id);
+                backupCopies++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time after which we consider the given job lost on the
+     * given worker: a safety factor times the pessimistic estimate of the
+     * time to complete it and the jobs that are ahead of it.
+     * 
+     * @param worker
+     *            The worker the job is sent to.
+     * @param jobTypeIndex
+     *            The index of the job type, or <code>-1</code> if the job has
+     *            no type.
+     * @param inputSize
+     *            The size of the serialized input of the job in bytes.
+     * @param workerAdministration
+     *            The administration of outstanding requests.
+     * @return The timeout in seconds.
+     */
+    private double computeTimeout(final WorkerInfo worker,
+            final int jobTypeIndex, final long inputSize,
+            final WorkerAdministration workerAdministration) {
+        final int ahead = workerAdministration
+                .getOutstandingRequestCount(worker.node);
+        final double t = estimateRoundTripTime(worker, jobTypeIndex,
+                inputSize, true)
+                + ahead
+                * getValue(worker.workTimeEstimator, true);
+        return Math.max(Settings.MINIMAL_JOB_TIMEOUT, TIMEOUT_SAFETY_FACTOR
+                * t);
+    }
+
+    @Override
+    public void jobTimedOut(final IbisIdentifier worker,
+            final JobInstance job, final double elapsedTime) {
+        final int ix = searchWorkerInfoIndex(workers, worker);
+        if (ix >= 0) {
+            // Penalize the worker, so that the job is likely to go
+            // elsewhere.
+            workers.get(ix).timeouts++;
+        }
+        jobQueue.add(job);
+    }
+
+    @Override
+    public double estimateExecutionTime(final Job job) {
+        // Use the geometric mean of the execution times we have seen. Unlike
+        // the likely value of an estimator it doesn't vary from call to call.
+        final int jobTypeIndex = getJobTypeIndex(job.getJobType());
+        if (jobTypeIndex >= 0
+                && jobTypeEstimators.get(jobTypeIndex).getSampleCount() >= MINIMAL_TRUSTED_SAMPLES) {
+            return Math.exp(jobTypeRecords.get(jobTypeIndex).getLogMean());
+        }
+        final double avg = getAverageWorkerLogMean();
+        if (Double.isNaN(avg)) {
+            return 1;
+        }
+        return Math.exp(avg);
+    }
+
     @Override
     public boolean thereAreRequestsToSubmit() {
         return !jobQueue.isEmpty();
     }
 
     @Override
-    public void submitRequest(final AtomicJob job, final Serializable input) {
-        jobQueue.add(new JobInstance(job, input));
+    public void submitRequest(final JobInstance job) {
+        jobQueue.add(job);
     }
 
 }
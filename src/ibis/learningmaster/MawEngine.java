@@ -11,7 +11,10 @@ import ibis.ipl.RegistryEventHandler;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 class MawEngine extends Thread implements MessageReceiveListener,
@@ -20,6 +23,13 @@ class MawEngine extends Thread implements MessageReceiveListener,
             IbisCapabilities.MEMBERSHIP_UNRELIABLE,
             IbisCapabilities.ELECTIONS_STRICT);
     private static final String MASTER_ELECTION_NAME = "master-election";
+
+    /**
+     * The system property that selects the scheduler of the master. Known
+     * values are <code>learning</code> (the default), <code>queueaware</code>,
+     * <code>roundrobin</code>, <code>ucb1</code> and <code>thompson</code>.
+     */
+    static final String SCHEDULER_PROPERTY = "learningmaster.scheduler";
     private final ReceivedMessageQueue receivedMessageQueue = new ReceivedMessageQueue(
             Settings.MAXIMAL_RECEIVED_MESSAGE_QUEUE_LENGTH);
     private final TimeStatistics receivedMessageQueueStatistics = new TimeStatistics();
@@ -29,6 +39,43 @@ class MawEngine extends Thread implements MessageReceiveListener,
     private final ConcurrentLinkedQueue<IbisIdentifier> deletedNodes = new ConcurrentLinkedQueue<IbisIdentifier>();
     private final ConcurrentLinkedQueue<IbisIdentifier> newWorkers = new ConcurrentLinkedQueue<IbisIdentifier>();
     private final ConcurrentLinkedQueue<ExecuteJobMessage> workQueue = new ConcurrentLinkedQueue<ExecuteJobMessage>();
+
+    /** On the master, the jobs that the client has submitted. */
+    private final ConcurrentLinkedQueue<JobInstance> submittedJobs = new ConcurrentLinkedQueue<JobInstance>();
+
+    /** On the master, the job graphs that the client has submitted. */
+    private final ConcurrentLinkedQueue<JobGraph> submittedGraphs = new ConcurrentLinkedQueue<JobGraph>();
+
+    /** On the master, the jobs that the client wants to cancel. */
+    private final ConcurrentLinkedQueue<JobInstance> cancelledJobs = new ConcurrentLinkedQueue<JobInstance>();
+
+    /**
+     * On a worker, the identifiers of the jobs the master has cancelled, but
+     * that we haven't dropped yet.
+     */
+    private final Set<Integer> cancelledRequests = new HashSet<Integer>();
+
+    /**
+     * On a worker, the identifiers of the jobs we have received, but haven't
+     * executed or dropped yet. Only a cancellation of such a job is recorded.
+     * Only accessed while holding the lock on <code>cancelledRequests</code>.
+     */
+    private final Set<Integer> expectedRequests = new HashSet<Integer>();
+
+    /**
+     * On a worker, the identifier of the job that is being executed, or
+     * <code>-1</code>. Only changed while holding the lock on
+     * <code>cancelledRequests</code>, so that the engine thread is only
+     * interrupted while it executes the cancelled job.
+     */
+    private int runningRequest = -1;
+
+    /**
+     * Set if this engine should stop. The engine thread is also interrupted
+     * to cancel a running job, so this flag tells us whether an interrupt
+     * must be kept after the job has been cancelled.
+     */
+    private volatile boolean stopRequested = false;
     private final PacketUpcallReceivePort receivePort;
     private final Ibis localIbis;
     private int activeWorkers = 0;
@@ -37,9 +84,15 @@ class MawEngine extends Thread implements MessageReceiveListener,
     private long idleTime = 0;
     private final boolean isMaster;
     private final WorkerAdministration workerAdministration = new WorkerAdministration();
+    private final ForwardingAdministration forwardingAdministration = new ForwardingAdministration();
+    private int droppedJobs = 0;
+    private int interruptedJobs = 0;
 
     private final Scheduler scheduler;
 
+    /** On the master, the administration of job completions. */
+    private final JobAdministration jobAdministration;
+
     MawEngine() throws IbisCreationFailedException, IOException {
         super("LearningMaster engine thread");
         transmitter = new Transmitter(this);
@@ -53,10 +106,14 @@ class MawEngine extends Thread implements MessageReceiveListener,
                 .elect(MASTER_ELECTION_NAME);
         isMaster = masterIdentifier.equals(myIbis);
         if (isMaster) {
-            // scheduler = new RoundRobinScheduler();
-            scheduler = new LearningScheduler();
+            scheduler = createMasterScheduler(transmitter,
+                    Utils.getSite(myIbis), true, new Random());
+            jobAdministration = new JobAdministration(workerAdministration,
+                    scheduler, transmitter, JobTraceWriter.open(
+                            Clock.SYSTEM, Utils.getSite(myIbis)));
         } else {
             scheduler = new WorkerScheduler(masterIdentifier);
+            jobAdministration = null;
             // As a worker, we don't wait for submissions.
             waitingForSubmissions.set(false);
         }
@@ -78,13 +135,87 @@ class MawEngine extends Thread implements MessageReceiveListener,
         }
     }
 
+    /**
+     * Returns the name of the scheduler of the master, as selected by the
+     * <code>learningmaster.scheduler</code> system property.
+     * 
+     * @return The name of the scheduler.
+     */
+    static String getSchedulerName() {
+        return System.getProperty(SCHEDULER_PROPERTY, "learning");
+    }
+
+    /**
+     * Returns a new scheduler for the master, as selected by the
+     * <code>learningmaster.scheduler</code> system property.
+     * 
+     * @param network
+     *            The source of transfer time estimates for the scheduler.
+     * @param localSite
+     *            The site of the master.
+     * @param persistent
+     *            If set, a learning scheduler uses the performance store.
+     * @param rng
+     *            The random generator of the scheduler.
+     * @return The new scheduler.
+     */
+    static Scheduler createMasterScheduler(final TransferTimeModel network,
+            final String localSite, final boolean persistent,
+            final Random rng) {
+        return createMasterScheduler(getSchedulerName(), network, localSite,
+                persistent, rng);
+    }
+
+    /**
+     * Returns a new scheduler for the master with the given name: learning,
+     * queueaware, roundrobin, ucb1 or thompson.
+     * 
+     * The random generator is only used by the Thompson sampling policy. The
+     * estimators of the learning scheduler draw their likely values from the
+     * global generator of <code>ibis.steel</code>, which cannot be seeded.
+     * 
+     * @param nm
+     *            The name of the scheduler.
+     * @param network
+     *            The source of transfer time estimates for the scheduler.
+     * @param localSite
+     *            The site of the master.
+     * @param persistent
+     *            If set, a learning scheduler uses the performance store.
+     * @param rng
+     *            The random generator of the scheduler.
+     * @return The new scheduler.
+     */
+    static Scheduler createMasterScheduler(final String nm,
+            final TransferTimeModel network, final String localSite,
+            final boolean persistent, final Random rng) {
+        if (nm.equals("roundrobin")) {
+            return new RoundRobinScheduler();
+        }
+        if (nm.equals("queueaware")) {
+            return new LearningScheduler(true, network, localSite,
+                    persistent);
+        }
+        if (nm.equals("ucb1")) {
+            return new BanditScheduler(new UCB1Policy());
+        }
+        if (nm.equals("thompson")) {
+            return new BanditScheduler(new ThompsonSamplingPolicy(rng));
+        }
+        if (!nm.equals("learning")) {
+            Globals.log.reportError("Unknown scheduler '" + nm
+                    + "'; using the learning scheduler");
+        }
+        return new LearningScheduler(false, network, localSite, persistent);
+    }
+
     @Override
     public void died(final IbisIdentifier worker) {
         if (worker.equals(localIbis.identifier())) {
-            if (!isInterrupted()) {
+            if (!stopRequested) {
                 Globals.log
                         .reportError("This worker has been declared dead, we might as well stop");
-                interrupt();
+                requestStop();
             }
         } else {
             transmitter.deleteNode(worker);
@@ -96,10 +227,10 @@ class MawEngine extends Thread implements MessageReceiveListener,
     @Override
     public void left(final IbisIdentifier worker) {
         if (worker.equals(localIbis.identifier())) {
-            if (!isInterrupted()) {
+            if (!stopRequested) {
                 Globals.log
                         .reportError("This worker has been declared `left', we might as well stop");
-                interrupt();
+                requestStop();
             }
         } else {
             transmitter.deleteNode(worker);
@@ -181,6 +312,10 @@ class MawEngine extends Thread implements MessageReceiveListener,
         activeWorkers--;
         workerAdministration.removeWorker(node, scheduler);
         scheduler.removeNode(node);
+        if (jobAdministration != null) {
+            // Results that the worker kept for forwarding are gone.
+            jobAdministration.removeWorker(node);
+        }
     }
 
     /**
@@ -211,10 +346,20 @@ class MawEngine extends Thread implements MessageReceiveListener,
     }
 
     private void setStopped() {
-        interrupt();
+        requestStop();
         wakeEngineThread(); // Something interesting has happened.
     }
 
+    /**
+     * Tells the engine thread to stop. The flag is set before the thread is
+     * interrupted, so that an engine thread that clears the interrupt of a
+     * cancelled job will see it.
+     */
+    private void requestStop() {
+        stopRequested = true;
+        interrupt();
+    }
+
     /**
      * Handles an incoming message.
      * 
@@ -223,6 +368,19 @@ class MawEngine extends Thread implements MessageReceiveListener,
      */
     @Override
     public void messageReceived(final Message message) {
+        if (message instanceof CancelJobMessage) {
+            // Handle this immediately, since the engine thread may be busy
+            // executing the job.
+            cancelJobRequest(((CancelJobMessage) message).id);
+            return;
+        }
+        if (message instanceof ExecuteJobMessage) {
+            // The master sends a cancellation over the same queue as the
+            // job, so the job is always registered before its cancellation.
+            synchronized (cancelledRequests) {
+                expectedRequests.add(((ExecuteJobMessage) message).id);
+            }
+        }
         // We are not allowed to do I/O in this thread, and we shouldn't
         // take too much time, so put all messages in a local queue to be
         // handled by the main loop.
@@ -237,6 +395,31 @@ class MawEngine extends Thread implements MessageReceiveListener,
         wakeEngineThread(); // Something interesting has happened.
     }
 
+    /**
+     * On a worker, registers that the master has cancelled the job with the
+     * given identifier. A job that is still waiting for forwarded inputs is
+     * dropped at once, a job that is still waiting in the work queue is
+     * dropped when it is taken from the queue, and a job that is executing is
+     * interrupted. A job that has already been executed is ignored.
+     * 
+     * @param id
+     *            The identifier of the job.
+     */
+    private void cancelJobRequest(final int id) {
+        final boolean dropped = forwardingAdministration.dropPendingJob(id);
+        synchronized (cancelledRequests) {
+            if (dropped) {
+                expectedRequests.remove(id);
+                droppedJobs++;
+            } else if (expectedRequests.contains(id)) {
+                cancelledRequests.add(id);
+                if (runningRequest == id) {
+                    interrupt();
+                }
+            }
+        }
+    }
+
     /** Tell the engine thread that something interesting has happened. */
     @Override
     public void wakeEngineThread() {
@@ -255,22 +438,103 @@ class MawEngine extends Thread implements MessageReceiveListener,
     private void handleMessage(final Message msg) {
         if (msg instanceof ExecuteJobMessage) {
             final ExecuteJobMessage r = (ExecuteJobMessage) msg;
-            workQueue.add(r);
+            if (r.forwardedInputs > 0) {
+                final ExecuteJobMessage rq = forwardingAdministration
+                        .addPendingJob(r);
+                if (rq != null) {
+                    workQueue.add(rq);
+                }
+            } else {
+                workQueue.add(r);
+            }
+        } else if (msg instanceof ForwardResultMessage) {
+            final ForwardResultMessage m = (ForwardResultMessage) msg;
+            if (forwardingAdministration.hasResultToForward(m.resultId)) {
+                transmitter.addToDataQueue(m.destination,
+                        new ForwardedResultMessage(m.consumerId, m.slot,
+                                forwardingAdministration
+                                        .getResultToForward(m.resultId)));
+            } else {
+                // Let the master execute the job again.
+                Globals.log.reportProgress("No retained result for job "
+                        + m.resultId + " to forward to " + m.destination);
+                transmitter.addToBookkeepingQueue(m.source,
+                        new MissingResultMessage(m.resultId));
+            }
+        } else if (msg instanceof ReleaseResultMessage) {
+            forwardingAdministration
+                    .releaseResult(((ReleaseResultMessage) msg).resultId);
+        } else if (msg instanceof MissingResultMessage) {
+            final MissingResultMessage m = (MissingResultMessage) msg;
+            jobAdministration.handleMissingResult(m.source, m.resultId);
+        } else if (msg instanceof ForwardedResultMessage) {
+            final ExecuteJobMessage rq = forwardingAdministration
+                    .addForwardedResult((ForwardedResultMessage) msg);
+            if (rq != null) {
+                workQueue.add(rq);
+            }
         } else if (msg instanceof JobCompletedMessage) {
-            final JobCompletedMessage jobCompletedMessage = (JobCompletedMessage) msg;
-            workerAdministration.removeJob(msg.source,
-                    jobCompletedMessage.jobNo, jobCompletedMessage.failed);
+            jobAdministration.handleJobCompleted((JobCompletedMessage) msg);
         } else if (msg instanceof RegisterWorkerMessage) {
             final RegisterWorkerMessage registerWorkerMessage = (RegisterWorkerMessage) msg;
             final IbisIdentifier worker = registerWorkerMessage.source;
             workerAdministration.addWorker(worker);
-            scheduler.workerHasJoined(worker);
+            scheduler.workerHasJoined(worker,
+                    registerWorkerMessage.hostname);
         } else {
             Globals.log.reportInternalError("Don't know how to handle a "
                     + msg.getClass() + " message");
         }
     }
 
+    /**
+     * On the master, hand the jobs and job graphs the client has submitted to
+     * the scheduler. This is done by the engine thread, since the scheduler
+     * is not thread-safe.
+     * 
+     * @return <code>true</code> iff we handled any submissions.
+     */
+    private boolean handleSubmissions() {
+        boolean progress = false;
+        while (true) {
+            final JobInstance job = submittedJobs.poll();
+            if (job == null) {
+                break;
+            }
+            progress = true;
+            jobAdministration.submit(job);
+        }
+        while (true) {
+            final JobGraph graph = submittedGraphs.poll();
+            if (graph == null) {
+                break;
+            }
+            progress = true;
+            for (final JobInstance j : graph.getInitialJobs(scheduler)) {
+                jobAdministration.submit(j);
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * On the master, handle the cancellations requested by the client.
+     * 
+     * @return <code>true</code> iff we handled any cancellations.
+     */
+    private boolean handleCancellations() {
+        boolean progress = false;
+        while (true) {
+            final JobInstance job = cancelledJobs.poll();
+            if (job == null) {
+                break;
+            }
+            progress = true;
+            jobAdministration.cancel(job);
+        }
+        return progress;
+    }
+
     private boolean handleIncomingMessages() {
         final long start = System.nanoTime();
         boolean progress = false;
@@ -310,28 +574,62 @@ class MawEngine extends Thread implements MessageReceiveListener,
         if (Settings.TraceWorker) {
             Globals.log.reportProgress("Starting execution of job " + job);
         }
+        if (!(job instanceof AtomicJob)) {
+            Globals.log
+                    .reportInternalError("Don't know how to execute a job of type "
+                            + job.getClass());
+            return false;
+        }
+        synchronized (cancelledRequests) {
+            if (cancelledRequests.remove(request.id)) {
+                expectedRequests.remove(request.id);
+                droppedJobs++;
+                return true;
+            }
+            runningRequest = request.id;
+        }
         final long startTime = System.nanoTime();
         Serializable res;
         boolean failed = false;
         try {
-            if (job instanceof AtomicJob) {
-                final AtomicJob aj = (AtomicJob) job;
-                res = aj.run(request.input);
-            } else {
-                Globals.log
-                        .reportInternalError("Don't know how to execute a job of type "
-                                + job.getClass());
-                return false;
-            }
+            final AtomicJob aj = (AtomicJob) job;
+            res = aj.run(request.input);
         } catch (final JobFailedException x) {
             Globals.log.reportError("Execution of job " + job + " failed", x);
             failed = true;
             res = null;
+        } finally {
+            synchronized (cancelledRequests) {
+                runningRequest = -1;
+            }
         }
         final long endTime = System.nanoTime();
+        final boolean cancelled;
+        synchronized (cancelledRequests) {
+            expectedRequests.remove(request.id);
+            cancelled = cancelledRequests.remove(request.id);
+        }
+        if (cancelled) {
+            // Clear the interrupt that was meant for the job, but keep it if
+            // the engine must stop. Only tell the master how long we worked
+            // on the job.
+            Thread.interrupted();
+            if (stopRequested) {
+                interrupt();
+            }
+            interruptedJobs++;
+            failed = true;
+            res = null;
+        }
         if (Settings.TraceWorker) {
             Globals.log.reportProgress("Ended execution of job " + job);
         }
+        if (request.retainCount > 0 && !failed) {
+            // Keep the result for forwarding, and only tell the master
+            // we're done.
+            forwardingAdministration.retainResult(request.id, res);
+            res = null;
+        }
         final Message msg = new JobCompletedMessage(request.id, res, failed,
                 1e-9 * (endTime - startTime));
         transmitter.addToBookkeepingQueue(request.source, msg);
@@ -358,6 +656,15 @@ class MawEngine extends Thread implements MessageReceiveListener,
                 + Utils.formatSeconds(1e-3 * idleTime));
         receivedMessageQueueStatistics.printStatistics(s,
                 "receive queue linger time");
+        forwardingAdministration.printStatistics(s);
+        if (jobAdministration != null) {
+            jobAdministration.printStatistics(s);
+        }
+        if (droppedJobs + interruptedJobs > 0) {
+            s.println("cancelled by the master: dropped " + droppedJobs
+                    + " waiting jobs, interrupted " + interruptedJobs
+                    + " running jobs");
+        }
     }
 
     private synchronized void dumpEngineState() {
@@ -392,10 +699,19 @@ class MawEngine extends Thread implements MessageReceiveListener,
                     // Keep doing bookkeeping chores until all is done.
                     final boolean progressIncoming = handleIncomingMessages();
                     final boolean progressNodeChurn = registerNewAndDeletedNodes();
+                    final boolean progressSubmit = isMaster
+                            && handleSubmissions();
+                    final boolean progressCancel = isMaster
+                            && handleCancellations();
+                    final boolean progressReissue = isMaster
+                            && jobAdministration.reissueExpiredRequests();
                     final boolean progressRequests = maintainOutstandingRequests();
                     final boolean progressWork = handleAWorkRequest();
                     progress = progressIncoming || progressNodeChurn
-                            || progressRequests || progressWork;
+                            || progressSubmit || progressCancel
+                            || progressReissue
+                            || progressRequests
+                            || progressWork;
                     if (Settings.TraceDetailedProgress) {
                         if (progress) {
                             Globals.log.reportProgress("EE p=true i="
@@ -413,11 +729,13 @@ class MawEngine extends Thread implements MessageReceiveListener,
                     }
                 } while (progress);
                 if (!waitingForSubmissions.isSet()
+                        && submittedJobs.isEmpty()
+                        && submittedGraphs.isEmpty()
                         && workerAdministration.isEmpty()
                         && scheduler.shouldStop()) {
                     Globals.log
                             .reportProgress("Setting engine to stopped state");
-                    interrupt();
+                    requestStop();
                     break;
                 }
                 synchronized (this) {
@@ -427,7 +745,9 @@ class MawEngine extends Thread implements MessageReceiveListener,
                             .isEmpty() && !scheduler.thereAreRequestsToSubmit();
                     if (noRequestsToSubmit && messageQueueIsEmpty
                             && newWorkers.isEmpty() && deletedNodes.isEmpty()
-                            && workQueue.isEmpty()) {
+                            && workQueue.isEmpty() && submittedJobs.isEmpty()
+                            && submittedGraphs.isEmpty()
+                            && cancelledJobs.isEmpty()) {
                         try {
                             final long sleepStartTime = System
                                     .currentTimeMillis();
@@ -455,6 +775,9 @@ class MawEngine extends Thread implements MessageReceiveListener,
         } finally {
             transmitter.setShuttingDown();
             scheduler.shutdown();
+            if (jobAdministration != null) {
+                jobAdministration.close();
+            }
             transmitter.setStopped();
             try {
                 transmitter.join(Settings.TRANSMITTER_SHUTDOWN_TIMEOUT);
@@ -482,8 +805,73 @@ class MawEngine extends Thread implements MessageReceiveListener,
         return isMaster;
     }
 
-    public void submitRequest(final AtomicJob job, final Serializable input) {
-        scheduler.submitRequest(job, input);
+    /**
+     * Submits a job.
+     * 
+     * @param job
+     *            The job to execute.
+     * @param input
+     *            The input of the job.
+     * @return The submitted job, for use with {@link #cancel(JobInstance)}.
+     */
+    public JobInstance submitRequest(final AtomicJob job,
+            final Serializable input) {
+        final JobInstance j = new JobInstance(job, input);
+        submittedJobs.add(j);
+        wakeEngineThread();
+        return j;
+    }
+
+    /**
+     * Submits a job with the given priority and deadline.
+     * 
+     * @param job
+     *            The job to execute.
+     * @param input
+     *            The input of the job.
+     * @param priority
+     *            The priority of the job; jobs with a higher priority are
+     *            submitted to workers first.
+     * @param deadline
+     *            The time in seconds from now within which the job should be
+     *            completed, or a negative value if the job has no deadline.
+     * @return The submitted job, for use with {@link #cancel(JobInstance)}.
+     */
+    public JobInstance submitRequest(final AtomicJob job,
+            final Serializable input, final int priority, final double deadline) {
+        final long d = deadline < 0 ? JobInstance.NO_DEADLINE : System
+                .nanoTime() + Math.round(1e9 * deadline);
+        final JobInstance j = new JobInstance(job, input, priority, d);
+        submittedJobs.add(j);
+        wakeEngineThread();
+        return j;
+    }
+
+    /**
+     * Cancels the given job. If it is still queued on the master it is
+     * dropped, and if it has been sent to a worker, the worker is told to
+     * drop or interrupt it. The job will not be completed, although a result
+     * that is already on its way is ignored rather than undone.
+     * 
+     * @param job
+     *            The job to cancel.
+     */
+    public void cancel(final JobInstance job) {
+        job.cancelled = true;
+        cancelledJobs.add(job);
+        wakeEngineThread();
+    }
+
+    /**
+     * Submits all jobs of the given job graph. Jobs that depend on other jobs
+     * are submitted to the scheduler as soon as their input is available.
+     * 
+     * @param graph
+     *            The job graph to execute.
+     */
+    public void submitGraph(final JobGraph graph) {
+        submittedGraphs.add(graph);
+        wakeEngineThread();
     }
 
     public void endRequests() {
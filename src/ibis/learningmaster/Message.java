@@ -11,6 +11,9 @@ abstract class Message implements Serializable {
 
     transient long arrivalTime;
 
+    /** The size in bytes of this message as it was received. */
+    transient long receivedBytes;
+
     @Override
     public String toString() {
         return Utils.toStringClassScalars(this);
@@ -0,0 +1,25 @@
+package ibis.learningmaster;
+
+/**
+ * A message from a worker to its master, telling it that the worker was asked
+ * to forward the result of one of its jobs, but doesn't have that result. The
+ * master must execute the job again to get the result.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class MissingResultMessage extends SmallMessage {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the job that produced the result. */
+    final int resultId;
+
+    MissingResultMessage(final int resultId) {
+        this.resultId = resultId;
+    }
+
+    @Override
+    public String toString() {
+        return "MissingResultMessage[" + resultId + "]";
+    }
+}
@@ -0,0 +1,161 @@
+package ibis.learningmaster;
+
+/**
+ * The model of the network and of the master that the simulated master uses
+ * to take the cost of communication into account. Every worker has its own
+ * link to the master, with a latency and a bandwidth. The master handles its
+ * messages one at a time, in order of arrival, and spends a fixed service
+ * time on each of them; as in production, all outgoing messages are sent by
+ * a single transmitter, which is occupied for the time it takes to put a
+ * message on the link.
+ * 
+ * With this model the simulation shows at what number of workers and what
+ * job granularity the master becomes the bottleneck.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class NetworkModel {
+    /** The system property with the service time of the master. */
+    static final String SERVICE_TIME_PROPERTY = "learningmaster.servicetime";
+
+    /** The default time in seconds the master spends on every message. */
+    static final double DEFAULT_SERVICE_TIME = 100e-6;
+
+    static final double LOCAL_LATENCY = 1e-4;
+    static final double REMOTE_LATENCY = 10e-3;
+    static final double LOCAL_BANDWIDTH = 100e6;
+    static final double REMOTE_BANDWIDTH = 10e6;
+
+    /** The size in bytes of a job request, when it is not known. */
+    static final long DEFAULT_REQUEST_BYTES = 10000;
+
+    /** The size in bytes of a completion message, when it is not known. */
+    static final long DEFAULT_RESULT_BYTES = 1000;
+
+    /** The number of sites the synthetic workers are spread over. */
+    private static final int SITES = 4;
+
+    /** For every worker, the latency of its link in seconds. */
+    private final double latency[];
+
+    /** For every worker, the bandwidth of its link in bytes per second. */
+    private final double bandwidth[];
+    final long requestBytes;
+    final long resultBytes;
+
+    /** The time in seconds the master spends on every message. */
+    final double serviceTime;
+
+    private NetworkModel(final double latency[], final double bandwidth[],
+            final long requestBytes, final long resultBytes,
+            final double serviceTime) {
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+        this.requestBytes = requestBytes;
+        this.resultBytes = resultBytes;
+        this.serviceTime = serviceTime;
+    }
+
+    private static NetworkModel build(final boolean local[],
+            final long requestBytes, final long resultBytes,
+            final double serviceTime) {
+        final double latency[] = new double[local.length];
+        final double bandwidth[] = new double[local.length];
+        for (int i = 0; i < local.length; i++) {
+            latency[i] = local[i] ? LOCAL_LATENCY : REMOTE_LATENCY;
+            bandwidth[i] = local[i] ? LOCAL_BANDWIDTH : REMOTE_BANDWIDTH;
+        }
+        return new NetworkModel(latency, bandwidth, requestBytes,
+                resultBytes, serviceTime);
+    }
+
+    /**
+     * Returns a model for synthetic workers that are spread round-robin over
+     * a number of sites; the workers on the first site are on the site of the
+     * master.
+     * 
+     * @param workerCount
+     *            The number of workers.
+     * @param serviceTime
+     *            The time in seconds the master spends on every message.
+     * @return The model.
+     */
+    static NetworkModel buildSynthetic(final int workerCount,
+            final double serviceTime) {
+        final boolean local[] = new boolean[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            local[i] = i % SITES == 0;
+        }
+        return build(local, DEFAULT_REQUEST_BYTES, DEFAULT_RESULT_BYTES,
+                serviceTime);
+    }
+
+    /**
+     * Returns a model for the workers of the given trace, where the workers on
+     * the site of the traced master have a local link, and the messages have
+     * the average sizes of the traced messages.
+     * 
+     * @param trace
+     *            The trace.
+     * @param serviceTime
+     *            The time in seconds the master spends on every message.
+     * @return The model.
+     */
+    static NetworkModel buildForTrace(final JobTrace trace,
+            final double serviceTime) {
+        final boolean local[] = new boolean[trace.getWorkerCount()];
+        for (int i = 0; i < local.length; i++) {
+            local[i] = trace.masterSite.equals(trace.workerSites[i]);
+        }
+        long requestBytes = DEFAULT_REQUEST_BYTES;
+        long resultBytes = DEFAULT_RESULT_BYTES;
+        if (trace.jobs.length > 0) {
+            long inputSum = 0;
+            long resultSum = 0;
+            for (final JobTrace.TracedJob j : trace.jobs) {
+                inputSum += j.inputSize;
+                resultSum += j.resultSize;
+            }
+            requestBytes = inputSum / trace.jobs.length;
+            resultBytes = resultSum / trace.jobs.length;
+        }
+        return build(local, requestBytes, resultBytes, serviceTime);
+    }
+
+    /**
+     * Returns the service time of the master selected by the system
+     * properties.
+     * 
+     * @return The service time in seconds.
+     */
+    static double getServiceTime() {
+        return Utils.getDoubleProperty(SERVICE_TIME_PROPERTY,
+                DEFAULT_SERVICE_TIME);
+    }
+
+    /**
+     * Returns the time it takes to put a message of the given size on the
+     * link of the given worker.
+     * 
+     * @param worker
+     *            The index of the worker.
+     * @param bytes
+     *            The size of the message in bytes.
+     * @return The time in seconds.
+     */
+    double getSendTime(final int worker, final long bytes) {
+        return bytes / bandwidth[worker];
+    }
+
+    /**
+     * Returns the latency of the link of the given worker.
+     * 
+     * @param worker
+     *            The index of the worker.
+     * @return The latency in seconds.
+     */
+    double getLatency(final int worker) {
+        return latency[worker];
+    }
+}
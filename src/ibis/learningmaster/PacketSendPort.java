@@ -11,7 +11,9 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * A port that communicates in entire objects.
+ * A port that communicates in entire objects. For every destination, every
+ * site, and for all destinations together, it learns the latency and
+ * bandwidth from the sizes and send times of the messages it sends.
  * 
  * @author Kees van Reeuwijk
  * 
@@ -30,6 +32,18 @@ class PacketSendPort {
 
 	private int sentCount = 0;
 
+	/** The transfer time estimator over all destinations. */
+	private final TransferTimeEstimator transferTimeEstimator = new TransferTimeEstimator();
+
+	/**
+	 * The number of messages we must have sent to a destination before we
+	 * trust its own transfer time estimate more than that of its site.
+	 */
+	private static final int MINIMAL_DESTINATION_SAMPLES = 3;
+
+	/** The transfer time estimator of each site. */
+	private final HashMap<String, TransferTimeEstimator> sites = new HashMap<String, TransferTimeEstimator>();
+
 	/**
 	 * The list of known destinations. Register a destination before trying to
 	 * send to it.
@@ -81,20 +95,29 @@ class PacketSendPort {
 
 		private final IbisIdentifier ibisIdentifier;
 
+		private final TransferTimeEstimator transferTimeEstimator = new TransferTimeEstimator();
+
+		private final TransferTimeEstimator siteTransferTimeEstimator;
+
 		/**
 		 * Create a new destination info entry.
 		 * 
 		 * @param ibisIdentifier
 		 *            The destination ibis.
+		 * @param siteTransferTimeEstimator
+		 *            The transfer time estimator of the site of the ibis.
 		 */
-		private DestinationInfo(final IbisIdentifier ibisIdentifier) {
+		private DestinationInfo(final IbisIdentifier ibisIdentifier,
+				final TransferTimeEstimator siteTransferTimeEstimator) {
 			this.ibisIdentifier = ibisIdentifier;
+			this.siteTransferTimeEstimator = siteTransferTimeEstimator;
 		}
 
 		/** Print statistics for this destination. */
 		private synchronized void printStatistics(final PrintStream s) {
-			s.format(" %5d messages %6s   node %s\n", sentCount,
-					Utils.formatByteCount(sentBytes), ibisIdentifier.toString());
+			s.format(" %5d messages %6s   node %s   %s\n", sentCount,
+					Utils.formatByteCount(sentBytes), ibisIdentifier.toString(),
+					transferTimeEstimator.toString());
 		}
 
 		private synchronized void incrementSentCount() {
@@ -125,11 +148,22 @@ class PacketSendPort {
 			// Already registered.
 			return destinationInfo;
 		}
-		destinationInfo = new DestinationInfo(theIbis);
+		destinationInfo = new DestinationInfo(theIbis,
+				getSiteEstimator(Utils.getSite(theIbis)));
 		destinations.put(theIbis, destinationInfo);
 		return destinationInfo;
 	}
 
+	private synchronized TransferTimeEstimator getSiteEstimator(
+			final String site) {
+		TransferTimeEstimator res = sites.get(site);
+		if (res == null) {
+			res = new TransferTimeEstimator();
+			sites.put(site, res);
+		}
+		return res;
+	}
+
 	/**
 	 * Sends the given data to the given ibis.
 	 * 
@@ -161,6 +195,11 @@ class PacketSendPort {
 				sendTime += t;
 			}
 			info.addSentBytes(len);
+			if (ok) {
+				info.transferTimeEstimator.addSample(len, t);
+				info.siteTransferTimeEstimator.addSample(len, t);
+				transferTimeEstimator.addSample(len, t);
+			}
 			if (Settings.TraceSends) {
 				Globals.log.reportProgress("Sent " + len + " bytes in "
 						+ Utils.formatSeconds(t) + ": " + message);
@@ -169,6 +208,36 @@ class PacketSendPort {
 		return ok;
 	}
 
+	/**
+	 * Returns the estimated time to send a message of the given size to the
+	 * given ibis. If we haven't sent enough to that ibis yet, the estimate of
+	 * its site is used, and if we haven't sent anything to that site either,
+	 * the estimate over all destinations.
+	 * 
+	 * @param theIbis
+	 *            The ibis to send to.
+	 * @param bytes
+	 *            The size of the message in bytes.
+	 * @return The estimated transfer time in seconds.
+	 */
+	@SuppressWarnings("synthetic-access")
+	double estimateTransferTime(final IbisIdentifier theIbis, final long bytes) {
+		final DestinationInfo info;
+		final TransferTimeEstimator site;
+		synchronized (this) {
+			info = destinations.get(theIbis);
+			site = sites.get(Utils.getSite(theIbis));
+		}
+		if (info != null
+				&& info.transferTimeEstimator.getSampleCount() >= MINIMAL_DESTINATION_SAMPLES) {
+			return info.transferTimeEstimator.estimateTransferTime(bytes);
+		}
+		if (site != null && site.getSampleCount() > 0) {
+			return site.estimateTransferTime(bytes);
+		}
+		return transferTimeEstimator.estimateTransferTime(bytes);
+	}
+
 	/**
 	 * Given the name of this port, prints some statistics about this port.
 	 * 
@@ -184,6 +253,12 @@ class PacketSendPort {
 					+ Utils.formatSeconds(sendTime) + "; "
 					+ Utils.formatSeconds(sendTime / sentCount)
 					+ " per message");
+			s.println(portname + ": " + transferTimeEstimator);
+			for (final Map.Entry<String, TransferTimeEstimator> e : sites
+					.entrySet()) {
+				s.println(portname + ": site " + e.getKey() + ": "
+						+ e.getValue());
+			}
 		}
 		final DestinationInfo l[] = new DestinationInfo[destinations.size()];
 		int sz = 0;
@@ -61,6 +61,7 @@ class PacketUpcallReceivePort implements MessageUpcall {
             return;
         }
         // msg.finish();
+        data.receivedBytes = msg.bytesRead();
         data.source = msg.origin().ibisIdentifier();
         data.arrivalTime = System.nanoTime();
         listener.messageReceived(data);
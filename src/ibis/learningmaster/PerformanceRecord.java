@@ -0,0 +1,70 @@
+package ibis.learningmaster;
+
+import ibis.steel.Estimate;
+import ibis.steel.LogGaussianEstimate;
+
+/**
+ * A summary of the execution times of a worker or job type that can be
+ * stored between runs. It tracks the same decaying mean and variance of the
+ * logarithm of the samples as the decaying log-gaussian estimators of the
+ * scheduler, since the state of those estimators is not accessible.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class PerformanceRecord {
+    private final double alpha;
+    private double logMean;
+    private double logVariance;
+    private int sampleCount;
+
+    PerformanceRecord(final double logMean, final double logVariance,
+            final int sampleCount, final double alpha) {
+        this.logMean = logMean;
+        this.logVariance = logVariance;
+        this.sampleCount = sampleCount;
+        this.alpha = alpha;
+    }
+
+    /**
+     * Registers a new sample.
+     * 
+     * @param x
+     *            The sample; must be larger than zero.
+     */
+    void addSample(final double x) {
+        final double diff = Math.log(x) - logMean;
+        final double incr = alpha * diff;
+        logMean += incr;
+        logVariance = (1 - alpha) * (logVariance + diff * incr);
+        sampleCount++;
+    }
+
+    double getLogMean() {
+        return logMean;
+    }
+
+    double getLogVariance() {
+        return logVariance;
+    }
+
+    int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns an estimate with the state of this record, for use as the
+     * initial estimate of an estimator.
+     * 
+     * @return The estimate.
+     */
+    Estimate getEstimate() {
+        return new LogGaussianEstimate(logMean, logVariance, sampleCount);
+    }
+
+    @Override
+    public String toString() {
+        return "PerformanceRecord[logMean=" + logMean + " logVariance="
+                + logVariance + " n=" + sampleCount + "]";
+    }
+}
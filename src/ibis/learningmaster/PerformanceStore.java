@@ -0,0 +1,259 @@
+package ibis.learningmaster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A local file with the learned performance of hosts and job types, so that a
+ * new run can start from what previous runs have learned instead of from an
+ * uninformed guess.
+ * 
+ * Every record carries the time it was last updated. When a record is used as
+ * a prior, its variance is moved towards that of an uninformed estimate, and
+ * its sample count is reduced, in proportion to its age. The weight of a
+ * record halves every <code>STALENESS_HALF_LIFE</code>, and records that
+ * haven't been updated for <code>MAXIMAL_RECORD_AGE</code> are dropped when
+ * the store is saved, so that hosts and job types that are no longer used
+ * don't accumulate in the file.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class PerformanceStore {
+    /**
+     * The system property with the name of the file to use. If it is set to
+     * the empty string, learned performance is not stored.
+     */
+    static final String FILE_PROPERTY = "learningmaster.performancefile";
+
+    private static final String DEFAULT_FILE_NAME = ".learningmaster-performance";
+
+    private static final int MAGIC = 0x4c4d5046; // "LMPF"
+    private static final int VERSION = 1;
+
+    /** The time in ms in which the weight of a stored record halves. */
+    private static final long STALENESS_HALF_LIFE = 24L * 3600L * 1000L;
+
+    /**
+     * The age in ms beyond which a record is dropped. At this age the weight
+     * of the record is less than 0.5%, so it is no better than an uninformed
+     * estimate.
+     */
+    private static final long MAXIMAL_RECORD_AGE = 8 * STALENESS_HALF_LIFE;
+
+    /** The time in ms between periodic saves. */
+    private static final long SAVE_INTERVAL = 60L * 1000L;
+
+    /**
+     * The largest sample count we give a prior, so that new samples still
+     * quickly correct a stored record that no longer holds.
+     */
+    private static final int MAXIMAL_PRIOR_SAMPLES = 10;
+
+    /** The log variance of an uninformed estimate. */
+    private final double uninformedLogVariance;
+
+    private final File file;
+    private final HashMap<String, StoredRecord> records = new HashMap<String, StoredRecord>();
+    private long lastSaveTime = System.currentTimeMillis();
+
+    private static class StoredRecord {
+        final long time;
+        final double logMean;
+        final double logVariance;
+        final int sampleCount;
+
+        StoredRecord(final long time, final double logMean,
+                final double logVariance, final int sampleCount) {
+            this.time = time;
+            this.logMean = logMean;
+            this.logVariance = logVariance;
+            this.sampleCount = sampleCount;
+        }
+    }
+
+    private PerformanceStore(final File file,
+            final double uninformedLogVariance) {
+        this.file = file;
+        this.uninformedLogVariance = uninformedLogVariance;
+    }
+
+    /**
+     * Returns the performance store selected by the system properties, with
+     * the records of previous runs loaded.
+     * 
+     * @param uninformedLogVariance
+     *            The log variance of an estimate without any information.
+     * @return The store, or <code>null</code> if learned performance should
+     *         not be stored.
+     */
+    static PerformanceStore open(final double uninformedLogVariance) {
+        String fnm = System.getProperty(FILE_PROPERTY);
+        if (fnm == null) {
+            fnm = System.getProperty("user.home") + File.separator
+                    + DEFAULT_FILE_NAME;
+        }
+        if (fnm.length() == 0) {
+            return null;
+        }
+        final PerformanceStore res = new PerformanceStore(new File(fnm),
+                uninformedLogVariance);
+        res.load();
+        return res;
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Globals.log.reportError("Ignoring performance file " + file
+                        + ": unknown format");
+                return;
+            }
+            final int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                final String key = in.readUTF();
+                final long time = in.readLong();
+                final double logMean = in.readDouble();
+                final double logVariance = in.readDouble();
+                final int sampleCount = in.readInt();
+                records.put(key, new StoredRecord(time, logMean, logVariance,
+                        sampleCount));
+            }
+            Globals.log.reportProgress("Loaded " + n
+                    + " performance records from " + file);
+        } catch (final IOException x) {
+            Globals.log.reportError("Cannot read performance file " + file
+                    + ": " + x.getLocalizedMessage());
+            records.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException x) {
+                    // Nothing we can do about it.
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the stored record with the given key as a prior, corrected for
+     * its age.
+     * 
+     * @param key
+     *            The key of the record.
+     * @param alpha
+     *            The decay factor of the estimator the record is for.
+     * @return The record, or <code>null</code> if there is no stored record
+     *         with this key.
+     */
+    PerformanceRecord getPrior(final String key, final double alpha) {
+        if (key == null) {
+            return null;
+        }
+        final StoredRecord r = records.get(key);
+        if (r == null) {
+            return null;
+        }
+        final long age = Math.max(0, System.currentTimeMillis() - r.time);
+        final double weight = Math.pow(0.5, (double) age
+                / STALENESS_HALF_LIFE);
+        final double logVariance = weight * r.logVariance + (1 - weight)
+                * uninformedLogVariance;
+        final int sampleCount = Math.max(1, (int) Math.round(weight
+                * Math.min(r.sampleCount, MAXIMAL_PRIOR_SAMPLES)));
+        return new PerformanceRecord(r.logMean, logVariance, sampleCount,
+                alpha);
+    }
+
+    /**
+     * Stores the current state of the given record. Records that never got a
+     * sample are not stored.
+     * 
+     * @param key
+     *            The key of the record.
+     * @param r
+     *            The record.
+     */
+    void put(final String key, final PerformanceRecord r) {
+        if (key == null || r.getSampleCount() <= 1) {
+            return;
+        }
+        records.put(key, new StoredRecord(System.currentTimeMillis(), r
+                .getLogMean(), r.getLogVariance(), r.getSampleCount()));
+    }
+
+    /**
+     * Returns true iff it is time for a periodic save.
+     * 
+     * @return <code>true</code> iff the store should be saved.
+     */
+    boolean isSaveDue() {
+        return System.currentTimeMillis() - lastSaveTime > SAVE_INTERVAL;
+    }
+
+    /**
+     * Writes all records to the file, except those that are too old to be
+     * useful, which are dropped. To avoid leaving a damaged file behind, the
+     * records are first written to a temporary file.
+     */
+    void save() {
+        lastSaveTime = System.currentTimeMillis();
+        final Iterator<StoredRecord> it = records.values().iterator();
+        while (it.hasNext()) {
+            if (lastSaveTime - it.next().time > MAXIMAL_RECORD_AGE) {
+                it.remove();
+            }
+        }
+        final File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(records.size());
+            for (final Map.Entry<String, StoredRecord> e : records.entrySet()) {
+                final StoredRecord r = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(r.time);
+                out.writeDouble(r.logMean);
+                out.writeDouble(r.logVariance);
+                out.writeInt(r.sampleCount);
+            }
+            out.close();
+            out = null;
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                Globals.log.reportError("Cannot rename " + tmp + " to "
+                        + file);
+            }
+        } catch (final IOException x) {
+            Globals.log.reportError("Cannot write performance file " + file
+                    + ": " + x.getLocalizedMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (final IOException x) {
+                    // Nothing we can do about it.
+                }
+            }
+        }
+    }
+}
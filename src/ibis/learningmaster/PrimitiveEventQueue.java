@@ -0,0 +1,166 @@
+package ibis.learningmaster;
+
+import java.util.Arrays;
+
+/**
+ * The event queue of a discrete-event simulation, without an object per
+ * event. An event consists of its time, a kind, an integer and a double
+ * value; the meaning of the last three is up to the simulation. The events
+ * are stored in parallel arrays that form a 4-ary heap on the event time. A
+ * 4-ary heap is less deep than a binary heap, and the children of a node are
+ * adjacent in memory, which makes it faster than the
+ * <code>PriorityQueue</code> of {@link EventQueue} for large queues.
+ * 
+ * To avoid returning an object, {@link #poll()} removes the earliest event
+ * and makes its fields available through {@link #getTime()},
+ * {@link #getKind()}, {@link #getIndex()} and {@link #getValue()}.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class PrimitiveEventQueue {
+    private static final int ARITY = 4;
+    private double times[];
+    private int kinds[];
+    private int indices[];
+    private double values[];
+    private int size = 0;
+
+    private double time;
+    private int kind;
+    private int index;
+    private double value;
+
+    PrimitiveEventQueue(final int initialCapacity) {
+        final int n = Math.max(ARITY, initialCapacity);
+        times = new double[n];
+        kinds = new int[n];
+        indices = new int[n];
+        values = new double[n];
+    }
+
+    PrimitiveEventQueue() {
+        this(64);
+    }
+
+    /**
+     * Adds a new event to this queue. Events are returned with the earliest
+     * event first.
+     * 
+     * @param t
+     *            The time of the event.
+     * @param k
+     *            The kind of the event.
+     * @param ix
+     *            The integer value of the event.
+     * @param v
+     *            The double value of the event.
+     */
+    void add(final double t, final int k, final int ix, final double v) {
+        assert t >= time : "Event at " + t + " is before the current time "
+                + time;
+        if (size == times.length) {
+            final int n = 2 * size;
+            times = Arrays.copyOf(times, n);
+            kinds = Arrays.copyOf(kinds, n);
+            indices = Arrays.copyOf(indices, n);
+            values = Arrays.copyOf(values, n);
+        }
+        // Sift the hole up from the end until the parent is not later.
+        int pos = size++;
+        while (pos > 0) {
+            final int parent = (pos - 1) / ARITY;
+            if (times[parent] <= t) {
+                break;
+            }
+            move(parent, pos);
+            pos = parent;
+        }
+        times[pos] = t;
+        kinds[pos] = k;
+        indices[pos] = ix;
+        values[pos] = v;
+    }
+
+    /**
+     * Removes the earliest event from this queue, and makes it the current
+     * event.
+     * 
+     * @return <code>false</code> if the queue was empty.
+     */
+    boolean poll() {
+        if (size == 0) {
+            return false;
+        }
+        time = times[0];
+        kind = kinds[0];
+        index = indices[0];
+        value = values[0];
+        size--;
+        if (size > 0) {
+            // Sift the last element down from the root.
+            final double t = times[size];
+            int pos = 0;
+            while (true) {
+                final int first = ARITY * pos + 1;
+                if (first >= size) {
+                    break;
+                }
+                final int end = Math.min(first + ARITY, size);
+                int best = first;
+                for (int c = first + 1; c < end; c++) {
+                    if (times[c] < times[best]) {
+                        best = c;
+                    }
+                }
+                if (times[best] >= t) {
+                    break;
+                }
+                move(best, pos);
+                pos = best;
+            }
+            move(size, pos);
+        }
+        return true;
+    }
+
+    private void move(final int from, final int to) {
+        times[to] = times[from];
+        kinds[to] = kinds[from];
+        indices[to] = indices[from];
+        values[to] = values[from];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Returns the time of the current event. */
+    double getTime() {
+        return time;
+    }
+
+    /** Returns the kind of the current event. */
+    int getKind() {
+        return kind;
+    }
+
+    /** Returns the integer value of the current event. */
+    int getIndex() {
+        return index;
+    }
+
+    /** Returns the double value of the current event. */
+    double getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "PrimitiveEventQueue[size=" + size + "]";
+    }
+}
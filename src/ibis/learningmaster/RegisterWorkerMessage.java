@@ -1,12 +1,18 @@
 package ibis.learningmaster;
 
 /**
- * A message sent by a proxy coordinator to a potential helper, asking it for
- * help.
+ * A message sent by a worker to the master, telling it it is ready to accept
+ * jobs.
  * 
  * @author Kees van Reeuwijk
  * 
  */
 class RegisterWorkerMessage extends SmallMessage {
     private static final long serialVersionUID = 1L;
+
+    /**
+     * The canonical host name of the worker, or <code>null</code> if it is
+     * not known.
+     */
+    final String hostname = Utils.getCanonicalHostname();
 }
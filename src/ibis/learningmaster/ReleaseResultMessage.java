@@ -0,0 +1,25 @@
+package ibis.learningmaster;
+
+/**
+ * A message from a master to a worker, telling it that it no longer needs to
+ * keep the result it retained for one of its jobs, since all jobs that need
+ * it as input have completed.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class ReleaseResultMessage extends SmallMessage {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the job that produced the result. */
+    final int resultId;
+
+    ReleaseResultMessage(final int resultId) {
+        this.resultId = resultId;
+    }
+
+    @Override
+    public String toString() {
+        return "ReleaseResultMessage[" + resultId + "]";
+    }
+}
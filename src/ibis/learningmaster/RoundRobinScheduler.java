@@ -3,14 +3,14 @@ package ibis.learningmaster;
 import ibis.ipl.IbisIdentifier;
 
 import java.io.PrintStream;
-import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.LinkedList;
 
 /**
- * Schedule jobs one by one on the available workers. Note that there is always
- * at most one outstanding job. This is not realistic, but for the purposes of
- * learning behavior it is simpler.
+ * Schedule jobs one by one on the available workers, in a fixed rotation,
+ * without regard for their speed or the number of jobs they already have.
+ * 
+ * Since it knows nothing about the execution times of jobs, it doesn't time
+ * out its requests; a job is only sent again if its worker leaves.
  * 
  * @author Kees van Reeuwijk
  * 
@@ -18,7 +18,7 @@ import java.util.LinkedList;
 class RoundRobinScheduler implements Scheduler {
     private final ArrayList<IbisIdentifier> workers = new ArrayList<IbisIdentifier>();
     private int nextWorker = 0;
-    private final LinkedList<JobInstance> jobQueue = new LinkedList<JobInstance>();
+    private final JobQueue jobQueue = new JobQueue();
 
     @Override
     public void shutdown() {
@@ -46,7 +46,8 @@ class RoundRobinScheduler implements Scheduler {
      *            The worker to add.
      */
     @Override
-    public void workerHasJoined(final IbisIdentifier worker) {
+    public void workerHasJoined(final IbisIdentifier worker,
+            final String hostname) {
         workers.add(worker);
     }
 
@@ -65,7 +66,15 @@ class RoundRobinScheduler implements Scheduler {
     }
 
     @Override
-    public boolean maintainOutstandingRequests(final Transmitter transmitter,
+    public void registerCompletedJob(final IbisIdentifier worker,
+            final JobInstance job, final double completionTime,
+            final double roundTripTime, final long resultSize) {
+        // We don't learn anything.
+    }
+
+    @Override
+    public boolean maintainOutstandingRequests(
+            final TransmitterInterface transmitter,
             final WorkerAdministration outstandingRequests) {
         if (jobQueue.isEmpty()) {
             // There are no jobs to submit.
@@ -80,22 +89,39 @@ class RoundRobinScheduler implements Scheduler {
         }
         final IbisIdentifier worker = workers.get(nextWorker);
         nextWorker++;
-        final JobInstance job = jobQueue.removeFirst();
-        final int id = outstandingRequests.addRequest(worker, job);
-        final ExecuteJobMessage rq = new ExecuteJobMessage(job.job, id,
-                job.input);
-        transmitter.addToRequestQueue(worker, rq);
+        final JobInstance job = jobQueue.poll();
+        final int id = outstandingRequests.addRequest(worker, job,
+                WorkerAdministration.NO_TIMEOUT);
+        if (id < 0) {
+            // The worker has gone in the mean time.
+            jobQueue.add(job);
+            return false;
+        }
+        job.send(transmitter, worker, id);
         return true;
     }
 
+    @Override
+    public void jobTimedOut(final IbisIdentifier worker,
+            final JobInstance job, final double elapsedTime) {
+        // Doesn't happen, since we don't time out our requests, but the
+        // next worker in the round would get it.
+        jobQueue.add(job);
+    }
+
+    @Override
+    public double estimateExecutionTime(final Job job) {
+        return 1;
+    }
+
     @Override
     public boolean thereAreRequestsToSubmit() {
         return !jobQueue.isEmpty();
     }
 
     @Override
-    public void submitRequest(final AtomicJob job, final Serializable input) {
-        jobQueue.add(new JobInstance(job, input));
+    public void submitRequest(final JobInstance job) {
+        jobQueue.add(job);
     }
 
 }
@@ -3,7 +3,6 @@ package ibis.learningmaster;
 import ibis.ipl.IbisIdentifier;
 
 import java.io.PrintStream;
-import java.io.Serializable;
 
 interface Scheduler {
     void shutdown();
@@ -12,7 +11,16 @@ interface Scheduler {
 
     void dumpState();
 
-    void workerHasJoined(IbisIdentifier source);
+    /**
+     * Registers a new worker.
+     * 
+     * @param source
+     *            The new worker.
+     * @param hostname
+     *            The canonical host name of the worker, or <code>null</code>
+     *            if it is not known.
+     */
+    void workerHasJoined(IbisIdentifier source, String hostname);
 
     void printStatistics(PrintStream printStream);
 
@@ -33,6 +41,41 @@ interface Scheduler {
      */
     void returnJob(JobInstance j);
 
+    /**
+     * Registers that the given job has not been completed by the given worker
+     * within its timeout, and returns it to the scheduler so that it can be
+     * reissued, preferably to another worker.
+     * 
+     * @param worker
+     *            The worker the job was sent to.
+     * @param job
+     *            The job that timed out.
+     * @param elapsedTime
+     *            The time in seconds since the job was sent to the worker.
+     */
+    void jobTimedOut(IbisIdentifier worker, JobInstance job,
+            double elapsedTime);
+
+    /**
+     * Registers the completion of a job on the given worker, so that the
+     * scheduler can learn from it.
+     * 
+     * @param worker
+     *            The worker that executed the job.
+     * @param job
+     *            The job that was completed.
+     * @param completionTime
+     *            The execution time of the job in seconds, as measured by the
+     *            worker.
+     * @param roundTripTime
+     *            The time in seconds between the submission of the job by the
+     *            master and the arrival of its completion message.
+     * @param resultSize
+     *            The size in bytes of the completion message with the result.
+     */
+    void registerCompletedJob(IbisIdentifier worker, JobInstance job,
+            double completionTime, double roundTripTime, long resultSize);
+
     /**
      * Returns <code>true</code> iff there are currently requests waiting for
      * submission to the workers.
@@ -41,8 +84,28 @@ interface Scheduler {
      */
     boolean thereAreRequestsToSubmit();
 
-    boolean maintainOutstandingRequests(Transmitter transmitter,
+    boolean maintainOutstandingRequests(TransmitterInterface transmitter,
             WorkerAdministration outstandingRequests);
 
-    void submitRequest(AtomicJob job, Serializable input);
+    /**
+     * Submits a job to the scheduler.
+     * 
+     * @param job
+     *            The job to schedule, together with its input, priority and
+     *            deadline.
+     */
+    void submitRequest(JobInstance job);
+
+    /**
+     * Returns the estimated execution time of the given job on an average
+     * worker, based on what the scheduler has learned so far. This should be
+     * a central estimate rather than a random draw, since it is used to order
+     * jobs. Schedulers that don't learn return 1, so that critical paths are
+     * measured in jobs.
+     * 
+     * @param job
+     *            The job to estimate.
+     * @return The estimated execution time in seconds.
+     */
+    double estimateExecutionTime(Job job);
 }
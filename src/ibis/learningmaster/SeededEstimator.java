@@ -0,0 +1,178 @@
+package ibis.learningmaster;
+
+import ibis.steel.Estimate;
+import ibis.steel.Estimator;
+import ibis.steel.GaussianEstimate;
+
+import java.util.Random;
+
+/**
+ * Estimators with the same behavior as the <code>ibis.steel</code> estimators
+ * that the simulators use, except that the random part of a likely value is
+ * drawn from a given random generator. The <code>ibis.steel</code> estimators
+ * use a shared, unseeded generator, so a simulation that uses them can not be
+ * repeated, and replications that run in parallel influence each other.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+abstract class SeededEstimator implements Estimator {
+    protected final Random rng;
+    protected double mean;
+    protected int sampleCount;
+
+    protected SeededEstimator(final Random rng, final double mean,
+            final int sampleCount) {
+        this.rng = rng;
+        this.mean = mean;
+        this.sampleCount = sampleCount;
+    }
+
+    /**
+     * Returns an estimator with the behavior of a
+     * <code>GaussianDecayingEstimator</code>: an exponentially decaying
+     * average and variance.
+     * 
+     * @param mean
+     *            The initial mean.
+     * @param variance
+     *            The initial variance.
+     * @param alpha
+     *            The weight of a new sample.
+     * @param rng
+     *            The random generator for likely values.
+     * @return The new estimator.
+     */
+    static Estimator buildDecayingEstimator(final double mean,
+            final double variance, final double alpha, final Random rng) {
+        return new Decaying(rng, mean, variance, alpha);
+    }
+
+    /**
+     * Returns an estimator with the behavior of a
+     * <code>GaussianEstimator</code>: the average and variance of all
+     * samples.
+     * 
+     * @param mean
+     *            The initial mean.
+     * @param variance
+     *            The initial variance.
+     * @param rng
+     *            The random generator for likely values.
+     * @return The new estimator.
+     */
+    static Estimator buildGaussianEstimator(final double mean,
+            final double variance, final Random rng) {
+        return new Gaussian(rng, mean, variance);
+    }
+
+    protected abstract double getVariance();
+
+    protected abstract double getLikelyError();
+
+    @Override
+    public double getLikelyValue() {
+        return mean + getLikelyError() * rng.nextGaussian();
+    }
+
+    @Override
+    public double getHighEstimate() {
+        return mean + Math.sqrt(getVariance());
+    }
+
+    @Override
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public Estimate getEstimate() {
+        return new GaussianEstimate(mean, getVariance(), sampleCount);
+    }
+
+    @Override
+    public String getStatisticsString() {
+        return String.format("mean=%.4g stdDev=%.4g likely error=%.4g"
+                + " samples=%d", mean, Math.sqrt(getVariance()),
+                getLikelyError(), sampleCount);
+    }
+
+    @Override
+    public String format() {
+        return String.format("%.4g?%.4g", mean, Math.sqrt(getVariance()));
+    }
+
+    @Override
+    public String toString() {
+        return getStatisticsString();
+    }
+
+    private static class Decaying extends SeededEstimator {
+        private final double alpha;
+        private double variance;
+
+        Decaying(final Random rng, final double mean, final double variance,
+                final double alpha) {
+            super(rng, mean, 1);
+            this.variance = variance;
+            this.alpha = alpha;
+        }
+
+        @Override
+        public void addSample(final double x) {
+            final double diff = x - mean;
+            final double incr = alpha * diff;
+            mean += incr;
+            variance = (1 - alpha) * (variance + diff * incr);
+            sampleCount++;
+        }
+
+        @Override
+        protected double getVariance() {
+            return variance;
+        }
+
+        @Override
+        protected double getLikelyError() {
+            return Math.sqrt(variance) / (1 - alpha);
+        }
+
+        @Override
+        public String getName() {
+            return "exponential-decay";
+        }
+    }
+
+    private static class Gaussian extends SeededEstimator {
+        private double S;
+
+        Gaussian(final Random rng, final double mean, final double variance) {
+            super(rng, mean, 1);
+            this.S = variance;
+        }
+
+        @Override
+        public void addSample(final double x) {
+            sampleCount++;
+            final double oldMean = mean;
+            mean += (x - mean) / sampleCount;
+            S += (x - oldMean) * (x - mean);
+        }
+
+        @Override
+        protected double getVariance() {
+            return S / sampleCount;
+        }
+
+        @Override
+        protected double getLikelyError() {
+            return Math.sqrt(getVariance()) + 0.1 * mean
+                    / Math.sqrt(sampleCount);
+        }
+
+        @Override
+        public String getName() {
+            return "gaussian";
+        }
+    }
+}
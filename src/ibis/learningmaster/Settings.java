@@ -39,6 +39,9 @@ class Settings {
 
     static final int MAXIMAL_ENGINE_SLEEP_INTERVAL = 2000;
 
+    /** The smallest time in seconds after which a job is considered lost. */
+    static final double MINIMAL_JOB_TIMEOUT = 10;
+
     static final int JOB_COUNT = 200;
 
     // 5 seconds
@@ -0,0 +1,1185 @@
+package ibis.learningmaster;
+
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.impl.Location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * A discrete-event simulation of a master with many workers that runs the
+ * real scheduler of the master, as selected by the
+ * <code>learningmaster.scheduler</code> system property, together with the
+ * real worker and job administration of the master. Only the network and
+ * the workers are simulated, and all time is virtual: the simulation is the
+ * {@link Clock} of the worker administration, the
+ * {@link TransmitterInterface} the scheduler sends its requests with, and the
+ * {@link TransferTimeModel} it gets its transfer time estimates from.
+ * 
+ * Every worker executes its jobs one at a time, in order of arrival. A
+ * worker has a fixed slowdown factor, and the execution time of each job is
+ * drawn from a clamped Gaussian distribution around the nominal work time of
+ * its type. The transfer time of a message is a fixed latency plus its size
+ * divided by a fixed bandwidth, both depending on whether the worker is on
+ * the site of the master. Forwarding of results between workers is not
+ * simulated.
+ * 
+ * Instead of synthetic workers and jobs, the simulation can also replay a
+ * {@link JobTrace} of a production run: the traced jobs are submitted at
+ * their traced times to the traced workers, and the execution times are
+ * replayed from the trace.
+ * 
+ * A run is reproducible from the seed of its random generator for the
+ * round-robin and bandit schedulers. The estimators of the learning
+ * schedulers draw their likely values from the global generator of
+ * <code>ibis.steel</code>, which cannot be seeded, so for these schedulers
+ * only the workload is reproducible.
+ * 
+ * A {@link ChurnScenario} lets workers fail, leave and join during the run.
+ * A failed worker loses its queue and running job; after a detection delay
+ * the master is told that it has died, and returns its outstanding requests
+ * to the scheduler, just as the engine does. A repaired worker joins as a new
+ * incarnation, with a new identifier but on the same host. To see how well a
+ * scheduler adapts, the simulation measures for every outage and slowdown
+ * how long it takes before the share of the jobs that is sent to the
+ * affected workers matches their share of the capacity again.
+ * 
+ * To compare the selected scheduler with another one, for example the
+ * learning scheduler with the round-robin scheduler, the same workload can
+ * be run with both on the same pool of workers, and their makespans and
+ * throughputs are reported side by side.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class SimulatedEngine implements TransmitterInterface, TransferTimeModel,
+        Clock {
+    private static final int REQUEST_ARRIVED = 0;
+    private static final int JOB_FINISHED = 1;
+    private static final int COMPLETION_ARRIVED = 2;
+    private static final int CANCEL_ARRIVED = 3;
+    private static final int MASTER_TICK = 4;
+    private static final int JOB_SUBMITTED = 5;
+    private static final int WORKER_FAILED = 6;
+    private static final int WORKER_DECLARED_DEAD = 7;
+    private static final int WORKER_REPAIRED = 8;
+    private static final int OUTAGE_STARTED = 9;
+    private static final int OUTAGE_ENDED = 10;
+    private static final int SLOWDOWN_STARTED = 11;
+
+    /**
+     * The time in seconds between the failure of a worker and the moment the
+     * master is told it has died.
+     */
+    private static final double DETECTION_DELAY = 5;
+
+    /**
+     * The length in seconds of the windows in which the share of the jobs
+     * sent to the affected workers of a disturbance is measured.
+     */
+    private static final double CONVERGENCE_WINDOW = 10;
+
+    /**
+     * The relative difference between the share of the jobs and the share of
+     * the capacity of the affected workers at which the scheduler is
+     * considered to have adapted.
+     */
+    private static final double CONVERGENCE_TOLERANCE = 0.2;
+
+    /**
+     * The minimal number of jobs that must be sent in a window for it to
+     * count.
+     */
+    private static final int CONVERGENCE_MINIMAL_JOBS = 20;
+
+    /**
+     * The fraction of the jobs that must be completed to measure the
+     * throughput. The last jobs are left out, since the makespan depends
+     * mostly on the luck of the draw of the very last ones.
+     */
+    private static final double THROUGHPUT_FRACTION = 0.9;
+
+    /**
+     * The interval in seconds between the moments the master checks for
+     * timeouts and stragglers when nothing else happens.
+     */
+    private static final double TICK_INTERVAL = 0.1;
+
+    private static final int SITES = 4;
+    private static final String SYNTHETIC_MASTER_SITE = "site0";
+
+    /** The fraction of the workers that is much slower than the others. */
+    private static final double STRAGGLER_FRACTION = 0.05;
+    private static final double STRAGGLER_SLOWDOWN = 10;
+
+    private final PrimitiveEventQueue q = new PrimitiveEventQueue();
+    private double now = 0;
+    private final Random rng;
+    private final String masterSite;
+
+    /** The trace that is replayed, or <code>null</code>. */
+    private final JobTrace trace;
+    private final JobTrace.Replay replay;
+
+    /** The number of workers at the start of the simulation. */
+    private final int hostCount;
+
+    /** The number of traced jobs that still have to be submitted. */
+    private int unsubmittedJobs = 0;
+    private final WorkerAdministration workerAdministration = new WorkerAdministration(
+            this);
+    private final Scheduler scheduler;
+    private final JobAdministration jobAdministration;
+
+    /** All workers, including failed ones, indexed by their index. */
+    private final ArrayList<SimulatedWorker> workers = new ArrayList<SimulatedWorker>();
+    private final HashMap<IbisIdentifier, SimulatedWorker> workerMap = new HashMap<IbisIdentifier, SimulatedWorker>();
+    private final HashMap<Integer, ExecuteJobMessage> requestsInTransit = new HashMap<Integer, ExecuteJobMessage>();
+    private final HashMap<Integer, JobCompletedMessage> completionsInTransit = new HashMap<Integer, JobCompletedMessage>();
+    private boolean done = false;
+    private int droppedJobs = 0;
+    private int interruptedJobs = 0;
+
+    /** The churn scenario, or <code>null</code>. */
+    private ChurnScenario churn = null;
+    private int failures = 0;
+    private int lostJobs = 0;
+    private double lostWorkTime = 0;
+    private final ArrayList<ConvergenceWatch> watches = new ArrayList<ConvergenceWatch>();
+    private int submittedJobCount = 0;
+
+    /**
+     * The moment the given fraction of the jobs had been completed, or -1 if
+     * that hasn't happened yet.
+     */
+    private double throughputTime = -1;
+
+    /**
+     * For every ongoing outage, the workers that should join again when it
+     * is over.
+     */
+    private final HashMap<Integer, ArrayList<SimulatedWorker>> outageVictims = new HashMap<Integer, ArrayList<SimulatedWorker>>();
+
+    /** For every site with an ongoing outage, the index of the outage. */
+    private final HashMap<String, Integer> siteOutages = new HashMap<String, Integer>();
+
+    /**
+     * A simulated job. Its execution time on a worker with slowdown 1 is
+     * drawn from a clamped Gaussian distribution with the given mean and
+     * standard deviation, or, for a traced job, replayed from the trace.
+     * 
+     * @author Kees van Reeuwijk
+     * 
+     */
+    static class SimulatedJob implements AtomicJob, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final SimulatedJobType type;
+        final double workTime;
+        final double stdDev;
+        final long inputBytes;
+        final long resultBytes;
+
+        /** The index of the job in the trace, or <code>-1</code>. */
+        final int traceIndex;
+
+        private SimulatedJob(final String name, final double workTime,
+                final double stdDev, final long inputBytes,
+                final long resultBytes, final int traceIndex) {
+            this.type = new SimulatedJobType(name);
+            this.workTime = workTime;
+            this.stdDev = stdDev;
+            this.inputBytes = inputBytes;
+            this.resultBytes = resultBytes;
+            this.traceIndex = traceIndex;
+        }
+
+        SimulatedJob(final String name, final double workTime,
+                final double stdDev, final long inputBytes,
+                final long resultBytes) {
+            this(name, workTime, stdDev, inputBytes, resultBytes, -1);
+        }
+
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+
+        @Override
+        public JobType getJobType() {
+            return type;
+        }
+
+        /**
+         * Simulated jobs are never really executed.
+         * 
+         * @param input
+         *            The input of the job.
+         * @return Nothing.
+         * @throws JobFailedException
+         *             Always thrown.
+         */
+        @Override
+        public Serializable run(final Serializable input)
+                throws JobFailedException {
+            throw new JobFailedException("Cannot execute simulated job "
+                    + type);
+        }
+
+        @Override
+        public String toString() {
+            return type.toString();
+        }
+    }
+
+    /**
+     * The input of a simulated job. Only its size matters, so it is
+     * serialized as the given number of zero bytes.
+     */
+    private static class SimulatedInput implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final byte ZEROES[] = new byte[8192];
+        private final long size;
+
+        SimulatedInput(final long size) {
+            this.size = size;
+        }
+
+        private void writeObject(final ObjectOutputStream out)
+                throws IOException {
+            long n = size;
+            while (n > 0) {
+                final int k = (int) Math.min(n, ZEROES.length);
+                out.write(ZEROES, 0, k);
+                n -= k;
+            }
+        }
+    }
+
+    private static class SimulatedJobType extends JobType {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+
+        SimulatedJobType(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(final Object oth) {
+            if (!(oth instanceof SimulatedJobType)) {
+                return false;
+            }
+            return name.equals(((SimulatedJobType) oth).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "SimulatedJobType[" + name + "]";
+        }
+    }
+
+    /**
+     * The state of a simulated worker.
+     * 
+     * @author Kees van Reeuwijk
+     * 
+     */
+    private class SimulatedWorker {
+        final IbisIdentifier identifier;
+        final int index;
+
+        /**
+         * The index of the host of this worker; for a traced worker the index
+         * of the worker in the trace.
+         */
+        final int host;
+        final String baseName;
+        final String site;
+
+        /** The number of times this worker has joined before. */
+        final int incarnation;
+        double slowdown;
+        final boolean local;
+        private boolean alive = true;
+        private final double joinTime;
+        private double leaveTime = -1;
+        private final ArrayDeque<ExecuteJobMessage> queue = new ArrayDeque<ExecuteJobMessage>();
+
+        /** Cancelled jobs that haven't arrived yet. */
+        private final HashSet<Integer> cancelled = new HashSet<Integer>();
+        private ExecuteJobMessage running = null;
+        private double startTime;
+
+        /**
+         * Incremented every time the running job ends, so that the finish
+         * event of an interrupted job can be recognized.
+         */
+        private int generation = 0;
+        private double busyTime = 0;
+
+        @SuppressWarnings("synthetic-access")
+        SimulatedWorker(final int index, final int host, final String name,
+                final String site, final double slowdown,
+                final int incarnation) {
+            this.index = index;
+            this.host = host;
+            this.baseName = name;
+            this.site = site;
+            this.slowdown = slowdown;
+            this.incarnation = incarnation;
+            this.local = site.equals(masterSite);
+            joinTime = now;
+            final Location location = new Location(new String[] {
+                    "host" + host, site });
+            final String fullName = incarnation == 0 ? name : name + "."
+                    + incarnation;
+            identifier = new ibis.ipl.impl.IbisIdentifier(fullName,
+                    new byte[0], new byte[0], location, "simulation",
+                    new byte[0]);
+        }
+
+        /**
+         * Returns a new incarnation of this worker, on the same host.
+         */
+        @SuppressWarnings("synthetic-access")
+        SimulatedWorker buildRepairedWorker() {
+            return new SimulatedWorker(workers.size(), host, baseName, site,
+                    slowdown, incarnation + 1);
+        }
+
+        boolean isAlive() {
+            return alive;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        double getAliveTime() {
+            return (alive ? now : leaveTime) - joinTime;
+        }
+
+        /**
+         * Lets this worker fail: its queue and running job are lost, and the
+         * master is told about it after the detection delay.
+         */
+        @SuppressWarnings("synthetic-access")
+        void fail() {
+            if (!alive) {
+                return;
+            }
+            alive = false;
+            leaveTime = now;
+            failures++;
+            if (running != null) {
+                final double t = now - startTime;
+                busyTime += t;
+                lostWorkTime += t;
+                lostJobs++;
+                running = null;
+            }
+            lostJobs += queue.size();
+            queue.clear();
+            cancelled.clear();
+            generation++;
+            q.add(now + DETECTION_DELAY, WORKER_DECLARED_DEAD, index, 0);
+        }
+
+        @SuppressWarnings("synthetic-access")
+        void receiveRequest(final ExecuteJobMessage msg) {
+            if (!alive) {
+                // Lost; the master returns it to the scheduler once it
+                // learns that this worker has died.
+                lostJobs++;
+                return;
+            }
+            if (cancelled.remove(msg.id)) {
+                droppedJobs++;
+                return;
+            }
+            queue.add(msg);
+            if (running == null) {
+                startNextJob();
+            }
+        }
+
+        @SuppressWarnings("synthetic-access")
+        private void startNextJob() {
+            final ExecuteJobMessage msg = queue.poll();
+            if (msg == null) {
+                return;
+            }
+            final SimulatedJob job = (SimulatedJob) msg.job;
+            final double duration;
+            if (job.traceIndex >= 0) {
+                duration = slowdown
+                        * replay.getExecutionTime(job.traceIndex, host);
+            } else {
+                duration = slowdown
+                        * Math.max(0, job.workTime + job.stdDev
+                                * rng.nextGaussian());
+            }
+            running = msg;
+            startTime = now;
+            q.add(now + duration, JOB_FINISHED, index, generation);
+        }
+
+        @SuppressWarnings("synthetic-access")
+        void finishJob(final int gen) {
+            if (gen == generation) {
+                endRunningJob(false);
+            }
+        }
+
+        @SuppressWarnings("synthetic-access")
+        private void endRunningJob(final boolean failed) {
+            final SimulatedJob job = (SimulatedJob) running.job;
+            final double executionTime = now - startTime;
+            final JobCompletedMessage msg = new JobCompletedMessage(
+                    running.id, null, failed, executionTime);
+            msg.source = identifier;
+            msg.receivedBytes = failed ? 0 : job.resultBytes;
+            busyTime += executionTime;
+            completionsInTransit.put(running.id, msg);
+            q.add(now + getTransferTime(this, msg.receivedBytes),
+                    COMPLETION_ARRIVED, index, running.id);
+            running = null;
+            generation++;
+            startNextJob();
+        }
+
+        @SuppressWarnings("synthetic-access")
+        void cancelJob(final int id) {
+            if (!alive) {
+                return;
+            }
+            if (running != null && running.id == id) {
+                interruptedJobs++;
+                endRunningJob(true);
+                return;
+            }
+            final Iterator<ExecuteJobMessage> it = queue.iterator();
+            while (it.hasNext()) {
+                if (it.next().id == id) {
+                    it.remove();
+                    droppedJobs++;
+                    return;
+                }
+            }
+            // Either the request is still on its way, or the job has already
+            // been completed. In the latter case this entry is never used.
+            cancelled.add(id);
+        }
+    }
+
+    /**
+     * Measures how long it takes the scheduler to adapt to a disturbance, by
+     * comparing, in consecutive windows, the share of the jobs that is sent
+     * to the affected workers with their share of the capacity of all
+     * workers.
+     */
+    private class ConvergenceWatch {
+        private final String label;
+        private final double startTime;
+        private final HashSet<SimulatedWorker> affected;
+        private double windowStart;
+        private int windowJobs = 0;
+        private int affectedJobs = 0;
+
+        /** The time it took to adapt, or -1 if that hasn't happened yet. */
+        private double convergenceTime = -1;
+
+        @SuppressWarnings("synthetic-access")
+        ConvergenceWatch(final String label,
+                final ArrayList<SimulatedWorker> affected) {
+            this.label = label;
+            this.affected = new HashSet<SimulatedWorker>(affected);
+            startTime = now;
+            windowStart = now;
+        }
+
+        void registerJob(final SimulatedWorker w) {
+            if (convergenceTime < 0) {
+                windowJobs++;
+                if (affected.contains(w)) {
+                    affectedJobs++;
+                }
+            }
+        }
+
+        /**
+         * Returns the share of the affected workers in the capacity of the
+         * workers that are alive. The capacity of a worker is the inverse of
+         * its slowdown.
+         */
+        @SuppressWarnings("synthetic-access")
+        private double getCapacityShare() {
+            double total = 0;
+            double part = 0;
+            for (final SimulatedWorker w : workers) {
+                if (w.isAlive()) {
+                    final double c = 1 / w.slowdown;
+                    total += c;
+                    if (affected.contains(w)) {
+                        part += c;
+                    }
+                }
+            }
+            return total > 0 ? part / total : 0;
+        }
+
+        /**
+         * Closes the current window if it is over, and determines whether the
+         * scheduler has adapted in it.
+         */
+        @SuppressWarnings("synthetic-access")
+        void update() {
+            if (convergenceTime >= 0
+                    || now < windowStart + CONVERGENCE_WINDOW) {
+                return;
+            }
+            if (windowJobs >= CONVERGENCE_MINIMAL_JOBS) {
+                final double share = (double) affectedJobs / windowJobs;
+                final double capacity = getCapacityShare();
+                if (Math.abs(share - capacity) <= CONVERGENCE_TOLERANCE
+                        * capacity) {
+                    convergenceTime = now - startTime;
+                }
+            }
+            windowStart = now;
+            windowJobs = 0;
+            affectedJobs = 0;
+        }
+
+        @Override
+        public String toString() {
+            if (convergenceTime < 0) {
+                return label + ": not adapted before the end of the run";
+            }
+            return label + ": adapted after "
+                    + Utils.formatSeconds(convergenceTime);
+        }
+    }
+
+    private SimulatedEngine(final String masterSite, final JobTrace trace,
+            final int workerCount, final String schedulerName,
+            final Random rng, final File traceFile) {
+        this.masterSite = masterSite;
+        this.trace = trace;
+        this.rng = rng;
+        hostCount = workerCount;
+        replay = trace == null ? null : trace.new Replay();
+        // Give the scheduler its own stream, so that its draws don't shift
+        // those of the workload.
+        scheduler = MawEngine.createMasterScheduler(schedulerName, this,
+                masterSite, false, new FastRandom(rng.nextLong()));
+        jobAdministration = new JobAdministration(workerAdministration,
+                scheduler, this, JobTraceWriter.open(traceFile, this,
+                        masterSite));
+    }
+
+    /**
+     * Constructs a new simulation with the given number of synthetic workers.
+     * 
+     * @param workerCount
+     *            The number of workers.
+     * @param schedulerName
+     *            The name of the scheduler of the master.
+     * @param rng
+     *            The random generator of the simulation.
+     * @param traceFile
+     *            The file to write a trace of the completed jobs to, or
+     *            <code>null</code>.
+     */
+    SimulatedEngine(final int workerCount, final String schedulerName,
+            final Random rng, final File traceFile) {
+        this(SYNTHETIC_MASTER_SITE, null, workerCount, schedulerName, rng,
+                traceFile);
+        for (int i = 0; i < workerCount; i++) {
+            final double slowdown;
+            if (rng.nextDouble() < STRAGGLER_FRACTION) {
+                slowdown = STRAGGLER_SLOWDOWN;
+            } else {
+                slowdown = 0.5 + rng.nextDouble();
+            }
+            addWorker(new SimulatedWorker(i, i, Integer.toString(i), "site"
+                    + (i % SITES), slowdown, 0));
+        }
+    }
+
+    /**
+     * Constructs a new simulation that replays the given trace.
+     * 
+     * @param trace
+     *            The trace to replay.
+     * @param schedulerName
+     *            The name of the scheduler of the master.
+     * @param rng
+     *            The random generator of the simulation.
+     * @param traceFile
+     *            The file to write a trace of the completed jobs to, or
+     *            <code>null</code>.
+     */
+    SimulatedEngine(final JobTrace trace, final String schedulerName,
+            final Random rng, final File traceFile) {
+        this(trace.masterSite, trace, trace.getWorkerCount(), schedulerName,
+                rng, traceFile);
+        for (int i = 0; i < trace.getWorkerCount(); i++) {
+            addWorker(new SimulatedWorker(i, i, trace.workerNames[i],
+                    trace.workerSites[i], 1, 0));
+        }
+    }
+
+    private void addWorker(final SimulatedWorker w) {
+        workers.add(w);
+        workerMap.put(w.identifier, w);
+        workerAdministration.addWorker(w.identifier);
+        scheduler.workerHasJoined(w.identifier, "host" + w.host);
+        scheduleFailure(w);
+    }
+
+    /**
+     * Sets the churn scenario of this simulation. Must be called before the
+     * simulation is run.
+     * 
+     * @param churn
+     *            The scenario.
+     */
+    void setChurnScenario(final ChurnScenario churn) {
+        this.churn = churn;
+        for (final SimulatedWorker w : workers) {
+            scheduleFailure(w);
+        }
+        for (int i = 0; i < churn.outages.size(); i++) {
+            q.add(churn.outages.get(i).startTime, OUTAGE_STARTED, 0, i);
+        }
+        for (int i = 0; i < churn.slowdowns.size(); i++) {
+            q.add(churn.slowdowns.get(i).startTime, SLOWDOWN_STARTED, 0, i);
+        }
+    }
+
+    /**
+     * Draws an exponentially distributed value with the given mean.
+     */
+    private double drawExponential(final double mean) {
+        return -mean * Math.log(1 - rng.nextDouble());
+    }
+
+    private void scheduleFailure(final SimulatedWorker w) {
+        if (churn != null && churn.hasFailures()) {
+            q.add(now + drawExponential(churn.meanTimeBetweenFailures),
+                    WORKER_FAILED, w.index, 0);
+        }
+    }
+
+    /**
+     * Tells the master that the given worker has died, just as the engine
+     * does when the registry reports it.
+     */
+    private void declareDead(final SimulatedWorker w) {
+        workerAdministration.removeWorker(w.identifier, scheduler);
+        scheduler.removeNode(w.identifier);
+    }
+
+    private void startOutage(final int ix) {
+        final ChurnScenario.Outage outage = churn.outages.get(ix);
+        final ArrayList<SimulatedWorker> l = new ArrayList<SimulatedWorker>();
+        for (final SimulatedWorker w : workers) {
+            if (w.isAlive() && w.site.equals(outage.site)) {
+                w.fail();
+                l.add(w);
+            }
+        }
+        outageVictims.put(ix, l);
+        siteOutages.put(outage.site, ix);
+        q.add(now + outage.duration, OUTAGE_ENDED, 0, ix);
+    }
+
+    /**
+     * Lets new incarnations of the workers of the given outage join, and
+     * starts to watch how the scheduler adapts to them.
+     */
+    private void endOutage(final int ix) {
+        final ArrayList<SimulatedWorker> l = new ArrayList<SimulatedWorker>();
+        siteOutages.remove(churn.outages.get(ix).site);
+        for (final SimulatedWorker w : outageVictims.remove(ix)) {
+            final SimulatedWorker nw = w.buildRepairedWorker();
+            addWorker(nw);
+            l.add(nw);
+        }
+        watches.add(new ConvergenceWatch("end of "
+                + churn.outages.get(ix), l));
+    }
+
+    private void startSlowdown(final ChurnScenario.Slowdown slowdown) {
+        final ArrayList<SimulatedWorker> l = new ArrayList<SimulatedWorker>();
+        for (final SimulatedWorker w : workers) {
+            if (w.isAlive() && rng.nextDouble() < slowdown.fraction) {
+                w.slowdown *= slowdown.factor;
+                l.add(w);
+            }
+        }
+        watches.add(new ConvergenceWatch(slowdown.toString(), l));
+    }
+
+    @Override
+    public long nanoTime() {
+        return Math.round(1e9 * now);
+    }
+
+    private static double getTransferTime(final SimulatedWorker w,
+            final long bytes) {
+        if (w.local) {
+            return NetworkModel.LOCAL_LATENCY + bytes
+                    / NetworkModel.LOCAL_BANDWIDTH;
+        }
+        return NetworkModel.REMOTE_LATENCY + bytes
+                / NetworkModel.REMOTE_BANDWIDTH;
+    }
+
+    /**
+     * Returns the transfer time of a message of the given size to the given
+     * worker. Since the network is simulated, this is not an estimate but the
+     * exact time.
+     * 
+     * @param destination
+     *            The worker to send to.
+     * @param bytes
+     *            The size of the message in bytes.
+     * @return The transfer time in seconds.
+     */
+    @Override
+    public double estimateTransferTime(final IbisIdentifier destination,
+            final long bytes) {
+        return getTransferTime(workerMap.get(destination), bytes);
+    }
+
+    @Override
+    public void addToRequestQueue(final IbisIdentifier destination,
+            final SmallMessage msg) {
+        final SimulatedWorker w = workerMap.get(destination);
+        if (msg instanceof ExecuteJobMessage) {
+            final ExecuteJobMessage rq = (ExecuteJobMessage) msg;
+            if (rq.retainCount > 0 || rq.forwardedInputs > 0) {
+                Globals.log.reportInternalError("Forwarding of results is "
+                        + "not simulated; dropping " + rq);
+                return;
+            }
+            final SimulatedJob job = (SimulatedJob) rq.job;
+            for (final ConvergenceWatch watch : watches) {
+                watch.registerJob(w);
+            }
+            requestsInTransit.put(rq.id, rq);
+            q.add(now + getTransferTime(w, job.inputBytes), REQUEST_ARRIVED,
+                    w.index, rq.id);
+        } else if (msg instanceof CancelJobMessage) {
+            q.add(now + getTransferTime(w, 0), CANCEL_ARRIVED, w.index,
+                    ((CancelJobMessage) msg).id);
+        } else {
+            Globals.log.reportInternalError("Cannot simulate a "
+                    + msg.getClass() + " message");
+        }
+    }
+
+    @Override
+    public void addToDataQueue(final IbisIdentifier destination,
+            final Message msg) {
+        Globals.log.reportInternalError("Cannot simulate a " + msg.getClass()
+                + " message");
+    }
+
+    @Override
+    public void addToBookkeepingQueue(final IbisIdentifier destination,
+            final Message msg) {
+        Globals.log.reportInternalError("Cannot simulate a " + msg.getClass()
+                + " message");
+    }
+
+    /**
+     * Lets the master do its chores until there is nothing left to do, just
+     * like the main loop of the engine does.
+     */
+    private void runMaster() {
+        boolean progress;
+        do {
+            final boolean progressReissue = jobAdministration
+                    .reissueExpiredRequests();
+            final boolean progressRequests = scheduler
+                    .maintainOutstandingRequests(this, workerAdministration);
+            progress = progressReissue || progressRequests;
+        } while (progress);
+        done = unsubmittedJobs == 0 && workerAdministration.isEmpty()
+                && !scheduler.thereAreRequestsToSubmit();
+    }
+
+    private void handleEvent() {
+        final int kind = q.getKind();
+        final SimulatedWorker w = workers.get(q.getIndex());
+        final int value = (int) q.getValue();
+        switch (kind) {
+        case REQUEST_ARRIVED:
+            w.receiveRequest(requestsInTransit.remove(value));
+            break;
+
+        case JOB_FINISHED:
+            w.finishJob(value);
+            break;
+
+        case COMPLETION_ARRIVED: {
+            final JobCompletedMessage msg = completionsInTransit.remove(value);
+            msg.arrivalTime = nanoTime();
+            jobAdministration.handleJobCompleted(msg);
+            final int completed = jobAdministration.getCompletedJobCount();
+            if (throughputTime < 0
+                    && completed >= THROUGHPUT_FRACTION * submittedJobCount) {
+                throughputTime = now;
+            }
+            break;
+        }
+
+        case CANCEL_ARRIVED:
+            w.cancelJob(value);
+            break;
+
+        case MASTER_TICK:
+            break;
+
+        case JOB_SUBMITTED:
+            submitTracedJob(value);
+            break;
+
+        case WORKER_FAILED:
+            // The worker may already have failed in an outage.
+            if (w.isAlive()) {
+                w.fail();
+                q.add(now + drawExponential(churn.meanTimeToRepair),
+                        WORKER_REPAIRED, w.index, 0);
+            }
+            break;
+
+        case WORKER_DECLARED_DEAD:
+            declareDead(w);
+            break;
+
+        case WORKER_REPAIRED: {
+            final Integer outage = siteOutages.get(w.site);
+            if (outage != null) {
+                // Its site is down; it joins when the outage is over.
+                outageVictims.get(outage).add(w);
+            } else {
+                addWorker(w.buildRepairedWorker());
+            }
+            break;
+        }
+
+        case OUTAGE_STARTED:
+            startOutage(value);
+            break;
+
+        case OUTAGE_ENDED:
+            endOutage(value);
+            break;
+
+        case SLOWDOWN_STARTED:
+            startSlowdown(churn.slowdowns.get(value));
+            break;
+
+        default:
+            Globals.log.reportInternalError("Unknown event kind " + kind);
+        }
+    }
+
+    private static JobInstance buildJobInstance(final SimulatedJob job) {
+        return new JobInstance(job, job.inputBytes > 0 ? new SimulatedInput(
+                job.inputBytes) : null);
+    }
+
+    private void submitTracedJob(final int i) {
+        final JobTrace.TracedJob tj = trace.jobs[i];
+        final SimulatedJob job = new SimulatedJob(
+                trace.jobTypeNames[tj.jobType], tj.completionTime, 0,
+                tj.inputSize, tj.resultSize, i);
+        jobAdministration.submit(buildJobInstance(job));
+        unsubmittedJobs--;
+    }
+
+    /**
+     * Submits the given number of jobs at the start of the simulation, and
+     * runs the simulation until all of them have been completed.
+     * 
+     * @param jobs
+     *            The kinds of job to submit, in rotation.
+     * @param jobCount
+     *            The number of jobs to submit.
+     * @return The makespan in seconds.
+     */
+    double run(final SimulatedJob jobs[], final int jobCount) {
+        for (int i = 0; i < jobCount; i++) {
+            jobAdministration.submit(buildJobInstance(jobs[i % jobs.length]));
+        }
+        submittedJobCount = jobCount;
+        return runEvents();
+    }
+
+    /**
+     * Submits the jobs of the trace at their traced submission times, and
+     * runs the simulation until all of them have been completed.
+     * 
+     * @return The makespan in seconds.
+     */
+    double replay() {
+        for (int i = 0; i < trace.jobs.length; i++) {
+            q.add(trace.jobs[i].submitTime, JOB_SUBMITTED, 0, i);
+        }
+        unsubmittedJobs = trace.jobs.length;
+        submittedJobCount = trace.jobs.length;
+        return runEvents();
+    }
+
+    private double runEvents() {
+        runMaster();
+        q.add(TICK_INTERVAL, MASTER_TICK, 0, 0);
+        while (!done) {
+            if (!q.poll()) {
+                Globals.log.reportInternalError("Simulation stalled at "
+                        + Utils.formatSeconds(now) + " with work left");
+                break;
+            }
+            now = q.getTime();
+            final boolean tick = q.getKind() == MASTER_TICK;
+            handleEvent();
+            runMaster();
+            if (tick && (!q.isEmpty() || !workerAdministration.isEmpty())) {
+                // Only keep ticking while something can still happen, so
+                // that a scheduler that holds on to its jobs stalls the
+                // simulation instead of letting it tick forever.
+                q.add(now + TICK_INTERVAL, MASTER_TICK, 0, 0);
+            }
+            for (final ConvergenceWatch watch : watches) {
+                watch.update();
+            }
+        }
+        jobAdministration.close();
+        return now;
+    }
+
+    void printStatistics(final PrintStream s) {
+        double busyTime = 0;
+        double aliveTime = 0;
+        for (final SimulatedWorker w : workers) {
+            busyTime += w.busyTime;
+            aliveTime += w.getAliveTime();
+        }
+        s.println("makespan " + Utils.formatSeconds(now) + " with "
+                + hostCount + " workers; utilization "
+                + Math.round(100 * busyTime / aliveTime) + "%");
+        if (churn != null) {
+            s.println("churn: " + churn);
+            s.println(failures + " worker failures; lost " + lostJobs
+                    + " jobs and " + Utils.formatSeconds(lostWorkTime)
+                    + " of work");
+            for (final ConvergenceWatch watch : watches) {
+                s.println(watch);
+            }
+        }
+        if (droppedJobs + interruptedJobs > 0) {
+            s.println("cancelled by the master: dropped " + droppedJobs
+                    + " waiting jobs, interrupted " + interruptedJobs
+                    + " running jobs");
+        }
+        jobAdministration.printStatistics(s);
+        scheduler.printStatistics(s);
+    }
+
+    private static SimulatedEngine buildEngine(final JobTrace trace,
+            final int workerCount, final String schedulerName,
+            final Random rng, final File traceFile) {
+        if (trace != null) {
+            return new SimulatedEngine(trace, schedulerName, rng, traceFile);
+        }
+        return new SimulatedEngine(workerCount, schedulerName, rng, traceFile);
+    }
+
+    /**
+     * Returns the number of jobs per second this simulation completed until
+     * the throughput fraction of its jobs was completed.
+     */
+    private double getThroughput() {
+        return THROUGHPUT_FRACTION * submittedJobCount / throughputTime;
+    }
+
+    /**
+     * Prints how this simulation compares to the given simulation of the same
+     * workload with another scheduler.
+     * 
+     * @param s
+     *            The stream to print to.
+     * @param referenceName
+     *            The name of the scheduler of the reference simulation.
+     * @param reference
+     *            The reference simulation.
+     */
+    private void printComparison(final PrintStream s,
+            final String referenceName, final SimulatedEngine reference) {
+        s.println("makespan " + Utils.formatSeconds(now) + ", with "
+                + referenceName + " " + Utils.formatSeconds(reference.now)
+                + "; makespan reduced "
+                + Math.round(100 * (1 - now / reference.now)) + "%");
+        s.println(Math.round(100 * THROUGHPUT_FRACTION)
+                + "% of the jobs completed after "
+                + Utils.formatSeconds(throughputTime) + ", with "
+                + referenceName + " "
+                + Utils.formatSeconds(reference.throughputTime)
+                + "; throughput gained "
+                + Math.round(100 * (getThroughput()
+                        / reference.getThroughput() - 1)) + "%");
+    }
+
+    private void runEngine(final int jobCount) {
+        if (trace != null) {
+            replay();
+        } else {
+            final SimulatedJob jobs[] = {
+                    new SimulatedJob("short", 1, 0.2, 1000, 1000),
+                    new SimulatedJob("long", 10, 2, 1000, 1000),
+                    new SimulatedJob("data", 2, 0.4, 10000000, 100000) };
+            run(jobs, jobCount);
+        }
+    }
+
+    /**
+     * Runs a simulation.
+     * 
+     * @param args
+     *            The command-line arguments: optionally the options of a
+     *            {@link ChurnScenario}, optionally <code>--compare</code> and
+     *            the name of a scheduler to compare with, optionally
+     *            <code>--record</code> and the name of a file to write a
+     *            trace of the simulated run to, followed by either <code>--trace</code> and the name of a
+     *            trace file to replay, or optionally the number of workers and
+     *            the number of jobs. With a churn scenario the simulation is
+     *            also run without it, with the same seed, to determine the
+     *            throughput that is lost; that run writes its trace to the
+     *            given file name with <code>.baseline</code> appended. To
+     *            compare with another scheduler, the simulation is also run
+     *            with that scheduler, with the same seed and churn scenario;
+     *            that run writes its trace to the given file name with the
+     *            name of the scheduler appended. For the learning schedulers
+     *            only the workload is the same in these runs; see the class
+     *            comment.
+     */
+    public static void main(final String args[]) {
+        final int next[] = new int[1];
+        final ChurnScenario churn;
+        try {
+            churn = ChurnScenario.parse(args, 0, next);
+        } catch (final IllegalArgumentException x) {
+            System.err.println(x.getLocalizedMessage());
+            System.exit(1);
+            return; // To satisfy the compiler.
+        }
+        int ix = next[0];
+        String compareName = null;
+        if (args.length > ix + 1 && args[ix].equals("--compare")) {
+            compareName = args[ix + 1];
+            ix += 2;
+        }
+        File recordFile = null;
+        if (args.length > ix + 1 && args[ix].equals("--record")) {
+            recordFile = new File(args[ix + 1]);
+            ix += 2;
+        }
+        JobTrace trace = null;
+        int workerCount = 1000;
+        int jobCount = 0;
+        if (args.length > ix && args[ix].equals("--trace")) {
+            if (args.length != ix + 2) {
+                System.err.println("Usage: SimulatedEngine [churn options] "
+                        + "[--compare <scheduler>] [--record <file>] "
+                        + "--trace <file>");
+                System.exit(1);
+            }
+            final File traceFile = new File(args[ix + 1]);
+            if (recordFile != null
+                    && recordFile.getAbsoluteFile().equals(
+                            traceFile.getAbsoluteFile())) {
+                System.err.println("Cannot record the replay of trace '"
+                        + traceFile + "' in the same file");
+                System.exit(1);
+            }
+            try {
+                trace = JobTrace.load(args[ix + 1]);
+            } catch (final IOException x) {
+                System.err.println("Cannot load trace: "
+                        + x.getLocalizedMessage());
+                System.exit(1);
+                return; // To satisfy the compiler.
+            }
+        } else {
+            if (args.length > ix) {
+                workerCount = Integer.parseInt(args[ix++]);
+            }
+            jobCount = args.length > ix ? Integer.parseInt(args[ix])
+                    : 20 * workerCount;
+        }
+        final String schedulerName = MawEngine.getSchedulerName();
+        final Random rng = SweepRunner.buildRandom();
+        if (churn == null && compareName == null) {
+            final SimulatedEngine e = buildEngine(trace, workerCount,
+                    schedulerName, rng, recordFile);
+            e.runEngine(jobCount);
+            e.printStatistics(System.out);
+            return;
+        }
+        final long seed = rng.nextLong();
+        SimulatedEngine baseline = null;
+        if (churn != null) {
+            final File baselineFile = recordFile == null ? null : new File(
+                    recordFile.getPath() + ".baseline");
+            baseline = buildEngine(trace, workerCount, schedulerName,
+                    new FastRandom(seed), baselineFile);
+            baseline.runEngine(jobCount);
+        }
+        SimulatedEngine reference = null;
+        if (compareName != null) {
+            final File referenceFile = recordFile == null ? null : new File(
+                    recordFile.getPath() + "." + compareName);
+            reference = buildEngine(trace, workerCount, compareName,
+                    new FastRandom(seed), referenceFile);
+            if (churn != null) {
+                reference.setChurnScenario(churn);
+            }
+            reference.runEngine(jobCount);
+        }
+        final SimulatedEngine e = buildEngine(trace, workerCount,
+                schedulerName, new FastRandom(seed), recordFile);
+        if (churn != null) {
+            e.setChurnScenario(churn);
+        }
+        e.runEngine(jobCount);
+        e.printStatistics(System.out);
+        if (baseline != null) {
+            System.out.println(Math.round(100 * THROUGHPUT_FRACTION)
+                    + "% of the jobs completed after "
+                    + Utils.formatSeconds(e.throughputTime)
+                    + ", without churn "
+                    + Utils.formatSeconds(baseline.throughputTime)
+                    + "; throughput lost "
+                    + Math.round(100 * (1 - baseline.throughputTime
+                            / e.throughputTime)) + "%");
+        }
+        if (reference != null) {
+            e.printComparison(System.out, compareName, reference);
+        }
+    }
+}
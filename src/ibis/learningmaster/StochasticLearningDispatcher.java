@@ -1,9 +1,9 @@
 package ibis.learningmaster;
 
 import ibis.steel.Estimator;
-import ibis.steel.GaussianDecayingEstimator;
 
 import java.io.PrintStream;
+import java.util.Random;
 
 class StochasticLearningDispatcher {
     private static final int GENERATORS = 20;
@@ -13,8 +13,9 @@ class StochasticLearningDispatcher {
     private static class Worker {
         final ZeroClampedGaussianSource src;
 
-        Worker(final double average, final double likelyError) {
-            src = new ZeroClampedGaussianSource(average, likelyError);
+        Worker(final double average, final double likelyError,
+                final Random rng) {
+            src = new ZeroClampedGaussianSource(average, likelyError, rng);
         }
 
         double getValue() {
@@ -23,15 +24,16 @@ class StochasticLearningDispatcher {
     }
 
     private static class WorkerEstimator {
-        private final Estimator performance = buildEstimator();
+        private final Estimator performance;
 
-        static Estimator buildEstimator() {
-            return new GaussianDecayingEstimator(0, 0);
-            // return new GaussianEstimator();
+        static Estimator buildEstimator(final Random rng) {
+            return SeededEstimator.buildDecayingEstimator(0, 0, 0.1, rng);
+            // return SeededEstimator.buildGaussianEstimator(0, 0, rng);
         }
 
-        WorkerEstimator() {
+        WorkerEstimator(final Random rng) {
             // Start with a very optimistic estimate to avoid corner cases
+            performance = buildEstimator(rng);
             performance.addSample(0);
         }
 
@@ -49,9 +51,6 @@ class StochasticLearningDispatcher {
         }
     }
 
-    private static final Worker workers[] = new Worker[GENERATORS];
-    private static final WorkerEstimator workerEstimators[] = new WorkerEstimator[GENERATORS];
-
     private static double submitAJob(final boolean verbose, final Worker[] wl,
             final WorkerEstimator[] wel) {
         double bestOffer = Double.MAX_VALUE;
@@ -76,7 +75,9 @@ class StochasticLearningDispatcher {
             final String lbl, final boolean verbose,
             final boolean printEndStats, final double fast,
             final double normal, final double slow, final double stddev,
-            final int jobCount) {
+            final int jobCount, final Random rng) {
+        final Worker workers[] = new Worker[GENERATORS];
+        final WorkerEstimator workerEstimators[] = new WorkerEstimator[GENERATORS];
         for (int i = 0; i < GENERATORS; i++) {
             double v = normal;
             if (i == 1) {
@@ -84,8 +85,8 @@ class StochasticLearningDispatcher {
             } else if (i == 2) {
                 v = slow;
             }
-            workers[i] = new Worker(v, stddev * v);
-            workerEstimators[i] = new WorkerEstimator();
+            workers[i] = new Worker(v, stddev * v, rng);
+            workerEstimators[i] = new WorkerEstimator(rng);
         }
         double cost = 0;
         for (int i = 0; i < jobCount; i++) {
@@ -106,6 +107,6 @@ class StochasticLearningDispatcher {
 
     public static void main(final String args[]) {
         runExperiment(System.out, "test", false, true, 100, 500, 800, STDDEV,
-                JOBCOUNT);
+                JOBCOUNT, SweepRunner.buildRandom());
     }
 }
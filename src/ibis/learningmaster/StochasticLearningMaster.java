@@ -1,62 +1,108 @@
 package ibis.learningmaster;
 
-import ibis.learningmaster.EventQueue.Event;
-import ibis.steel.Estimator;
-import ibis.steel.GaussianDecayingEstimator;
-
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 /**
  * A master in a simulated master-worker system that tries to learn from the
  * previous behavior of each worker to predict its future performance.
  * 
+ * Every simulation uses its own instance and random generator, so that the
+ * replications of the experiments can be run in parallel by a
+ * {@link SweepRunner}, and give the same results for the same seed.
+ * 
+ * Instead of drawing job arrivals and execution times from Gaussian
+ * distributions, the simulation can replay them from a {@link JobTrace}, with
+ * one simulated worker per traced worker.
+ * 
+ * By default the best worker for a job is found by estimating the completion
+ * time on every worker, with a fresh likely value from each estimator. For
+ * large pools of workers that is too expensive, so the simulation can also
+ * keep the workers in two heaps: one of idle workers ordered by their
+ * estimated execution time, and one of busy workers ordered by the estimated
+ * moment a new job would be completed. Since the estimated completion time
+ * of a busy worker only decreases with the time it has already been busy,
+ * the order of that heap only changes when the worker gets or completes a
+ * job. The likely value of a worker is then drawn only at these moments,
+ * instead of for every job.
+ * 
+ * The estimators of the workers are kept in an {@link EstimatorBank}, so that
+ * the exhaustive search can compute the estimates of all workers in bulk.
+ * 
+ * By default sending a job to a worker and reporting its completion are
+ * instantaneous, and the master can handle any number of messages at the
+ * same time. With a {@link NetworkModel} messages take time to cross the
+ * network, and the master handles them one at a time, so that the
+ * simulation shows when the master saturates.
+ * 
  * @author Kees van Reeuwijk
  * 
  */
 class StochasticLearningMaster {
-    private static final int WORKERS = 20;
-    private static final int SAMPLES = 10;
+    private static final int DEFAULT_WORKERS = 20;
+
+    /**
+     * Pools with more workers than this use the heaps to find the best
+     * worker, and don't print statistics for every worker.
+     */
+    private static final int LARGE_POOL = 100;
     private static int JOBCOUNT = 30000;
     private static final double STDDEV = 0.20;
-    private final EventQueue q;
+    private static final int JOB_ARRIVED = 0;
+    private static final int JOB_COMPLETED = 1;
+    private static final int SUBMISSION_HANDLED = 2;
+    private static final int REQUEST_ARRIVED = 3;
+    private static final int COMPLETION_ARRIVED = 4;
+    private static final int COMPLETION_HANDLED = 5;
+    private final PrimitiveEventQueue q = new PrimitiveEventQueue();
     private double now = 0;
     private double totalCompletionTime = 0.0;
     private final boolean verbose;
+    private final Random rng;
+    private Worker workers[];
+    private WorkerEstimator workerEstimators[];
+    private EstimatorBank estimators;
 
-    public StochasticLearningMaster(final boolean verbose) {
-        q = new EventQueue(verbose);
-        this.verbose = verbose;
-    }
-
-    private static class JobCompletedEvent extends EventQueue.Event {
-        final WorkerEstimator worker;
-        final double completionTime;
+    /** Scratch arrays for the exhaustive search, indexed by worker. */
+    private double highEstimates[];
+    private double likelyValues[];
+    private double completionTimes[];
 
-        public JobCompletedEvent(final double t, final double completionTime,
-                final WorkerEstimator worker) {
-            super(t);
-            this.completionTime = completionTime;
-            this.worker = worker;
-        }
+    /** If set, use the heaps below to find the best worker. */
+    private final boolean indexed;
+    private IndexedMinHeap idleWorkers;
+    private IndexedMinHeap busyWorkers;
 
-        @Override
-        public String toString() {
-            return "JobCompletedEvent[when=" + super.time + ",ct="
-                    + completionTime + ",worker=" + worker + "]";
-        }
-    }
+    /**
+     * The model of the network and the master, or <code>null</code> if
+     * communication is instantaneous and the master has unlimited capacity.
+     */
+    private NetworkModel network = null;
+    private double masterBusyUntil = 0;
+    private double transmitterBusyUntil = 0;
+    private double masterBusyTime = 0;
+    private double transmitterBusyTime = 0;
+    private double masterWaitTime = 0;
+    private int masterMessageCount = 0;
 
-    private static class JobArrivedEvent extends EventQueue.Event {
-        JobArrivedEvent(final double time) {
-            super(time);
-        }
+    /**
+     * The sums over all jobs of the moments they were submitted, and of the
+     * moments the master handled their completion.
+     */
+    private double totalSubmitTime = 0;
+    private double totalHandledTime = 0;
+    private double lastSubmitTime = 0;
 
-        @Override
-        public String toString() {
-            return "JobArrivedEvent[when=" + super.time + "]";
-        }
+    StochasticLearningMaster(final boolean verbose, final boolean indexed,
+            final Random rng) {
+        this.verbose = verbose;
+        this.indexed = indexed;
+        this.rng = rng;
     }
 
     /**
@@ -66,22 +112,25 @@ class StochasticLearningMaster {
      * 
      */
     private class Worker {
-        ZeroClampedGaussianSource workTimeGenerator;
+        final DurationSource workTimeGenerator;
         private double busyUntilTime;
         private final String label;
         private double totalIdleTime = 0.0;
 
-        Worker(final double average, final double stdDev, final String label) {
+        Worker(final DurationSource workTimeGenerator, final String label) {
             this.label = label;
-            workTimeGenerator = new ZeroClampedGaussianSource(average, stdDev);
+            this.workTimeGenerator = workTimeGenerator;
         }
 
         /**
          * Execute a job on this worker. We place an event on the event queue to
          * mark the completion of this job.
+         * 
+         * @param worker
+         *            The index of this worker.
          */
         @SuppressWarnings("synthetic-access")
-        void executeJob(final WorkerEstimator est) {
+        void executeJob(final int worker) {
             final double duration = workTimeGenerator.next();
             final double startTime;
 
@@ -101,9 +150,7 @@ class StochasticLearningMaster {
                         + ": startTime=" + startTime + " duration=" + duration
                         + " completionTime=" + completionTime);
             }
-            final JobCompletedEvent e = new JobCompletedEvent(completionTime,
-                    duration, est);
-            q.addEvent(e);
+            q.add(completionTime, JOB_COMPLETED, worker, duration);
         }
 
         @Override
@@ -122,7 +169,8 @@ class StochasticLearningMaster {
     }
 
     private static class WorkerEstimator {
-        private final Estimator performance = buildEstimator();
+        private final EstimatorBank performance;
+        private final int index;
         private int queueLength = 0;
         private final String label;
         private double queueTime = 0.0;
@@ -130,15 +178,23 @@ class StochasticLearningMaster {
         private double lastJobStart = 0;
         private int maxQueueLength = 0;
 
-        static Estimator buildEstimator() {
-            return new GaussianDecayingEstimator(0, 0, 0.1);
-            // return new GaussianEstimator();
+        private static final int ESTIMATOR_KIND = EstimatorBank.DECAYING;
+
+        // private static final int ESTIMATOR_KIND = EstimatorBank.GAUSSIAN;
+
+        static EstimatorBank buildEstimators(final int workerCount,
+                final Random rng) {
+            return new EstimatorBank(ESTIMATOR_KIND, workerCount, 0, 0, 0.1,
+                    rng);
         }
 
-        WorkerEstimator(final String label) {
+        WorkerEstimator(final int index, final String label,
+                final EstimatorBank performance) {
             // Start with a very optimistic estimate to avoid corner cases
+            this.index = index;
             this.label = label;
-            performance.addSample(0);
+            this.performance = performance;
+            performance.addSample(index, 0);
         }
 
         @Override
@@ -149,29 +205,57 @@ class StochasticLearningMaster {
         void printStatistics(final PrintStream s, final double totalTime) {
             final double qf = queueTime / totalTime;
             s.println(label + ": maxQLen=" + maxQueueLength + " qf=" + qf + " "
-                    + performance.getStatisticsString());
+                    + performance.getStatisticsString(index));
         }
 
         static String getName() {
-            return buildEstimator().getName();
+            return EstimatorBank.getName(ESTIMATOR_KIND);
         }
 
-        double estimateCompletionTime(final double now) {
-            double t = 0;
+        /**
+         * Returns the estimated completion time of a new job on this worker.
+         * 
+         * @param now
+         *            The current time.
+         * @param highEstimate
+         *            The high estimate of the execution time of a job.
+         * @param likelyValue
+         *            The likely execution time of the new job.
+         * @return The estimated completion time.
+         */
+        double estimateCompletionTime(final double now,
+                final double highEstimate, final double likelyValue) {
+            final double pessimisticEstimate = queueLength > 0 ? highEstimate
+                    : 0;
+            return CompletionTimeModel.estimateCompletionTime(queueLength,
+                    pessimisticEstimate, now - lastJobStart, likelyValue);
+        }
+
+        /**
+         * Puts this worker in the heap that matches its state, with a key
+         * based on a new likely value of its estimator.
+         * 
+         * @param idleWorkers
+         *            The heap of idle workers, ordered by their estimated
+         *            completion time of a new job.
+         * @param busyWorkers
+         *            The heap of busy workers, ordered by the moment they
+         *            would complete a new job.
+         */
+        void updateIndex(final IndexedMinHeap idleWorkers,
+                final IndexedMinHeap busyWorkers) {
+            final double likelyValue = performance.getLikelyValue(index);
             if (queueLength > 0) {
                 final double pessimisticEstimate = performance
-                        .getHighEstimate();
-                t = queueLength * pessimisticEstimate
-                        * Math.pow(1.05, queueLength);
-                // Take into account the time that
-                // The job is already running.
-                t -= now - lastJobStart;
+                        .getHighEstimate(index);
+                idleWorkers.remove(index);
+                busyWorkers.set(index, queueLength * pessimisticEstimate
+                        * CompletionTimeModel.getQueuePenalty(queueLength)
+                        + lastJobStart + likelyValue);
+            } else {
+                busyWorkers.remove(index);
+                idleWorkers.set(index, Math.max(0, likelyValue));
             }
-            // Also add the estimated time for the new job.
-            // Don't let a negative value from the estimator
-            // make a mess of things.
-            t = Math.max(0, t + performance.getLikelyValue());
-            return t;
         }
 
         void registerQueuedJob(final double now) {
@@ -188,31 +272,143 @@ class StochasticLearningMaster {
             queueTime += queueLength * (now - lastQueueEvent);
             lastQueueEvent = now;
             queueLength--;
-            performance.addSample(completionTime);
+            performance.addSample(index, completionTime);
         }
     }
 
-    private static final Worker workers[] = new Worker[WORKERS];
-    private static final WorkerEstimator workerEstimators[] = new WorkerEstimator[WORKERS];
+    void setNetworkModel(final NetworkModel network) {
+        this.network = network;
+    }
 
-    private void scheduleJobOnWorker() {
-        int bestWorker = -1;
-        double bestCompletionTime = Double.POSITIVE_INFINITY;
+    /**
+     * Queues a message for the master.
+     * 
+     * @return The moment the master has handled the message.
+     */
+    private double serveMessage() {
+        final double start = Math.max(now, masterBusyUntil);
+        masterWaitTime += start - now;
+        masterBusyUntil = start + network.serviceTime;
+        masterBusyTime += network.serviceTime;
+        masterMessageCount++;
+        return masterBusyUntil;
+    }
+
+    /**
+     * Hands a new job to the master.
+     */
+    private void submitJob() {
+        if (network == null) {
+            scheduleJobOnWorker();
+        } else {
+            totalSubmitTime += now;
+            lastSubmitTime = now;
+            q.add(serveMessage(), SUBMISSION_HANDLED, 0, 0);
+        }
+    }
+
+    /**
+     * Sends a job to the given worker. The transmitter of the master sends
+     * one message at a time.
+     * 
+     * @param worker
+     *            The index of the worker.
+     */
+    private void dispatchJob(final int worker) {
+        if (network == null) {
+            workers[worker].executeJob(worker);
+            return;
+        }
+        final double start = Math.max(now, transmitterBusyUntil);
+        final double sendTime = network.getSendTime(worker,
+                network.requestBytes);
+        transmitterBusyUntil = start + sendTime;
+        transmitterBusyTime += sendTime;
+        q.add(transmitterBusyUntil + network.getLatency(worker),
+                REQUEST_ARRIVED, worker, 0);
+    }
+
+    /**
+     * Returns the fraction of the run time the master was busy handling
+     * messages.
+     * 
+     * @return The utilization of the master.
+     */
+    double getMasterUtilization() {
+        return now > 0 ? masterBusyTime / now : 0;
+    }
+
+    /**
+     * Returns the service time the master needed per second in which jobs
+     * were submitted. Unlike the utilization this does not depend on how
+     * long it takes the workers to finish their queues at the end of the
+     * run. If it is larger than 1, the master cannot keep up.
+     * 
+     * @return The offered load of the master.
+     */
+    double getMasterLoad() {
+        return lastSubmitTime > 0 ? masterBusyTime / lastSubmitTime : 0;
+    }
+
+    private void printNetworkStatistics(final int jobCount) {
+        System.out.format("Master: load=%.3f utilization=%.3f transmitter "
+                + "utilization=%.3f average wait=%s average response "
+                + "time=%s\n", getMasterLoad(), getMasterUtilization(),
+                transmitterBusyTime / now,
+                Utils.formatSeconds(masterWaitTime / masterMessageCount),
+                Utils.formatSeconds((totalHandledTime - totalSubmitTime)
+                        / jobCount));
+    }
+
+    /**
+     * Returns the worker with the earliest estimated completion time of a new
+     * job, according to the heaps of idle and busy workers.
+     * 
+     * @return The index of the worker.
+     */
+    private int selectIndexedWorker() {
+        final int idle = idleWorkers.peek();
+        final int busy = busyWorkers.peek();
+        if (busy < 0) {
+            return idle;
+        }
+        if (idle < 0) {
+            return busy;
+        }
+        final double busyTime = Math.max(0, busyWorkers.getKey(busy) - now);
+        final double idleTime = idleWorkers.getKey(idle);
+        if (busyTime == idleTime) {
+            // As with the exhaustive search, prefer the lowest index.
+            return Math.min(busy, idle);
+        }
+        return busyTime < idleTime ? busy : idle;
+    }
 
-        for (int i = 0; i < workerEstimators.length; i++) {
+    private void scheduleJobOnWorker() {
+        if (indexed) {
+            final int w = selectIndexedWorker();
+            final WorkerEstimator est = workerEstimators[w];
+            est.registerQueuedJob(now);
+            est.updateIndex(idleWorkers, busyWorkers);
+            dispatchJob(w);
+            return;
+        }
+        final int workerCount = workerEstimators.length;
+        estimators.getHighEstimates(highEstimates);
+        estimators.getLikelyValues(likelyValues);
+        for (int i = 0; i < workerCount; i++) {
             final WorkerEstimator e = workerEstimators[i];
-            final double t = e.estimateCompletionTime(now);
+            final double t = e.estimateCompletionTime(now, highEstimates[i],
+                    likelyValues[i]);
+            completionTimes[i] = t;
             if (Settings.TraceDetailedProgress) {
                 System.out.print("Estimated completion time on " + e.label
                         + ": " + t + " Queue length=" + e.queueLength
                         + " stats: ");
                 e.printStatistics(System.out, 0);
             }
-            if (t < bestCompletionTime) {
-                bestWorker = i;
-                bestCompletionTime = t;
-            }
         }
+        int bestWorker = EstimatorBank.argMin(completionTimes, workerCount);
         if (bestWorker < 0) {
             System.out
                     .println("No reasonable worker found; volunteering worker 0");
@@ -221,70 +417,217 @@ class StochasticLearningMaster {
         final WorkerEstimator est = workerEstimators[bestWorker];
         // System.out.println("Best Worker: " + est.label);
         est.registerQueuedJob(now);
-        workers[bestWorker].executeJob(est);
+        dispatchJob(bestWorker);
     }
 
-    private void runExperiment(final PrintStream stream, final String lbl,
-            final boolean printEndStats, final double arrivalRate,
-            final double arrivalStdDev, final double fast, final double slow,
-            final double stddev, final int jobCount) {
-        final ZeroClampedGaussianSource jobIntervalGenerator = new ZeroClampedGaussianSource(
-                arrivalRate, arrivalStdDev);
+    /**
+     * Runs one simulation.
+     * 
+     * @return The average execution time of a job.
+     */
+    private double runExperiment(final boolean printEndStats,
+            final double arrivalRate, final double arrivalStdDev,
+            final double fast, final double slow, final double stddev,
+            final int workerCount, final int jobCount) {
+        final DurationSource workTimeGenerators[] = new DurationSource[
+                workerCount];
+        final int distribution = Distributions.getKind();
+        for (int i = 0; i < workerCount; i++) {
+            final double d = slow - fast;
+            final double v = fast + (double) i / (workerCount - 1) * d;
+            workTimeGenerators[i] = Distributions.build(distribution, v,
+                    stddev * v, FastRandom.split(rng));
+        }
+        final double res = runJobs(printEndStats,
+                new ZeroClampedGaussianSource(arrivalRate, arrivalStdDev, rng),
+                workTimeGenerators, jobCount);
+        if (printEndStats) {
+            System.out
+                    .format("Fast: %3g slow: %3g  run time=%.3f average execution time: %3g average completion time: %3g\n",
+                            fast, slow, now, res,
+                            (totalCompletionTime / jobCount));
+        }
+        return res;
+    }
+
+    /**
+     * Runs one simulation with the job arrivals and execution times of the
+     * given trace.
+     * 
+     * @return The average execution time of a job.
+     */
+    private double runTrace(final JobTrace trace) {
+        final DurationSource workTimeGenerators[] = new DurationSource[trace
+                .getWorkerCount()];
+        final boolean resample =
+                Distributions.getKind() == Distributions.EMPIRICAL;
+        for (int i = 0; i < workTimeGenerators.length; i++) {
+            if (resample) {
+                workTimeGenerators[i] = trace.getWorkerDistribution(i,
+                        FastRandom.split(rng));
+            } else {
+                workTimeGenerators[i] = trace.getWorkerSource(i);
+            }
+        }
+        final int jobCount = trace.jobs.length;
+        final double res = runJobs(true, trace.getArrivalIntervalSource(),
+                workTimeGenerators, jobCount);
+        System.out.format(
+                "Trace: %d workers, %d jobs  run time=%.3f average execution "
+                        + "time: %3g average completion time: %3g\n",
+                workTimeGenerators.length, jobCount, now, res,
+                (totalCompletionTime / jobCount));
+        return res;
+    }
+
+    /**
+     * Runs one simulation with the given job arrivals, and one worker for
+     * each of the given sources of execution times.
+     * 
+     * @return The average execution time of a job.
+     */
+    private double runJobs(final boolean printEndStats,
+            final DurationSource jobIntervalGenerator,
+            final DurationSource workTimeGenerators[], final int jobCount) {
         int submittedJobCount = 0;
         double totalExecutionTime = 0;
-        // First, create some workers and worker estimators.
-        for (int i = 0; i < WORKERS; i++) {
-            final double d = slow - fast;
-            final double v = fast + (double) i / (WORKERS - 1) * d;
-            workers[i] = new Worker(v, stddev * v, "W" + i);
-            workerEstimators[i] = new WorkerEstimator("W" + i);
+        // First, create the workers and worker estimators.
+        final int workerCount = workTimeGenerators.length;
+        workers = new Worker[workerCount];
+        workerEstimators = new WorkerEstimator[workerCount];
+        estimators = WorkerEstimator.buildEstimators(workerCount, rng);
+        highEstimates = new double[workerCount];
+        likelyValues = new double[workerCount];
+        completionTimes = new double[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(workTimeGenerators[i], "W" + i);
+            workerEstimators[i] = new WorkerEstimator(i, "W" + i, estimators);
+        }
+        if (indexed) {
+            idleWorkers = new IndexedMinHeap(workerCount);
+            busyWorkers = new IndexedMinHeap(workerCount);
+            for (final WorkerEstimator e : workerEstimators) {
+                e.updateIndex(idleWorkers, busyWorkers);
+            }
         }
         int finishedJobCount = 0;
 
-        scheduleJobOnWorker();
+        submitJob();
         final double interval = jobIntervalGenerator.next();
         // Schedule the arrival of a new event.
-        final JobArrivedEvent e1 = new JobArrivedEvent(interval);
-        q.addEvent(e1);
+        q.add(interval, JOB_ARRIVED, 0, 0);
         submittedJobCount++;
         while (finishedJobCount < jobCount) {
-            final Event e = q.getNextEvent();
-
-            now = e.getTime();
+            q.poll();
+            now = q.getTime();
             if (verbose) {
                 System.out.println("Finished jobs: " + finishedJobCount);
             }
-            if (e instanceof JobArrivedEvent) {
-                scheduleJobOnWorker();
+            final int kind = q.getKind();
+            final int worker = q.getIndex();
+            if (kind == JOB_ARRIVED) {
+                submitJob();
                 if (submittedJobCount < jobCount) {
                     final double jobArrivalInterval = jobIntervalGenerator
                             .next();
                     // Schedule the arrival of a new event.
-                    final JobArrivedEvent e2 = new JobArrivedEvent(now
-                            + jobArrivalInterval);
-                    q.addEvent(e2);
+                    q.add(now + jobArrivalInterval, JOB_ARRIVED, 0, 0);
                     submittedJobCount++;
                 }
-            } else if (e instanceof JobCompletedEvent) {
-                final JobCompletedEvent ae = (JobCompletedEvent) e;
-                final WorkerEstimator est = ae.worker;
-                est.registerCompletedJob(ae.completionTime, now);
-                totalExecutionTime += ae.completionTime;
+            } else if (kind == SUBMISSION_HANDLED) {
+                scheduleJobOnWorker();
+            } else if (kind == REQUEST_ARRIVED) {
+                workers[worker].executeJob(worker);
+            } else if (kind == JOB_COMPLETED && network != null) {
+                q.add(now + network.getLatency(worker)
+                        + network.getSendTime(worker, network.resultBytes),
+                        COMPLETION_ARRIVED, worker, q.getValue());
+            } else if (kind == COMPLETION_ARRIVED) {
+                q.add(serveMessage(), COMPLETION_HANDLED, worker, q
+                        .getValue());
+            } else {
+                final double executionTime = q.getValue();
+                final WorkerEstimator est = workerEstimators[worker];
+                if (network != null) {
+                    totalHandledTime += now;
+                }
+                est.registerCompletedJob(executionTime, now);
+                if (indexed) {
+                    est.updateIndex(idleWorkers, busyWorkers);
+                }
+                totalExecutionTime += executionTime;
                 finishedJobCount++;
             }
         }
-        if (printEndStats) {
+        if (printEndStats && workerCount <= LARGE_POOL) {
             for (int i = 0; i < workerEstimators.length; i++) {
-                workers[i].printStatistics(stream, now);
-                workerEstimators[i].printStatistics(stream, now);
+                workers[i].printStatistics(System.out, now);
+                workerEstimators[i].printStatistics(System.out, now);
+            }
+        }
+        if (printEndStats && network != null) {
+            printNetworkStatistics(jobCount);
+        }
+        return totalExecutionTime / jobCount;
+    }
+
+    private static SweepRunner.Replication buildReplication(
+            final double arrivalRate, final double arrivalStdDev,
+            final double fast, final double slow, final double stddev,
+            final int jobCount) {
+        return new SweepRunner.Replication() {
+            @SuppressWarnings("synthetic-access")
+            @Override
+            public double run(final Random rng) {
+                final StochasticLearningMaster m = new StochasticLearningMaster(
+                        false, false, rng);
+                return m.runExperiment(false, arrivalRate, arrivalStdDev,
+                        fast, slow, stddev, DEFAULT_WORKERS, jobCount);
+            }
+        };
+    }
+
+    /**
+     * Returns a replication that measures the offered load of the master for
+     * the given number of workers and job granularity. The execution times
+     * of the workers range from the given job time to twice that, and jobs
+     * arrive at about 70% of the capacity of the workers.
+     */
+    private static SweepRunner.Replication buildSaturationReplication(
+            final int workerCount, final double jobTime, final int jobCount) {
+        return new SweepRunner.Replication() {
+            @SuppressWarnings("synthetic-access")
+            @Override
+            public double run(final Random rng) {
+                final StochasticLearningMaster m = new StochasticLearningMaster(
+                        false, workerCount > LARGE_POOL, rng);
+                m.setNetworkModel(NetworkModel.buildSynthetic(workerCount,
+                        NetworkModel.getServiceTime()));
+                final double interval = 2 * jobTime / workerCount;
+                m.runExperiment(false, interval, 0.25 * interval, jobTime,
+                        2 * jobTime, STDDEV, workerCount, jobCount);
+                return m.getMasterLoad();
+            }
+        };
+    }
+
+    /**
+     * Runs replications of the given configurations until their outcomes
+     * have converged, and writes the outcome of every replication to the
+     * given file, preceded by the label of its configuration.
+     */
+    private static void runSweep(final String fnm, final List<String> labels,
+            final List<SweepRunner.Replication> configurations) {
+        final double res[][] = new SweepRunner().runUntilConverged(
+                configurations, 1);
+        final PrintStream stream = openPrintFile(fnm);
+        for (int i = 0; i < res.length; i++) {
+            for (final double v : res[i]) {
+                stream.println(labels.get(i) + " " + v);
             }
-            System.out
-                    .format("Fast: %3g slow: %3g  run time=%.3f average execution time: %3g average completion time: %3g\n",
-                            fast, slow, now, (totalExecutionTime / jobCount),
-                            (totalCompletionTime / jobCount));
-        } else {
-            stream.println(lbl + " " + totalExecutionTime / jobCount);
         }
+        stream.close();
+        System.out.println("Wrote file '" + fnm + "'");
     }
 
     private static PrintStream openPrintFile(final String s) {
@@ -299,80 +642,130 @@ class StochasticLearningMaster {
         }
     }
 
-    private void runNormalSlowdownExperiments() {
+    private static void runNormalSlowdownExperiments() {
         final double normalValues[] = { 110, 150, 200, 500, 1000, 2000, 5000,
                 10000 };
         final double fast = 100;
         final double slowFactor = 1;
-        PrintStream stream;
         final String fnm = WorkerEstimator.getName() + "-normal-slowdown.data";
-        stream = openPrintFile(fnm);
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<SweepRunner.Replication> l = new ArrayList<SweepRunner.Replication>();
 
         for (final double normal : normalValues) {
             final double slow = slowFactor * normal;
 
-            for (int sample = 0; sample < SAMPLES; sample++) {
-                final String lbl = Double.toString(normal);
-                runExperiment(stream, lbl, false, 0.9 * fast, STDDEV, fast,
-                        slow, STDDEV, JOBCOUNT);
-            }
+            labels.add(Double.toString(normal));
+            l.add(buildReplication(0.9 * fast, STDDEV, fast, slow, STDDEV,
+                    JOBCOUNT));
         }
-        stream.close();
-        System.out.println("Wrote file '" + fnm + "'");
+        runSweep(fnm, labels, l);
     }
 
-    private void runStdDevExperiments() {
+    private static void runStdDevExperiments() {
         final double stddevs[] = { 0.01, 0.02, 0.05, 0.1, 0.2, 0.5, 1, 2, 5, 10 };
         final double fast = 100;
         final double normal = 5 * fast;
         final double slow = normal;
-        PrintStream stream;
         final String fnm = WorkerEstimator.getName() + "-stddev.data";
-        stream = openPrintFile(fnm);
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<SweepRunner.Replication> l = new ArrayList<SweepRunner.Replication>();
 
         for (final double s : stddevs) {
-
-            for (int sample = 0; sample < SAMPLES; sample++) {
-                final String lbl = Double.toString(s * normal);
-                runExperiment(stream, lbl, false, fast * 0.9, STDDEV, fast,
-                        slow, s, JOBCOUNT);
-            }
+            labels.add(Double.toString(s * normal));
+            l.add(buildReplication(fast * 0.9, STDDEV, fast, slow, s,
+                    JOBCOUNT));
         }
-        stream.close();
-        System.out.println("Wrote file '" + fnm + "'");
+        runSweep(fnm, labels, l);
     }
 
-    private void runSampleCountExperiments() {
+    private static void runSampleCountExperiments() {
         final int samples[] = { 100, 200, 500, 1000, 2000, 5000, 10000, 20000,
                 50000, 100000 };
         final double fast = 100;
         final double normal = 10 * fast;
         final double slow = normal;
-        PrintStream stream;
         final String fnm = WorkerEstimator.getName() + "-samplecount.data";
-        stream = openPrintFile(fnm);
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<SweepRunner.Replication> l = new ArrayList<SweepRunner.Replication>();
 
         for (final int jobCount : samples) {
+            labels.add(Integer.toString(jobCount));
+            l.add(buildReplication(0.9 * fast, STDDEV, fast, slow, STDDEV,
+                    jobCount));
+        }
+        runSweep(fnm, labels, l);
+    }
 
-            for (int sample = 0; sample < SAMPLES; sample++) {
-                final String lbl = Integer.toString(jobCount);
-                runExperiment(stream, lbl, false, 0.9 * fast, STDDEV, fast,
-                        slow, STDDEV, jobCount);
+    private static void runSaturationExperiments() {
+        final int workerCounts[] = { 10, 20, 50, 100, 200, 500, 1000, 2000,
+                5000 };
+        final double jobTimes[] = { 0.01, 0.1, 1, 10 };
+        final String fnm = "network-saturation.data";
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<SweepRunner.Replication> l = new ArrayList<SweepRunner.Replication>();
+
+        for (final double jobTime : jobTimes) {
+            for (final int workerCount : workerCounts) {
+                // Give every worker a reasonable number of jobs.
+                final int jobCount = Math.max(JOBCOUNT, 10 * workerCount);
+
+                labels.add(workerCount + " " + jobTime);
+                l.add(buildSaturationReplication(workerCount, jobTime,
+                        jobCount));
             }
         }
-        stream.close();
-        System.out.println("Wrote file '" + fnm + "'");
+        runSweep(fnm, labels, l);
     }
 
     public static void main(final String args[]) {
-        final StochasticLearningMaster m = new StochasticLearningMaster(false);
-        if (false) {
-            m.runNormalSlowdownExperiments();
-            m.runStdDevExperiments();
-            m.runSampleCountExperiments();
+        int ix = 0;
+        boolean useNetwork = false;
+        if (args.length > 0 && args[0].equals("--network")) {
+            useNetwork = true;
+            ix++;
+        }
+        if (args.length > ix + 1 && args[ix].equals("--trace")) {
+            final JobTrace trace;
+            try {
+                trace = JobTrace.load(args[ix + 1]);
+            } catch (final IOException x) {
+                System.err.println("Cannot load trace: "
+                        + x.getLocalizedMessage());
+                System.exit(1);
+                return; // To satisfy the compiler.
+            }
+            final StochasticLearningMaster m = new StochasticLearningMaster(
+                    false, trace.getWorkerCount() > LARGE_POOL, SweepRunner
+                            .buildRandom());
+            if (useNetwork) {
+                m.setNetworkModel(NetworkModel.buildForTrace(trace,
+                        NetworkModel.getServiceTime()));
+            }
+            m.runTrace(trace);
+        } else if (args.length > ix && args[ix].equals("--sweep")) {
+            runNormalSlowdownExperiments();
+            runStdDevExperiments();
+            runSampleCountExperiments();
+        } else if (args.length > ix && args[ix].equals("--saturation")) {
+            runSaturationExperiments();
         } else {
-            m.runExperiment(System.out, "test", true, 0.2, 0.125, 1, 20, 0.4,
-                    200000);
+            int workerCount = DEFAULT_WORKERS;
+            if (args.length > ix + 1 && args[ix].equals("--workers")) {
+                workerCount = Integer.parseInt(args[ix + 1]);
+                ix += 2;
+            }
+            final int jobCount = args.length > ix ? Integer
+                    .parseInt(args[ix]) : 200000;
+            final StochasticLearningMaster m = new StochasticLearningMaster(
+                    false, workerCount > LARGE_POOL, SweepRunner.buildRandom());
+            if (useNetwork) {
+                m.setNetworkModel(NetworkModel.buildSynthetic(workerCount,
+                        NetworkModel.getServiceTime()));
+            }
+            // Keep the load the same for any number of workers.
+            final double scale = (double) DEFAULT_WORKERS / workerCount;
+            m.runExperiment(true, 0.2 * scale, 0.125 * scale, 1, 20, 0.4,
+                    workerCount, jobCount);
         }
     }
 }
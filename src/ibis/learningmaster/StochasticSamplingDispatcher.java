@@ -1,15 +1,27 @@
 package ibis.learningmaster;
 
 import ibis.steel.Estimator;
-import ibis.steel.GaussianEstimator;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
+/**
+ * A simulated dispatcher that first samples every worker a number of times,
+ * and then sends every job to the worker with the best likely value.
+ * 
+ * Every simulation has its own workers and random generator, so that the
+ * replications of the experiments can be run in parallel by a
+ * {@link SweepRunner}, and give the same results for the same seed.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
 class StochasticSamplingDispatcher {
     private static final int GENERATORS = 20;
-    private static final int SAMPLES = 10;
     private static final int INITIAL_SAMPLE_SIZE = 30;
     private static final int JOBCOUNT = 30000;
     private static final double STDDEV = 0.20;
@@ -17,28 +29,34 @@ class StochasticSamplingDispatcher {
     private static class Worker {
         private final double average;
         private final double likelyError;
+        private final Random rng;
 
-        Worker(final double average, final double likelyError) {
+        Worker(final double average, final double likelyError,
+                final Random rng) {
             super();
             this.average = average;
             this.likelyError = likelyError;
+            this.rng = rng;
         }
 
         double getValue() {
-            return average + likelyError * Globals.rng.nextGaussian();
+            return average + likelyError * rng.nextGaussian();
         }
     }
 
     private static class WorkerEstimator {
-        private final Estimator performance = buildEstimator(0, 0);
+        private final Estimator performance;
 
-        static Estimator buildEstimator(double mean, double stdDev) {
-            // return new ExponentialDecayEstimator(mena,stdDev);
-            return new GaussianEstimator(mean, stdDev);
+        static Estimator buildEstimator(final double mean,
+                final double stdDev, final Random rng) {
+            // return SeededEstimator.buildDecayingEstimator(mean, stdDev,
+            // 0.1, rng);
+            return SeededEstimator.buildGaussianEstimator(mean, stdDev, rng);
         }
 
-        WorkerEstimator() {
+        WorkerEstimator(final Random rng) {
             // Start with a very optimistic estimate to avoid corner cases
+            performance = buildEstimator(0, 0, rng);
             performance.addSample(0);
         }
 
@@ -59,7 +77,7 @@ class StochasticSamplingDispatcher {
              * Building an estimator just to get its name is rather wasteful but
              * hopefully it won't occur very often.
              */
-            return buildEstimator(0, 0).getName();
+            return buildEstimator(0, 0, null).getName();
         }
 
         public int getSampleCount() {
@@ -67,9 +85,6 @@ class StochasticSamplingDispatcher {
         }
     }
 
-    private static final Worker workers[] = new Worker[GENERATORS];
-    private static final WorkerEstimator workerEstimators[] = new WorkerEstimator[GENERATORS];
-
     private static double submitAJob(final boolean verbose, final Worker[] wl,
             final WorkerEstimator[] wel) {
         double bestOffer = Double.MAX_VALUE;
@@ -102,11 +117,10 @@ class StochasticSamplingDispatcher {
         return -1;
     }
 
-    private static void runExperiment(final PrintStream stream,
-            final String lbl, final boolean verbose,
-            final boolean printEndStats, final double fast,
+    private static Worker[] createWorkers(final double fast,
             final double normal, final double slow, final double stddev,
-            final int jobCount) {
+            final Random rng) {
+        final Worker workers[] = new Worker[GENERATORS];
         for (int i = 0; i < GENERATORS; i++) {
             double v = normal;
             if (i == 1) {
@@ -114,10 +128,80 @@ class StochasticSamplingDispatcher {
             } else if (i == 2) {
                 v = slow;
             }
-            workers[i] = new Worker(v, stddev * v);
-            workerEstimators[i] = new WorkerEstimator();
+            workers[i] = new Worker(v, stddev * v, FastRandom.split(rng));
+        }
+        return workers;
+    }
+
+    private static WorkerEstimator[] createWorkerEstimators(final Random rng) {
+        final WorkerEstimator workerEstimators[] = new WorkerEstimator[GENERATORS];
+        for (int i = 0; i < GENERATORS; i++) {
+            workerEstimators[i] = new WorkerEstimator(rng);
+        }
+        return workerEstimators;
+    }
+
+    /**
+     * Returns the worker selection policy with the given index, using the
+     * given random generator.
+     */
+    private static WorkerSelectionPolicy buildPolicy(final int index,
+            final Random rng) {
+        if (index == 0) {
+            return new UCB1Policy();
+        }
+        return new ThompsonSamplingPolicy(rng);
+    }
+
+    private static final int POLICY_COUNT = 2;
+
+    /**
+     * Runs an experiment with the given worker selection policy instead of
+     * our own initial sampling followed by greedy selection.
+     * 
+     * @return The average cost per job.
+     */
+    private static double runPolicyExperiment(
+            final WorkerSelectionPolicy policy, final double fast,
+            final double normal, final double slow, final double stddev,
+            final int jobCount, final Random rng) {
+        final Worker workers[] = createWorkers(fast, normal, slow, stddev,
+                rng);
+        final BanditArm arms[] = new BanditArm[GENERATORS];
+        for (int i = 0; i < GENERATORS; i++) {
+            arms[i] = new BanditArm(WorkerEstimator.buildEstimator(0, 0, rng));
         }
         double cost = 0;
+        for (int n = 0; n < jobCount; n++) {
+            int bestWorker = 0;
+            double bestScore = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < GENERATORS; i++) {
+                final double score = policy.getScore(arms[i], n);
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestWorker = i;
+                }
+            }
+            final double resultValue = workers[bestWorker].getValue();
+            arms[bestWorker].addSample(resultValue);
+            cost += resultValue;
+        }
+        return cost / jobCount;
+    }
+
+    /**
+     * Runs one simulation.
+     * 
+     * @return The average cost per job.
+     */
+    private static double runExperiment(final boolean verbose,
+            final boolean printEndStats, final double fast,
+            final double normal, final double slow, final double stddev,
+            final int jobCount, final Random rng) {
+        final Worker workers[] = createWorkers(fast, normal, slow, stddev,
+                rng);
+        final WorkerEstimator workerEstimators[] = createWorkerEstimators(rng);
+        double cost = 0;
         for (int i = 0; i < jobCount; i++) {
             cost += submitAJob(verbose, workers, workerEstimators);
         }
@@ -129,9 +213,51 @@ class StochasticSamplingDispatcher {
             System.out.format(
                     "Fast: %3g normal: %3g slow: %3g  Average cost: %.3g\n",
                     fast, normal, slow, cost / jobCount);
-        } else {
-            stream.println(lbl + " " + cost / jobCount);
         }
+        return cost / jobCount;
+    }
+
+    private static SweepRunner.Replication buildReplication(final double fast,
+            final double normal, final double slow, final double stddev,
+            final int jobCount) {
+        return new SweepRunner.Replication() {
+            @Override
+            public double run(final Random rng) {
+                return runExperiment(false, false, fast, normal, slow, stddev,
+                        jobCount, rng);
+            }
+        };
+    }
+
+    private static SweepRunner.Replication buildPolicyReplication(
+            final int policy, final double fast, final double normal,
+            final double slow, final double stddev, final int jobCount) {
+        return new SweepRunner.Replication() {
+            @Override
+            public double run(final Random rng) {
+                return runPolicyExperiment(buildPolicy(policy, rng), fast,
+                        normal, slow, stddev, jobCount, rng);
+            }
+        };
+    }
+
+    /**
+     * Runs replications of the given configurations until their average costs
+     * have converged, and writes the outcome of every replication to the
+     * given file, preceded by the label of its configuration.
+     */
+    private static void runSweep(final String fnm, final List<String> labels,
+            final List<SweepRunner.Replication> configurations) {
+        final double res[][] = new SweepRunner().runUntilConverged(
+                configurations, 1);
+        final PrintStream stream = openPrintFile(fnm);
+        for (int i = 0; i < res.length; i++) {
+            for (final double v : res[i]) {
+                stream.println(labels.get(i) + " " + v);
+            }
+        }
+        stream.close();
+        System.out.println("Wrote file '" + fnm + "'");
     }
 
     private static PrintStream openPrintFile(final String s) {
@@ -151,21 +277,17 @@ class StochasticSamplingDispatcher {
                 10000 };
         final double fast = 100;
         final double slowFactor = 1;
-        PrintStream stream;
         final String fnm = WorkerEstimator.getName() + "-normal-slowdown.data";
-        stream = openPrintFile(fnm);
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<SweepRunner.Replication> l = new ArrayList<SweepRunner.Replication>();
 
         for (final double normal : normalValues) {
             final double slow = slowFactor * normal;
 
-            for (int sample = 0; sample < SAMPLES; sample++) {
-                final String lbl = Double.toString(normal);
-                runExperiment(stream, lbl, false, false, fast, normal, slow,
-                        STDDEV, JOBCOUNT);
-            }
+            labels.add(Double.toString(normal));
+            l.add(buildReplication(fast, normal, slow, STDDEV, JOBCOUNT));
         }
-        stream.close();
-        System.out.println("Wrote file '" + fnm + "'");
+        runSweep(fnm, labels, l);
     }
 
     private static void runStdDevExperiments() {
@@ -173,20 +295,15 @@ class StochasticSamplingDispatcher {
         final double fast = 100;
         final double normal = 5 * fast;
         final double slow = normal;
-        PrintStream stream;
         final String fnm = WorkerEstimator.getName() + "-stddev.data";
-        stream = openPrintFile(fnm);
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<SweepRunner.Replication> l = new ArrayList<SweepRunner.Replication>();
 
         for (final double s : stddevs) {
-
-            for (int sample = 0; sample < SAMPLES; sample++) {
-                final String lbl = Double.toString(s * normal);
-                runExperiment(stream, lbl, false, false, fast, normal, slow, s,
-                        JOBCOUNT);
-            }
+            labels.add(Double.toString(s * normal));
+            l.add(buildReplication(fast, normal, slow, s, JOBCOUNT));
         }
-        stream.close();
-        System.out.println("Wrote file '" + fnm + "'");
+        runSweep(fnm, labels, l);
     }
 
     private static void runSampleCountExperiments() {
@@ -195,30 +312,88 @@ class StochasticSamplingDispatcher {
         final double fast = 100;
         final double normal = 10 * fast;
         final double slow = normal;
-        PrintStream stream;
         final String fnm = WorkerEstimator.getName() + "-samplecount.data";
-        stream = openPrintFile(fnm);
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<SweepRunner.Replication> l = new ArrayList<SweepRunner.Replication>();
 
         for (final int jobCount : samples) {
+            labels.add(Integer.toString(jobCount));
+            l.add(buildReplication(fast, normal, slow, STDDEV, jobCount));
+        }
+        runSweep(fnm, labels, l);
+    }
+
+    /**
+     * Returns the average of the given outcomes.
+     */
+    private static double average(final double l[]) {
+        double sum = 0;
+        for (final double v : l) {
+            sum += v;
+        }
+        return sum / l.length;
+    }
 
-            for (int sample = 0; sample < SAMPLES; sample++) {
-                final String lbl = Integer.toString(jobCount);
-                runExperiment(stream, lbl, false, false, fast, normal, slow,
-                        STDDEV, jobCount);
+    /**
+     * Compares the average cost of the bandit policies with that of our
+     * initial sampling followed by greedy selection, for a range of
+     * slowdowns of the normal workers. For each slowdown all variants get
+     * the same replications, so they are compared with common random
+     * numbers.
+     */
+    private static void runPolicyExperiments() {
+        final double normalValues[] = { 110, 150, 200, 500, 1000, 2000, 5000,
+                10000 };
+        final double fast = 100;
+        final String fnm = "policies.data";
+        final ArrayList<SweepRunner.Replication> l = new ArrayList<SweepRunner.Replication>();
+
+        // For each normal value, first the greedy configuration, then that
+        // of each policy.
+        for (final double normal : normalValues) {
+            final double slow = normal;
+            l.add(buildReplication(fast, normal, slow, STDDEV, JOBCOUNT));
+            for (int p = 0; p < POLICY_COUNT; p++) {
+                l.add(buildPolicyReplication(p, fast, normal, slow, STDDEV,
+                        JOBCOUNT));
+            }
+        }
+        final double res[][] = new SweepRunner().runUntilConverged(l,
+                1 + POLICY_COUNT);
+        final PrintStream stream = openPrintFile(fnm);
+        stream.print("# normal greedy");
+        for (int p = 0; p < POLICY_COUNT; p++) {
+            stream.print(" " + buildPolicy(p, null).getName());
+        }
+        stream.println();
+        int ix = 0;
+        for (final double normal : normalValues) {
+            final double greedyCost = average(res[ix++]);
+            stream.print(normal + " " + greedyCost);
+            System.out.format("normal=%6g greedy: %.4g", normal, greedyCost);
+            for (int p = 0; p < POLICY_COUNT; p++) {
+                final double cost = average(res[ix++]);
+                stream.print(" " + cost);
+                System.out.format(" %s: %.4g (%.3f)", buildPolicy(p, null)
+                        .getName(), cost, cost / greedyCost);
             }
+            stream.println();
+            System.out.println();
         }
         stream.close();
         System.out.println("Wrote file '" + fnm + "'");
     }
 
     public static void main(final String args[]) {
-        if (false) {
+        if (args.length > 0 && args[0].equals("--policies")) {
+            runPolicyExperiments();
+        } else if (args.length > 0 && args[0].equals("--sweep")) {
             runNormalSlowdownExperiments();
             runStdDevExperiments();
             runSampleCountExperiments();
         } else {
-            runExperiment(System.out, "test", false, true, 100, 200, 5000,
-                    STDDEV, JOBCOUNT);
+            runExperiment(false, true, 100, 200, 5000, STDDEV, JOBCOUNT,
+                    SweepRunner.buildRandom());
         }
     }
 }
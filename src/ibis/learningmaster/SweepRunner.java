@@ -0,0 +1,337 @@
+package ibis.learningmaster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the independent replications of a simulation experiment, in parallel
+ * if there is more than one processor. Every replication gets its own random
+ * generator, with a seed that only depends on the seed of the sweep and the
+ * index of the replication. Provided a replication only uses that generator
+ * and no shared state, the results are therefore the same for any number of
+ * threads, including a sequential run. The generators are
+ * {@link FastRandom}s, which do not synchronize, and which a replication can
+ * split to give its simulated entities their own streams.
+ * 
+ * Instead of a fixed number of replications, a sweep can also run a
+ * configuration until the confidence interval of its mean outcome is narrow
+ * enough. Replication <code>k</code> of every configuration then gets the
+ * same seed, so that configurations are compared under the same random
+ * circumstances (common random numbers), and the differences between them
+ * have a smaller variance than their outcomes.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class SweepRunner {
+    /** The system property that sets the seed of all sweeps. */
+    static final String SEED_PROPERTY = "learningmaster.seed";
+
+    /**
+     * The system property that sets the number of threads to run replications
+     * on; by default one per processor.
+     */
+    static final String THREADS_PROPERTY = "learningmaster.threads";
+
+    /**
+     * The system property that sets the precision of a sequential sweep: the
+     * largest half-width of the confidence interval of the mean outcome of a
+     * configuration, relative to that mean.
+     */
+    static final String PRECISION_PROPERTY = "learningmaster.precision";
+
+    /**
+     * The system property that sets the maximal number of replications of a
+     * configuration in a sequential sweep.
+     */
+    static final String MAX_REPLICATIONS_PROPERTY = "learningmaster.maxreplications";
+
+    private static final long DEFAULT_SEED = 20101214L;
+    private static final double DEFAULT_PRECISION = 0.02;
+    private static final int DEFAULT_MAX_REPLICATIONS = 100;
+
+    /**
+     * The number of replications of a configuration before its confidence
+     * interval is considered.
+     */
+    private static final int MIN_REPLICATIONS = 3;
+
+    /**
+     * For 1 to 30 degrees of freedom, the 97.5% quantile of the Student t
+     * distribution, for a two-sided 95% confidence interval.
+     */
+    private static final double tQuantiles[] = { 12.706, 4.303, 3.182, 2.776,
+            2.571, 2.447, 2.365, 2.306, 2.262, 2.228, 2.201, 2.179, 2.160,
+            2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086, 2.080, 2.074,
+            2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+    private final long seed;
+    private final int threads;
+    private final double precision;
+    private final int maxReplications;
+
+    /**
+     * One replication of an experiment.
+     */
+    interface Replication {
+        /**
+         * Runs this replication.
+         * 
+         * @param rng
+         *            The random generator this replication should use for all
+         *            its random choices.
+         * @return The outcome of the replication.
+         */
+        double run(Random rng);
+    }
+
+    SweepRunner(final long seed, final int threads, final double precision,
+            final int maxReplications) {
+        this.seed = seed;
+        this.threads = threads;
+        this.precision = precision;
+        this.maxReplications = Math.max(MIN_REPLICATIONS, maxReplications);
+    }
+
+    /**
+     * Constructs a sweep runner with the seed, number of threads, precision
+     * and maximal number of replications from the system properties.
+     */
+    SweepRunner() {
+        this(Long.getLong(SEED_PROPERTY, DEFAULT_SEED), Integer.getInteger(
+                THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                Utils.getDoubleProperty(PRECISION_PROPERTY, DEFAULT_PRECISION),
+                Utils.getIntProperty(MAX_REPLICATIONS_PROPERTY,
+                        DEFAULT_MAX_REPLICATIONS));
+    }
+
+    /**
+     * Returns a random generator for a single simulation run. It is seeded
+     * with the seed in the system properties if there is one, so that a run
+     * can be repeated.
+     * 
+     * @return The random generator.
+     */
+    static Random buildRandom() {
+        final Long seed = Long.getLong(SEED_PROPERTY);
+        return seed == null ? new FastRandom() : new FastRandom(seed);
+    }
+
+    /**
+     * Returns the seed of the replication with the given index. The seed is
+     * computed with the SplitMix64 mixing function, so that the streams of
+     * neighboring replications are unrelated.
+     * 
+     * @param seed
+     *            The seed of the sweep.
+     * @param index
+     *            The index of the replication.
+     * @return The seed of the replication.
+     */
+    static long getReplicationSeed(final long seed, final int index) {
+        return FastRandom.mix64(seed + (index + 1) * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Runs the given replications, and returns their outcomes in the same
+     * order.
+     * 
+     * @param replications
+     *            The replications to run.
+     * @return The outcome of each replication.
+     */
+    double[] run(final List<Replication> replications) {
+        final long seeds[] = new long[replications.size()];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = getReplicationSeed(seed, i);
+        }
+        return run(replications, seeds);
+    }
+
+    /**
+     * Runs the given replications with the given seeds, and returns their
+     * outcomes in the same order.
+     */
+    private double[] run(final List<Replication> replications,
+            final long seeds[]) {
+        final int n = replications.size();
+        final double res[] = new double[n];
+        if (threads <= 1 || n <= 1) {
+            for (int i = 0; i < n; i++) {
+                res[i] = replications.get(i).run(new FastRandom(seeds[i]));
+            }
+            return res;
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+                threads, n));
+        try {
+            final ArrayList<Future<Double>> results = new ArrayList<Future<Double>>(
+                    n);
+            for (int i = 0; i < n; i++) {
+                final Replication r = replications.get(i);
+                final long s = seeds[i];
+                results.add(pool.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() {
+                        return r.run(new FastRandom(s));
+                    }
+                }));
+            }
+            for (int i = 0; i < n; i++) {
+                res[i] = results.get(i).get();
+            }
+        } catch (final InterruptedException e) {
+            throw new RuntimeException("Interrupted while waiting for "
+                    + "replications", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+        return res;
+    }
+
+    /**
+     * Returns the 97.5% quantile of the Student t distribution with the given
+     * number of degrees of freedom. Beyond the table the first term of the
+     * Cornish-Fisher expansion is accurate to about 0.003.
+     */
+    private static double getTQuantile(final int df) {
+        if (df <= tQuantiles.length) {
+            return tQuantiles[df - 1];
+        }
+        final double z = 1.959964;
+        return z + (z * z * z + z) / (4 * df);
+    }
+
+    /**
+     * Returns the number of replications the given configuration needs to
+     * reach the precision, estimated from its first <code>n</code>
+     * outcomes, or <code>n</code> if it has already reached it.
+     */
+    private int getRequiredReplications(final double outcomes[], final int n) {
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += outcomes[k];
+        }
+        final double mean = sum / n;
+        double squares = 0;
+        for (int k = 0; k < n; k++) {
+            final double d = outcomes[k] - mean;
+            squares += d * d;
+        }
+        // The half-width of the confidence interval is spread/sqrt(n).
+        final double spread = getTQuantile(n - 1)
+                * Math.sqrt(squares / (n - 1));
+        final double tolerance = precision * Math.abs(mean);
+        if (spread <= tolerance * Math.sqrt(n)) {
+            return n;
+        }
+        if (tolerance == 0) {
+            return maxReplications;
+        }
+        final double required = Math.ceil((spread / tolerance)
+                * (spread / tolerance));
+        return required >= maxReplications ? maxReplications : (int) required;
+    }
+
+    /**
+     * Runs replications of each of the given configurations until the 95%
+     * confidence interval of the mean outcome of the configuration is
+     * narrower than the precision, or until the maximal number of
+     * replications has been run. Every round, the configurations that have
+     * not converged get as many extra replications as their current variance
+     * says they need, but at most as many as they already have, so that a
+     * poor early estimate does not lead to much overshoot. The replications
+     * of a round are run in parallel.
+     * 
+     * The configurations are divided into groups of <code>groupSize</code>
+     * consecutive ones, for example the variants of a scheduler for the same
+     * parameters. All configurations in a group get the same number of
+     * replications, and a group stops when all its configurations have
+     * converged. Since replication <code>k</code> of every configuration gets
+     * the same seed, the outcomes of the configurations in a group can be
+     * compared pairwise.
+     * 
+     * The outcomes only depend on the seed of the sweep, not on the number of
+     * threads.
+     * 
+     * @param configurations
+     *            The configurations; each call of a configuration runs a new
+     *            replication of it.
+     * @param groupSize
+     *            The number of configurations in a group.
+     * @return For every configuration, the outcomes of its replications.
+     */
+    double[][] runUntilConverged(final List<Replication> configurations,
+            final int groupSize) {
+        final int n = configurations.size();
+        if (groupSize < 1 || n % groupSize != 0) {
+            throw new IllegalArgumentException("Cannot divide "
+                    + n + " configurations into groups of " + groupSize);
+        }
+        final int groups = n / groupSize;
+        final double outcomes[][] = new double[n][maxReplications];
+        final int done[] = new int[groups];
+        final int target[] = new int[groups];
+        Arrays.fill(target, MIN_REPLICATIONS);
+        int total = 0;
+        while (true) {
+            final ArrayList<Replication> replications = new ArrayList<Replication>();
+            final ArrayList<Long> seeds = new ArrayList<Long>();
+            for (int g = 0; g < groups; g++) {
+                for (int c = g * groupSize; c < (g + 1) * groupSize; c++) {
+                    for (int k = done[g]; k < target[g]; k++) {
+                        replications.add(configurations.get(c));
+                        seeds.add(getReplicationSeed(seed, k));
+                    }
+                }
+            }
+            if (replications.isEmpty()) {
+                break;
+            }
+            final long l[] = new long[seeds.size()];
+            for (int i = 0; i < l.length; i++) {
+                l[i] = seeds.get(i);
+            }
+            final double res[] = run(replications, l);
+            total += res.length;
+            int ix = 0;
+            for (int g = 0; g < groups; g++) {
+                for (int c = g * groupSize; c < (g + 1) * groupSize; c++) {
+                    for (int k = done[g]; k < target[g]; k++) {
+                        outcomes[c][k] = res[ix++];
+                    }
+                }
+                done[g] = target[g];
+                int required = done[g];
+                for (int c = g * groupSize; c < (g + 1) * groupSize; c++) {
+                    required = Math.max(required, getRequiredReplications(
+                            outcomes[c], done[g]));
+                }
+                target[g] = Math.min(required, 2 * done[g]);
+            }
+        }
+        final double res[][] = new double[n][];
+        for (int c = 0; c < n; c++) {
+            res[c] = Arrays.copyOf(outcomes[c], done[c / groupSize]);
+        }
+        Globals.log.reportProgress("Ran " + total + " replications of " + n
+                + " configurations");
+        return res;
+    }
+}
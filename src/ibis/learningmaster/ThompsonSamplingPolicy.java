@@ -0,0 +1,35 @@
+package ibis.learningmaster;
+
+import java.util.Random;
+
+/**
+ * A worker selection policy based on Thompson sampling. For each arm we draw
+ * a value from the (Gaussian) posterior distribution of its mean cost, and
+ * select the arm with the lowest draw.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class ThompsonSamplingPolicy implements WorkerSelectionPolicy {
+    private final Random rng;
+
+    ThompsonSamplingPolicy(final Random rng) {
+        this.rng = rng;
+    }
+
+    @Override
+    public double getScore(final BanditArm arm, final int totalPulls) {
+        final int n = arm.getPulls();
+        if (n < 2) {
+            // We need at least two samples to have a posterior.
+            return Double.NEGATIVE_INFINITY;
+        }
+        final double stdErr = Math.sqrt(arm.getVariance() / n);
+        return arm.getMean() + stdErr * rng.nextGaussian();
+    }
+
+    @Override
+    public String getName() {
+        return "thompson";
+    }
+}
@@ -0,0 +1,125 @@
+package ibis.learningmaster;
+
+/**
+ * Learns the latency and bandwidth of a connection from the sizes and send
+ * times of the messages sent over it. It fits the line
+ * <code>t = latency + bytes/bandwidth</code> through the samples with
+ * exponentially decaying least squares.
+ * 
+ * Two fixed pseudo-samples on the line of the initial guess are always part
+ * of the fit. They dominate until there are real samples, and keep the fit
+ * well-defined when all messages have about the same size.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class TransferTimeEstimator {
+    private static final double DECAY_FACTOR = 0.05;
+
+    /** The initial guess of the latency in seconds. */
+    private static final double INITIAL_LATENCY = 1e-4;
+
+    /** The initial guess of the bandwidth in bytes per second. */
+    private static final double INITIAL_BANDWIDTH = 1e8;
+
+    /** The size of the larger pseudo-sample in bytes. */
+    private static final double PRIOR_SIZE = 1e6;
+
+    /** The weight of each pseudo-sample. */
+    private static final double PRIOR_WEIGHT = 0.05;
+
+    /** The smallest time we accept per byte; 100 GB/s. */
+    private static final double MINIMAL_TIME_PER_BYTE = 1e-11;
+
+    /** The send time of the larger pseudo-sample. */
+    private static final double PRIOR_TIME = INITIAL_LATENCY + PRIOR_SIZE
+            / INITIAL_BANDWIDTH;
+
+    // Decaying sums over the real samples.
+    private double sumW = 0;
+    private double sumX = 0;
+    private double sumY = 0;
+    private double sumXX = 0;
+    private double sumXY = 0;
+    private int sampleCount = 0;
+
+    /**
+     * Registers the transfer of a message.
+     * 
+     * @param bytes
+     *            The size of the message in bytes.
+     * @param time
+     *            The time it took to send the message in seconds.
+     */
+    synchronized void addSample(final long bytes, final double time) {
+        final double keep = 1 - DECAY_FACTOR;
+        final double x = bytes;
+        sumW = keep * sumW + 1;
+        sumX = keep * sumX + x;
+        sumY = keep * sumY + time;
+        sumXX = keep * sumXX + x * x;
+        sumXY = keep * sumXY + x * time;
+        sampleCount++;
+    }
+
+    private double getW() {
+        return sumW + 2 * PRIOR_WEIGHT;
+    }
+
+    private double getX() {
+        return sumX + PRIOR_WEIGHT * PRIOR_SIZE;
+    }
+
+    private double getY() {
+        return sumY + PRIOR_WEIGHT * (INITIAL_LATENCY + PRIOR_TIME);
+    }
+
+    /**
+     * Returns the estimated transfer time per byte in seconds.
+     * 
+     * @return The time per byte.
+     */
+    synchronized double getTimePerByte() {
+        final double w = getW();
+        final double x = getX();
+        final double xx = sumXX + PRIOR_WEIGHT * PRIOR_SIZE * PRIOR_SIZE;
+        final double xy = sumXY + PRIOR_WEIGHT * PRIOR_SIZE * PRIOR_TIME;
+        final double d = w * xx - x * x;
+        if (d <= 0) {
+            return 1 / INITIAL_BANDWIDTH;
+        }
+        final double slope = (w * xy - x * getY()) / d;
+        return Math.max(MINIMAL_TIME_PER_BYTE, slope);
+    }
+
+    /**
+     * Returns the estimated latency in seconds.
+     * 
+     * @return The latency.
+     */
+    synchronized double getLatency() {
+        return Math.max(0, (getY() - getTimePerByte() * getX()) / getW());
+    }
+
+    /**
+     * Returns the estimated time to send a message of the given size.
+     * 
+     * @param bytes
+     *            The size of the message in bytes.
+     * @return The estimated transfer time in seconds.
+     */
+    synchronized double estimateTransferTime(final long bytes) {
+        return getLatency() + bytes * getTimePerByte();
+    }
+
+    synchronized int getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "latency " + Utils.formatSeconds(getLatency()) + " bandwidth "
+                + Utils.formatByteCount((long) (1 / getTimePerByte())) + "/s ("
+                + sampleCount + " samples)";
+    }
+}
@@ -0,0 +1,24 @@
+package ibis.learningmaster;
+
+import ibis.ipl.IbisIdentifier;
+
+/**
+ * The interface of a source of estimates of the time it takes to send data
+ * to other nodes.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+interface TransferTimeModel {
+    /**
+     * Returns the estimated time to send a message of the given size to the
+     * given node.
+     * 
+     * @param destination
+     *            The node to send to.
+     * @param bytes
+     *            The size of the message in bytes.
+     * @return The estimated transfer time in seconds.
+     */
+    double estimateTransferTime(IbisIdentifier destination, long bytes);
+}
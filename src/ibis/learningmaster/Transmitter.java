@@ -4,7 +4,8 @@ import ibis.ipl.IbisIdentifier;
 
 import java.io.PrintStream;
 
-class Transmitter extends Thread {
+class Transmitter extends Thread implements TransferTimeModel,
+        TransmitterInterface {
     private final SendQueue requestQueue = new SendQueue();
     private final SendQueue bookkeepingQueue = new SendQueue();
     private final SendQueue dataQueue = new SendQueue();
@@ -24,7 +25,14 @@ class Transmitter extends Thread {
         setPriority(Thread.NORM_PRIORITY + 1);
     }
 
-    void addToRequestQueue(final IbisIdentifier destination,
+    @Override
+    public double estimateTransferTime(final IbisIdentifier destination,
+            final long bytes) {
+        return sendPort.estimateTransferTime(destination, bytes);
+    }
+
+    @Override
+    public void addToRequestQueue(final IbisIdentifier destination,
             final SmallMessage msg) {
         if (Settings.TraceTransmitter) {
             Globals.log.reportProgress("Transmitter: put on request queue: "
@@ -34,7 +42,9 @@ class Transmitter extends Thread {
         wakeTransmitter();
     }
 
-    void addToDataQueue(final IbisIdentifier destination, final Message msg) {
+    @Override
+    public void addToDataQueue(final IbisIdentifier destination,
+            final Message msg) {
         if (Settings.TraceTransmitter) {
             Globals.log
                     .reportProgress("Transmitter: put on data queue: " + msg);
@@ -43,7 +53,8 @@ class Transmitter extends Thread {
         wakeTransmitter();
     }
 
-    void addToBookkeepingQueue(final IbisIdentifier destination,
+    @Override
+    public void addToBookkeepingQueue(final IbisIdentifier destination,
             final Message msg) {
         if (Settings.TraceTransmitter) {
             Globals.log
@@ -0,0 +1,43 @@
+package ibis.learningmaster;
+
+import ibis.ipl.IbisIdentifier;
+
+/**
+ * The interface through which the master sends messages to its workers. It is
+ * implemented by the {@link Transmitter} of a real engine, and by the
+ * simulated network of the {@link SimulatedEngine}.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+interface TransmitterInterface {
+    /**
+     * Sends a small message, such as a job request, to the given destination.
+     * 
+     * @param destination
+     *            The node to send the message to.
+     * @param msg
+     *            The message to send.
+     */
+    void addToRequestQueue(IbisIdentifier destination, SmallMessage msg);
+
+    /**
+     * Sends a message with data, such as a result, to the given destination.
+     * 
+     * @param destination
+     *            The node to send the message to.
+     * @param msg
+     *            The message to send.
+     */
+    void addToDataQueue(IbisIdentifier destination, Message msg);
+
+    /**
+     * Sends a bookkeeping message to the given destination.
+     * 
+     * @param destination
+     *            The node to send the message to.
+     * @param msg
+     *            The message to send.
+     */
+    void addToBookkeepingQueue(IbisIdentifier destination, Message msg);
+}
@@ -0,0 +1,45 @@
+package ibis.learningmaster;
+
+/**
+ * A worker selection policy based on the UCB1 algorithm. Since we minimize
+ * costs that have no natural bound, the confidence interval is scaled with
+ * the sample variance of each arm, as in the UCB1-Normal variant, and we
+ * select on the lower confidence bound of the cost.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class UCB1Policy implements WorkerSelectionPolicy {
+    /** The width of the confidence interval. */
+    private final double exploration;
+
+    /**
+     * @param exploration
+     *            The width of the confidence interval; larger values mean
+     *            more exploration.
+     */
+    UCB1Policy(final double exploration) {
+        this.exploration = exploration;
+    }
+
+    UCB1Policy() {
+        this(2.0);
+    }
+
+    @Override
+    public double getScore(final BanditArm arm, final int totalPulls) {
+        final int n = arm.getPulls();
+        if (n < 2) {
+            // We need at least two samples to have a variance.
+            return Double.NEGATIVE_INFINITY;
+        }
+        final double w = Math.sqrt(exploration * arm.getVariance()
+                * Math.log(totalPulls) / n);
+        return arm.getMean() - w;
+    }
+
+    @Override
+    public String getName() {
+        return "ucb1";
+    }
+}
@@ -1,6 +1,13 @@
 package ibis.learningmaster;
 
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.Location;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.Serializable;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
@@ -121,6 +128,65 @@ class Utils {
 		return NANOSECOND * System.nanoTime();
 	}
 
+	/**
+	 * Returns the size of the given object when it is serialized. The object
+	 * is serialized to a stream that only counts the bytes.
+	 * 
+	 * @param obj
+	 *            The object to measure.
+	 * @return The size of the serialized object in bytes, or <code>0</code>
+	 *         for a <code>null</code> object.
+	 */
+	static long getSerializedSize(final Serializable obj) {
+		if (obj == null) {
+			return 0;
+		}
+		final CountingOutputStream counter = new CountingOutputStream();
+		try {
+			final ObjectOutputStream out = new ObjectOutputStream(counter);
+			out.writeObject(obj);
+			out.close();
+		} catch (final IOException x) {
+			Globals.log.reportInternalError("Cannot serialize " + obj + ": "
+					+ x.getLocalizedMessage());
+		}
+		return counter.count;
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		@Override
+		public void write(final int b) {
+			count++;
+		}
+
+		@Override
+		public void write(final byte b[], final int off, final int len) {
+			count += len;
+		}
+	}
+
+	/**
+	 * Returns the site of the given ibis: its location without the most
+	 * specific level. Usually that is the cluster the ibis runs on. If the
+	 * location has only one level, that level is returned.
+	 * 
+	 * @param ibis
+	 *            The ibis to get the site of.
+	 * @return The site.
+	 */
+	static String getSite(final IbisIdentifier ibis) {
+		final Location location = ibis.location();
+		if (location == null) {
+			return "";
+		}
+		if (location.numberOfLevels() <= 1) {
+			return location.toString();
+		}
+		return location.getParent().toString();
+	}
+
 	static String getCanonicalHostname() {
 		String res;
 
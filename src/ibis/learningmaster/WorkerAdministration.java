@@ -2,70 +2,289 @@ package ibis.learningmaster;
 
 import ibis.ipl.IbisIdentifier;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * The administration of the jobs that have been sent to workers, and for which
+ * we have not yet received a completion message.
+ * 
+ * All outstanding requests are in a global map from request id to request, so
+ * that a completion is handled in constant time, whatever the number of
+ * requests in flight. Each worker also has the set of its own requests, in
+ * submission order, so that the requests of a worker that has gone can be
+ * returned to the scheduler, and its oldest request can be found in constant
+ * time.
+ * 
+ * Most methods may be called from any thread. The exceptions are
+ * <code>removeExpiredRequests</code>, <code>abandonRequest</code>,
+ * <code>removeExpiredRequest</code> and <code>removeJob</code>, which use
+ * the unsynchronized map of expired requests and may only be called by the
+ * engine thread. A request is owned by the caller that manages to remove it
+ * from the global map; only that caller may complete the request or return
+ * it to the scheduler. This guarantees that a request that completes while
+ * its worker is removed is either completed or returned, but never both.
+ * 
+ * Every request has a deadline. Requests that are still outstanding after
+ * their deadline are considered lost, and are removed by
+ * <code>removeExpiredRequests</code> so that they can be reissued. Since the
+ * worker may still complete them, expired requests are remembered until
+ * their job has been completed, so that a late completion can still be
+ * recognized. The same holds for requests that are abandoned because another
+ * copy of their job completed first.
+ * 
+ * To keep the administration proportional to the number of outstanding
+ * requests, the deadline queue is compacted when it holds more requests that
+ * are no longer outstanding than requests that are, and the expired and
+ * abandoned requests whose job has been completed are forgotten when they
+ * outnumber the outstanding requests.
+ * 
+ * All times are taken from a {@link Clock}, so that the administration can
+ * also be used in simulated time.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
 class WorkerAdministration {
     private final ConcurrentHashMap<IbisIdentifier, WorkerInfo> workerInfo = new ConcurrentHashMap<IbisIdentifier, WorkerAdministration.WorkerInfo>();
-    private int outstandingRequests = 0;
-    private static int nextId = 0;
+    private final ConcurrentHashMap<Integer, OutstandingRequest> requests = new ConcurrentHashMap<Integer, OutstandingRequest>();
+    private final AtomicInteger outstandingRequests = new AtomicInteger();
 
+    /** The timeout of a request that never expires. */
+    static final double NO_TIMEOUT = Double.POSITIVE_INFINITY;
+
+    /**
+     * The identifier of the next request. Identifiers only need to be unique
+     * within one master, so every administration has its own counter.
+     */
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * All requests ordered by deadline. Requests that have already been
+     * completed or returned are removed when their deadline passes, or when
+     * the queue is compacted. Guarded by its own lock.
+     */
+    private final PriorityQueue<OutstandingRequest> deadlines = new PriorityQueue<OutstandingRequest>(
+            11, new DeadlineComparator());
+
+    /**
+     * Expired and abandoned requests that may still be completed. Only
+     * accessed by the engine thread.
+     */
+    private final HashMap<Integer, OutstandingRequest> expiredRequests = new HashMap<Integer, OutstandingRequest>();
+
+    /**
+     * The number of requests the deadline queue and the map of expired
+     * requests may hold regardless of the number of outstanding requests,
+     * so that they aren't cleaned up over and over again when only a few
+     * requests are outstanding.
+     */
+    private static final int MINIMAL_CLEANUP_SIZE = 64;
+
+    /**
+     * The size of the map of expired requests after its last cleanup. The
+     * map is only cleaned up again once it has doubled, since the requests
+     * whose job hasn't been completed yet can't be forgotten. Only accessed
+     * by the engine thread.
+     */
+    private int prunedExpiredRequests = 0;
+
+    /** The source of the current time. */
+    private final Clock clock;
+
+    WorkerAdministration(final Clock clock) {
+        this.clock = clock;
+    }
+
+    WorkerAdministration() {
+        this(Clock.SYSTEM);
+    }
+
+    /**
+     * Returns the current time, in the time base of all times in this
+     * administration.
+     * 
+     * @return The current time in nanoseconds.
+     */
+    long getCurrentTime() {
+        return clock.nanoTime();
+    }
+
+    private static class DeadlineComparator implements
+            Comparator<OutstandingRequest>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int compare(final OutstandingRequest a,
+                final OutstandingRequest b) {
+            if (a.deadline < b.deadline) {
+                return -1;
+            }
+            if (a.deadline > b.deadline) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * The requests of a single worker. All access is synchronized on the
+     * instance.
+     */
     private static final class WorkerInfo {
-        private final ArrayList<OutstandingRequest> requests = new ArrayList<OutstandingRequest>();
+        /** The outstanding requests of this worker, in submission order. */
+        private final LinkedHashMap<Integer, OutstandingRequest> requests = new LinkedHashMap<Integer, OutstandingRequest>();
         private boolean deleted = false;
 
+        /**
+         * Adds the given request to this worker, unless the worker has been
+         * deleted.
+         * 
+         * @return <code>true</code> iff the request was added.
+         */
         synchronized boolean add(final OutstandingRequest rq) {
-            requests.add(rq);
-            return deleted;
-        }
-
-        synchronized void returnRequests(final Scheduler scheduler) {
-            for (final OutstandingRequest r : requests) {
-                requests.remove(r);
-                scheduler.returnJob(r.job);
-                Globals.log.reportProgress("Returning request " + r
-                        + " to scheduler, since this worker has gone");
+            if (deleted) {
+                return false;
             }
+            requests.put(rq.id, rq);
+            return true;
         }
 
-        synchronized void setDeleted() {
+        /**
+         * Marks this worker as deleted, and returns the requests it still had.
+         * 
+         * @return The outstanding requests of this worker.
+         */
+        synchronized ArrayList<OutstandingRequest> setDeleted() {
+            final ArrayList<OutstandingRequest> res = new ArrayList<OutstandingRequest>(
+                    requests.values());
             requests.clear();
             deleted = true;
+            return res;
         }
 
-        @SuppressWarnings("synthetic-access")
-        synchronized void removeJob(final int id) {
-            for (final OutstandingRequest r : requests) {
-                if (r.id == id) {
-                    Globals.log.reportProgress("Returning request " + r
-                            + " to scheduler");
-                    requests.remove(r);
-                    return;
-                }
-            }
+        synchronized void remove(final int id) {
+            requests.remove(id);
         }
 
         synchronized boolean hasRoomForJob(final int sz) {
             return !deleted && requests.size() < sz;
         }
 
+        synchronized int getRequestCount() {
+            return requests.size();
+        }
+
+        synchronized OutstandingRequest getOldestRequest() {
+            final Iterator<OutstandingRequest> it = requests.values()
+                    .iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            return it.next();
+        }
+
+        synchronized long getOldestSubmissionTime() {
+            final OutstandingRequest r = getOldestRequest();
+            return r == null ? Long.MAX_VALUE : r.submissionTime;
+        }
+
     }
 
     boolean hasRoomForJob(final IbisIdentifier worker, final int sz) {
         final WorkerInfo info = workerInfo.get(worker);
-        return info.hasRoomForJob(sz);
+        return info != null && info.hasRoomForJob(sz);
     }
 
-    private static class OutstandingRequest {
-        private final JobInstance job;
-        private final int id;
-        private final IbisIdentifier worker;
+    /**
+     * Returns the number of outstanding requests of the given worker.
+     * 
+     * @param worker
+     *            The worker.
+     * @return The number of outstanding requests.
+     */
+    int getOutstandingRequestCount(final IbisIdentifier worker) {
+        final WorkerInfo info = workerInfo.get(worker);
+        if (info == null) {
+            return 0;
+        }
+        return info.getRequestCount();
+    }
+
+    /**
+     * Returns the submission time of the oldest outstanding request of the
+     * given worker, in the time base of the clock.
+     * 
+     * @param worker
+     *            The worker.
+     * @return The submission time, or <code>Long.MAX_VALUE</code> if the
+     *         worker has no outstanding requests.
+     */
+    long getOldestSubmissionTime(final IbisIdentifier worker) {
+        final WorkerInfo info = workerInfo.get(worker);
+        if (info == null) {
+            return Long.MAX_VALUE;
+        }
+        return info.getOldestSubmissionTime();
+    }
+
+    /**
+     * Returns the oldest outstanding request of the given worker. Since a
+     * worker executes its jobs in order, that is usually the one it is
+     * executing.
+     * 
+     * @param worker
+     *            The worker.
+     * @return The oldest request, or <code>null</code> if the worker has no
+     *         outstanding requests.
+     */
+    OutstandingRequest getOldestRequest(final IbisIdentifier worker) {
+        final WorkerInfo info = workerInfo.get(worker);
+        if (info == null) {
+            return null;
+        }
+        return info.getOldestRequest();
+    }
+
+    /**
+     * A job that has been sent to a worker, but for which we have not yet
+     * received a completion message.
+     * 
+     * @author Kees van Reeuwijk
+     * 
+     */
+    static class OutstandingRequest {
+        final JobInstance job;
+        final int id;
+        final IbisIdentifier worker;
+
+        /** The time of submission. */
+        final long submissionTime;
 
-        public OutstandingRequest(final IbisIdentifier worker,
-                final JobInstance job, final int id) {
+        /** The time in seconds after which we consider this request lost. */
+        final double timeout;
+
+        /** The time after which we consider this request lost. */
+        final long deadline;
+
+        OutstandingRequest(final IbisIdentifier worker, final JobInstance job,
+                final int id, final double timeout, final long submissionTime) {
             this.job = job;
             this.id = id;
             this.worker = worker;
+            this.submissionTime = submissionTime;
+            this.timeout = timeout;
+            // Saturate, since a pessimistic timeout can be absurdly large.
+            final double t = 1e9 * timeout;
+            this.deadline = t < Long.MAX_VALUE - submissionTime ? submissionTime
+                    + (long) t : Long.MAX_VALUE;
         }
 
         @Override
@@ -79,48 +298,271 @@ class WorkerAdministration {
         workerInfo.put(worker, new WorkerInfo());
     }
 
-    int addRequest(final IbisIdentifier worker, final JobInstance job) {
+    /**
+     * Registers that the given job is sent to the given worker.
+     * 
+     * @param worker
+     *            The worker the job is sent to.
+     * @param job
+     *            The job.
+     * @param timeout
+     *            The time in seconds after which the request is considered
+     *            lost, or <code>NO_TIMEOUT</code>.
+     * @return The identifier of the request, or <code>-1</code> if the worker
+     *         is not in the administration.
+     */
+    int addRequest(final IbisIdentifier worker, final JobInstance job,
+            final double timeout) {
         final WorkerInfo info = workerInfo.get(worker);
         if (info == null) {
             Globals.log.reportInternalError("Ibis '" + worker
                     + "' not in administration");
             return -1;
         }
-        final int id = nextId++;
-        final OutstandingRequest rq = new OutstandingRequest(worker, job, id);
-        info.add(rq);
-        outstandingRequests++;
+        final int id = nextId.getAndIncrement();
+        final OutstandingRequest rq = new OutstandingRequest(worker, job, id,
+                timeout, clock.nanoTime());
+        requests.put(id, rq);
+        synchronized (deadlines) {
+            deadlines.add(rq);
+        }
+        outstandingRequests.incrementAndGet();
+        if (!info.add(rq)) {
+            // The worker was removed in the mean time.
+            if (requests.remove(id) != null) {
+                outstandingRequests.decrementAndGet();
+            }
+            synchronized (deadlines) {
+                deadlines.remove(rq);
+            }
+            Globals.log.reportInternalError("Ibis '" + worker
+                    + "' has been removed from the administration");
+            return -1;
+        }
+        job.requestId = id;
         return id;
     }
 
     void dumpState() {
         Globals.log
                 .reportProgress("Worker administation: total outstanding request: "
-                        + outstandingRequests);
+                        + outstandingRequests.get());
     }
 
+    /**
+     * Removes the given worker from the administration, and returns its
+     * outstanding requests to the scheduler.
+     * 
+     * @param worker
+     *            The worker to remove.
+     * @param scheduler
+     *            The scheduler to return the requests to.
+     */
     void removeWorker(final IbisIdentifier worker, final Scheduler scheduler) {
-        final WorkerInfo info = workerInfo.get(worker);
-        if (info != null) {
-            info.setDeleted();
-            info.returnRequests(scheduler);
+        final WorkerInfo info = workerInfo.remove(worker);
+        if (info == null) {
+            return;
+        }
+        for (final OutstandingRequest r : info.setDeleted()) {
+            if (requests.remove(r.id) != null) {
+                outstandingRequests.decrementAndGet();
+                if (hasOtherCopy(r)) {
+                    Globals.log.reportProgress("Dropping request " + r
+                            + ", since this worker has gone and another copy"
+                            + " is still outstanding");
+                    continue;
+                }
+                r.job.forgetCopies();
+                scheduler.returnJob(r.job);
+                Globals.log.reportProgress("Returning request " + r
+                        + " to scheduler, since this worker has gone");
+            }
+        }
+        compactDeadlines();
+    }
+
+    /**
+     * Removes the requests that are no longer outstanding from the deadline
+     * queue, if they outnumber the outstanding ones. Since at least half of
+     * the queue is removed every time, the cost per request is constant on
+     * average. Without this, the queue would hold every completed request,
+     * with its job and input, until its deadline, and a request with a
+     * saturated deadline forever.
+     */
+    private void compactDeadlines() {
+        synchronized (deadlines) {
+            final int sz = deadlines.size();
+            if (sz <= MINIMAL_CLEANUP_SIZE
+                    || sz <= 2 * outstandingRequests.get()) {
+                return;
+            }
+            final ArrayList<OutstandingRequest> live = new ArrayList<OutstandingRequest>();
+            for (final OutstandingRequest r : deadlines) {
+                if (requests.containsKey(r.id)) {
+                    live.add(r);
+                }
+            }
+            deadlines.clear();
+            deadlines.addAll(live);
+        }
+    }
+
+    /**
+     * Forgets the expired and abandoned requests whose job has been
+     * completed, if there are more of them than outstanding requests. A late
+     * completion of such a request is then treated as the completion of an
+     * unknown request.
+     */
+    private void pruneExpiredRequests() {
+        final int sz = expiredRequests.size();
+        if (sz <= MINIMAL_CLEANUP_SIZE || sz <= outstandingRequests.get()
+                || sz <= 2 * prunedExpiredRequests) {
+            return;
+        }
+        final Iterator<OutstandingRequest> it = expiredRequests.values()
+                .iterator();
+        while (it.hasNext()) {
+            if (it.next().job.completed) {
+                it.remove();
+            }
         }
+        prunedExpiredRequests = expiredRequests.size();
+    }
+
+    /**
+     * Removes all requests whose deadline has passed from the administration,
+     * and returns them. They are remembered as expired requests, so that a
+     * late completion can still be recognized.
+     * 
+     * @param now
+     *            The current time in the time base of the clock.
+     * @return The expired requests, or <code>null</code> if there are none.
+     */
+    ArrayList<OutstandingRequest> removeExpiredRequests(final long now) {
+        ArrayList<OutstandingRequest> res = null;
+        while (true) {
+            final OutstandingRequest r;
+            synchronized (deadlines) {
+                final OutstandingRequest head = deadlines.peek();
+                if (head == null || head.deadline > now) {
+                    break;
+                }
+                r = deadlines.poll();
+            }
+            if (requests.remove(r.id) != null) {
+                outstandingRequests.decrementAndGet();
+                final WorkerInfo info = workerInfo.get(r.worker);
+                if (info != null) {
+                    info.remove(r.id);
+                }
+                if (res == null) {
+                    res = new ArrayList<OutstandingRequest>();
+                }
+                expiredRequests.put(r.id, r);
+                res.add(r);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns true iff the request with the given id is still outstanding.
+     * 
+     * @param id
+     *            The identifier of the request.
+     * @return <code>true</code> iff the request is outstanding.
+     */
+    boolean isOutstanding(final int id) {
+        return requests.containsKey(id);
+    }
+
+    /**
+     * Returns true iff another request for the job of the given request is
+     * still outstanding, for example the backup copy of a speculatively
+     * executed job.
+     * 
+     * @param r
+     *            The request.
+     * @return <code>true</code> iff another copy of the job is outstanding.
+     */
+    boolean hasOtherCopy(final OutstandingRequest r) {
+        final JobInstance job = r.job;
+        return isOtherOutstanding(job.requestId, r.id)
+                || isOtherOutstanding(job.primaryRequestId, r.id)
+                || isOtherOutstanding(job.backupRequestId, r.id);
+    }
+
+    private boolean isOtherOutstanding(final int id, final int self) {
+        return id != self && isOutstanding(id);
+    }
+
+    /**
+     * Gives up on the given request, because its job has been completed by
+     * another request or has been cancelled. A later completion of the
+     * request is recognized as a duplicate.
+     * 
+     * @param id
+     *            The identifier of the request.
+     * @return The abandoned request, or <code>null</code> if it was not
+     *         outstanding.
+     */
+    OutstandingRequest abandonRequest(final int id) {
+        final OutstandingRequest r = requests.remove(id);
+        if (r != null) {
+            outstandingRequests.decrementAndGet();
+            final WorkerInfo info = workerInfo.get(r.worker);
+            if (info != null) {
+                info.remove(id);
+            }
+            expiredRequests.put(id, r);
+            compactDeadlines();
+        }
+        return r;
+    }
+
+    /**
+     * Removes the given expired request from the administration.
+     * 
+     * @param id
+     *            The identifier of the request.
+     * @return The expired request, or <code>null</code> if there is no
+     *         expired request with this identifier.
+     */
+    OutstandingRequest removeExpiredRequest(final int id) {
+        return expiredRequests.remove(id);
     }
 
     boolean isEmpty() {
-        return outstandingRequests < 1;
+        return outstandingRequests.get() < 1;
     }
 
-    boolean removeJob(final IbisIdentifier worker, final int id,
-            final boolean failed) {
-        outstandingRequests--;
-        if (failed) {
-            Globals.log.reportError("Job  " + id + " failed");
+    /**
+     * Removes the given job from the administration of outstanding requests.
+     * 
+     * @param worker
+     *            The worker that executed the job.
+     * @param id
+     *            The identifier of the job.
+     * @return The request that was removed, or <code>null</code> if it was
+     *         not in the administration.
+     */
+    OutstandingRequest removeJob(final IbisIdentifier worker, final int id) {
+        final OutstandingRequest rq = requests.remove(id);
+        if (rq == null) {
+            return null;
         }
-        final WorkerInfo info = workerInfo.get(worker);
+        outstandingRequests.decrementAndGet();
+        if (!rq.worker.equals(worker)) {
+            Globals.log.reportInternalError("Job " + id
+                    + " was sent to worker " + rq.worker
+                    + ", but completed by " + worker);
+        }
+        final WorkerInfo info = workerInfo.get(rq.worker);
         if (info != null) {
-            info.removeJob(id);
+            info.remove(id);
         }
-        return false;
+        compactDeadlines();
+        pruneExpiredRequests();
+        return rq;
     }
 }
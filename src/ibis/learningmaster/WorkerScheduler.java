@@ -3,7 +3,6 @@ package ibis.learningmaster;
 import ibis.ipl.IbisIdentifier;
 
 import java.io.PrintStream;
-import java.io.Serializable;
 
 /**
  * This class does nothing more than watch for the departure of the master node.
@@ -44,7 +43,8 @@ class WorkerScheduler implements Scheduler {
     }
 
     @Override
-    public void workerHasJoined(final IbisIdentifier source) {
+    public void workerHasJoined(final IbisIdentifier source,
+            final String hostname) {
         // Ignore
     }
 
@@ -64,18 +64,39 @@ class WorkerScheduler implements Scheduler {
     }
 
     @Override
-    public boolean maintainOutstandingRequests(final Transmitter transmitter,
+    public void registerCompletedJob(final IbisIdentifier worker,
+            final JobInstance job, final double completionTime,
+            final double roundTripTime, final long resultSize) {
+        Globals.log
+                .reportInternalError("Someone tried to register a completed job with the worker scheduler");
+    }
+
+    @Override
+    public boolean maintainOutstandingRequests(
+            final TransmitterInterface transmitter,
             final WorkerAdministration outstandingRequests) {
         return false;
     }
 
+    @Override
+    public void jobTimedOut(final IbisIdentifier worker,
+            final JobInstance job, final double elapsedTime) {
+        Globals.log
+                .reportInternalError("Someone tried to time out a job with the worker scheduler");
+    }
+
+    @Override
+    public double estimateExecutionTime(final Job job) {
+        return 1;
+    }
+
     @Override
     public boolean thereAreRequestsToSubmit() {
         return false;
     }
 
     @Override
-    public void submitRequest(final AtomicJob job, final Serializable input) {
+    public void submitRequest(final JobInstance job) {
         throw new Error("Internal error: submitting jobs to a worker scheduler");
     }
 
@@ -0,0 +1,30 @@
+package ibis.learningmaster;
+
+/**
+ * The interface of a policy that decides which worker gets the next job, given
+ * what we have learned about the workers so far. A policy assigns a score to
+ * each worker, and the job is sent to the worker with the lowest score.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+interface WorkerSelectionPolicy {
+    /**
+     * Returns the score of the given arm. Arms that should be tried before
+     * anything else get negative infinity.
+     * 
+     * @param arm
+     *            The arm to compute the score for.
+     * @param totalPulls
+     *            The total number of pulls over all arms.
+     * @return The score of the arm; lower is better.
+     */
+    double getScore(BanditArm arm, int totalPulls);
+
+    /**
+     * Returns the name of this policy.
+     * 
+     * @return The name.
+     */
+    String getName();
+}
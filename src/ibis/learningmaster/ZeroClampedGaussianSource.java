@@ -2,17 +2,30 @@ package ibis.learningmaster;
 
 import java.util.Random;
 
-class ZeroClampedGaussianSource {
-    private final Random rng = new Random();
+/**
+ * A source of durations drawn from a Gaussian distribution, where negative
+ * values are replaced by zero.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+class ZeroClampedGaussianSource implements DurationSource {
+    private final Random rng;
     private final double mean;
     private final double stdDev;
 
-    ZeroClampedGaussianSource(double mean, double stdDev) {
+    ZeroClampedGaussianSource(double mean, double stdDev, Random rng) {
         this.mean = mean;
         this.stdDev = stdDev;
+        this.rng = rng;
     }
 
-    double next() {
+    ZeroClampedGaussianSource(double mean, double stdDev) {
+        this(mean, stdDev, new FastRandom());
+    }
+
+    @Override
+    public double next() {
         return Math.max(0, mean + rng.nextGaussian() * stdDev);
     }
 